@@ -0,0 +1,63 @@
+package densityEstimator;
+
+import java.util.Random;
+
+/**
+ * This class generates the data sets of the benchmarks.
+ *  
+ * @author Róbert Ormándi
+ */
+public class BenchmarkData {
+  
+  /**
+   * It generates <i>n</i> samples from the given distribution.
+   * <ul>
+   *   <li><i>separated</i>: mixture of 3 well-separated Gaussians</li>
+   *   <li><i>overlapping</i>: mixture of 3 overlapping Gaussians</li>
+   *   <li><i>heavyTailed</i>: Student-t like samples (Gaussian divided by the square root of a scaled chi-square with 3 degrees of freedom)</li>
+   * </ul>
+   *  
+   * @param distribution name of the distribution
+   * @param n number of samples
+   * @param seed seed of the pseudo random number generator
+   * @return generated samples
+   */
+  public static double[] generate(String distribution, int n, long seed) {
+    final Random r = new Random(seed);
+    final double[] xs = new double[n];
+    for (int j = 0; j < n; j ++) {
+      if ("separated".equals(distribution)) {
+        xs[j] = (j % 3 - 1) * 5.0 + 0.5 * r.nextGaussian();
+      } else if ("overlapping".equals(distribution)) {
+        xs[j] = (j % 3 - 1) * 0.5 + r.nextGaussian();
+      } else if ("heavyTailed".equals(distribution)) {
+        double chi2 = 0.0;
+        for (int d = 0; d < 3; d ++) {
+          double g = r.nextGaussian();
+          chi2 += g * g;
+        }
+        xs[j] = r.nextGaussian() / Math.sqrt(chi2 / 3.0);
+      } else {
+        throw new RuntimeException("Unknown distribution " + distribution + "!");
+      }
+    }
+    return xs;
+  }
+  
+  /**
+   * It creates an estimator of the given class and initializes it by running it on some samples,
+   * so that the benchmarks measure a model which is in a realistic state.
+   *  
+   * @param estimator simple name of the estimator class
+   * @param k number of components
+   * @param params parameters of the estimator
+   * @param warmUp samples used to initialize the model
+   * @return initialized estimator
+   */
+  public static MixtureModel createModel(String estimator, int k, String params, double[] warmUp) throws Exception {
+    MixtureModel model = (MixtureModel) Class.forName("densityEstimator." + estimator).getConstructor(Integer.TYPE).newInstance(k);
+    model.parseParameters(params);
+    model.update(warmUp, 0, warmUp.length);
+    return model;
+  }
+}
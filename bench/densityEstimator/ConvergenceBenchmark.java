@@ -0,0 +1,196 @@
+package densityEstimator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * This is a suite which measures how fast the estimators converge to a set of reference mixtures.
+ * Unlike the JMH benchmarks it is a standalone program: each estimator is trained on a stream of 
+ * each reference mixture, and at every snapshot the suite records the L1 distance and the KL 
+ * divergence KL(true||estimated) of the pdfs on a grid and the average log-likelihood of held out
+ * samples (which are drawn from the current true mixture). The curves are written into the CSV file
+ * resultDir/scenario-estimator.csv, and a summary of the samples and the update time needed to reach
+ * the target L1 distance (for good, i.e. the distance stays below the target until the end of the
+ * run) is written into resultDir/summary.csv.<br/>
+ * The reference mixtures are:
+ * <ul>
+ *   <li><i>separated</i>: 3 well-separated components</li>
+ *   <li><i>overlapping</i>: 3 strongly overlapping components</li>
+ *   <li><i>skewed</i>: 3 components with weights 0.9, 0.09 and 0.01</li>
+ *   <li><i>many</i>: 16 separated components with equal weights</li>
+ *   <li><i>drifting</i>: 3 separated components whose means move linearly by 4 during the run</li>
+ * </ul>
+ * Every estimator is created with the number of components of the reference mixture. The options are
+ * (in form -name=value): samples (per run, default 2000000), snapshot (default 20000), target (L1 
+ * distance, default 0.05), heldOut (default 10000), seed, resultDir (default bench-results/convergence),
+ * scenarios (comma separated names) and estimators (';' separated SimpleClassName[:params] items).
+ * 
+ * @author Róbert Ormándi
+ */
+public class ConvergenceBenchmark {
+  private static final String DEFAULT_ESTIMATORS = "SmoothGMM:batchSize=1000,alpha=0.2;BatchBasedOnlineGMM:batchSize=1000;StepwiseOnlineGMM:stepExponent=0.6";
+  private static final String DEFAULT_SCENARIOS = "separated,overlapping,skewed,many,drifting";
+  private static final int GENERATION_BLOCK_SIZE = 1000;
+  private static final int GRID_CELLS = 4000;
+  private static final double GRID_RANGE_IN_SIGMAS = 8.0;
+  
+  /**
+   * This is a reference mixture whose means can move linearly during the run.
+   */
+  private static class Scenario {
+    final String name;
+    final double[] w, m, v;
+    final double drift; // total shift of the means during the run
+    
+    Scenario(String name, double[] w, double[] m, double[] v, double drift) {
+      this.name = name;
+      this.w = w;
+      this.m = m;
+      this.v = v;
+      this.drift = drift;
+    }
+    
+    /**
+     * It returns the true mixture after the given fraction of the run.
+     */
+    GMMSnapshot getMixture(double progress) {
+      final double[] shifted = new double[m.length];
+      for (int i = 0; i < m.length; i ++) {
+        shifted[i] = m[i] + drift * progress;
+      }
+      return new GMMSnapshot(w, shifted, v);
+    }
+  }
+  
+  private static Scenario createScenario(String name) {
+    if ("separated".equals(name)) {
+      return new Scenario(name, new double[]{0.3, 0.4, 0.3}, new double[]{-5.0, 0.0, 5.0}, new double[]{0.5, 0.5, 0.5}, 0.0);
+    } else if ("overlapping".equals(name)) {
+      return new Scenario(name, new double[]{0.4, 0.3, 0.3}, new double[]{-0.5, 0.5, 1.5}, new double[]{1.0, 0.7, 1.0}, 0.0);
+    } else if ("skewed".equals(name)) {
+      return new Scenario(name, new double[]{0.9, 0.09, 0.01}, new double[]{-1.0, 1.5, 4.0}, new double[]{0.5, 0.5, 0.3}, 0.0);
+    } else if ("many".equals(name)) {
+      final double[] w = new double[16], m = new double[16], v = new double[16];
+      for (int i = 0; i < 16; i ++) {
+        w[i] = 1.0 / 16.0;
+        m[i] = 2.0 * i - 15.0;
+        v[i] = 0.4;
+      }
+      return new Scenario(name, w, m, v, 0.0);
+    } else if ("drifting".equals(name)) {
+      return new Scenario(name, new double[]{0.3, 0.4, 0.3}, new double[]{-5.0, 0.0, 5.0}, new double[]{0.5, 0.5, 0.5}, 4.0);
+    }
+    throw new RuntimeException("Unknown scenario " + name + ", it has to be one of " + ConvergenceBenchmark.DEFAULT_SCENARIOS + "!");
+  }
+  
+  /**
+   * It computes the average log-likelihood of the samples.
+   */
+  private static double computeAverageLogLikelihood(MixtureModel model, double[] xs, double[] out) {
+    model.computeLogDensityValues(xs, out);
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += out[j];
+    }
+    return sum / xs.length;
+  }
+  
+  private static double computeAverageLogLikelihood(GMMSnapshot mixture, double[] xs) {
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += mixture.computeLogDensityValue(xs[j]);
+    }
+    return sum / xs.length;
+  }
+  
+  public static void main(String[] args) throws Exception {
+    final Map<String,String> options = new TreeMap<String,String>();
+    for (String arg : args) {
+      if (!arg.startsWith("-") || !arg.contains("=")) {
+        throw new RuntimeException("Unknown argument " + arg + ", the options have to be given in form -name=value!");
+      }
+      final String[] nameValuePair = arg.substring(1).split("=", 2);
+      options.put(nameValuePair[0], nameValuePair[1]);
+    }
+    final long samples = Long.parseLong(options.containsKey("samples") ? options.get("samples") : "2000000");
+    final long snapshot = Long.parseLong(options.containsKey("snapshot") ? options.get("snapshot") : "20000");
+    final double target = Double.parseDouble(options.containsKey("target") ? options.get("target") : "0.05");
+    final int heldOutSize = Integer.parseInt(options.containsKey("heldOut") ? options.get("heldOut") : "10000");
+    final long seed = Long.parseLong(options.containsKey("seed") ? options.get("seed") : "123456789");
+    final File resultDir = new File(options.containsKey("resultDir") ? options.get("resultDir") : "bench-results/convergence");
+    final String[] scenarios = (options.containsKey("scenarios") ? options.get("scenarios") : ConvergenceBenchmark.DEFAULT_SCENARIOS).split(",");
+    final String[] estimators = (options.containsKey("estimators") ? options.get("estimators") : ConvergenceBenchmark.DEFAULT_ESTIMATORS).split(";");
+    if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+      throw new IOException("The result directory " + resultDir + " cannot be created!");
+    }
+    
+    final List<String> summary = new ArrayList<String>();
+    summary.add("scenario,estimator,params,samplesToTarget,updateSecondsToTarget,samplesPerSec,finalL1,finalKL,finalHeldOutLogLikelihood");
+    System.out.println(String.format("%-12s %-24s %16s %16s %14s %10s", "scenario", "estimator", "samples to L1", "seconds to L1", "samples/sec", "final L1"));
+    for (String scenarioName : scenarios) {
+      final Scenario scenario = createScenario(scenarioName);
+      for (String estimator : estimators) {
+        final String[] classAndParams = estimator.split(":", 2);
+        final String params = (classAndParams.length == 2) ? classAndParams[1] : "";
+        final MixtureModel model = (MixtureModel) Class.forName("densityEstimator." + classAndParams[0]).getConstructor(Integer.TYPE).newInstance(scenario.w.length);
+        model.parseParameters(params);
+        // the same streams for every estimator
+        final SplittableRandom stream = new SplittableRandom(seed);
+        final SplittableRandom heldOutStream = new SplittableRandom(seed + 1);
+        final double[] block = new double[ConvergenceBenchmark.GENERATION_BLOCK_SIZE];
+        final double[] heldOut = new double[heldOutSize];
+        final double[] logDensities = new double[heldOutSize];
+        final DensityGrid grid = DensityGrid.covering(scenario.getMixture(0.5), ConvergenceBenchmark.GRID_RANGE_IN_SIGMAS + scenario.drift, ConvergenceBenchmark.GRID_CELLS);
+        
+        final PrintWriter curve = new PrintWriter(new File(resultDir, scenario.name + "-" + classAndParams[0] + ".csv"), "UTF-8");
+        curve.println("samples,updateSeconds,l1,kl,heldOutLogLikelihood,trueHeldOutLogLikelihood");
+        long updateNanos = 0, samplesToTarget = -1, nanosToTarget = -1;
+        double l1 = Double.NaN, kl = Double.NaN, logLikelihood = Double.NaN;
+        for (long i = 0; i < samples; ) {
+          final int n = (int) Math.min(block.length, Math.min(samples, (i / snapshot + 1) * snapshot) - i);
+          scenario.getMixture(i / (double) samples).sample(block, 0, n, stream);
+          final long t = System.nanoTime();
+          model.update(block, 0, n);
+          updateNanos += System.nanoTime() - t;
+          i += n;
+          if (i % snapshot == 0 || i == samples) {
+            final GMMSnapshot truth = scenario.getMixture(i / (double) samples);
+            truth.sample(heldOut, 0, heldOut.length, heldOutStream);
+            l1 = grid.computeL1Distance(truth, model);
+            kl = grid.computeKLDivergence(truth, model);
+            logLikelihood = computeAverageLogLikelihood(model, heldOut, logDensities);
+            curve.println(i + "," + (updateNanos / 1.0E9) + "," + l1 + "," + kl + "," + logLikelihood + "," + computeAverageLogLikelihood(truth, heldOut));
+            // the target is reached when the distance stays below it until the end of the run
+            if (l1 > target) {
+              samplesToTarget = -1;
+              nanosToTarget = -1;
+            } else if (samplesToTarget < 0) {
+              samplesToTarget = i;
+              nanosToTarget = updateNanos;
+            }
+          }
+        }
+        curve.close();
+        
+        final double throughput = samples * 1.0E9 / Math.max(updateNanos, 1L);
+        summary.add(scenario.name + "," + classAndParams[0] + ",\"" + params + "\"," + samplesToTarget + "," + ((nanosToTarget < 0) ? -1.0 : nanosToTarget / 1.0E9) + "," 
+            + throughput + "," + l1 + "," + kl + "," + logLikelihood);
+        System.out.println(String.format("%-12s %-24s %16s %16s %14.1f %10.4f", scenario.name, classAndParams[0], 
+            (samplesToTarget < 0) ? "-" : Long.toString(samplesToTarget), (nanosToTarget < 0) ? "-" : String.format("%.4f", nanosToTarget / 1.0E9), throughput, l1));
+      }
+    }
+    final PrintWriter out = new PrintWriter(new File(resultDir, "summary.csv"), "UTF-8");
+    for (String line : summary) {
+      out.println(line);
+    }
+    out.close();
+    System.out.println("The curves and the summary are written into " + resultDir + " (target L1 distance: " + target + ", scenarios: " + Arrays.toString(scenarios) + ")");
+  }
+}
@@ -0,0 +1,105 @@
+package densityEstimator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the evaluation of the density function, the distribution function and the
+ * quantiles of a trained model.
+ *  
+ * @author Róbert Ormándi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DensityBenchmark {
+  private static final int QUERIES = 1 << 12;
+  
+  @Param({"3", "16", "256"})
+  public int k;
+  
+  @Param({"separated", "overlapping", "heavyTailed"})
+  public String distribution;
+  
+  private double[] xs;
+  private double[] ps;
+  private MixtureModel model;
+  
+  @Setup
+  public void setup() throws Exception {
+    model = BenchmarkData.createModel("BatchBasedOnlineGMM", k, "batchSize=1000", BenchmarkData.generate(distribution, 100000, 123456789L));
+    xs = BenchmarkData.generate(distribution, DensityBenchmark.QUERIES, 987654321L);
+    // uniform and tail probabilities (e.g. alerting thresholds) alternately
+    ps = new double[DensityBenchmark.QUERIES];
+    for (int j = 0; j < ps.length; j ++) {
+      ps[j] = (j % 2 == 0) ? (j + 0.5) / ps.length : 1.0 - Math.pow(10.0, -2 - j % 7);
+    }
+    // the quantile table is built at the first query
+    model.computeQuantile(0.5);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(DensityBenchmark.QUERIES)
+  public double density() {
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += model.computeDensityValue(xs[j]);
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(DensityBenchmark.QUERIES)
+  public double logDensity() {
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += model.computeLogDensityValue(xs[j]);
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(DensityBenchmark.QUERIES)
+  public double cdf() {
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += model.computeCdf(xs[j]);
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(DensityBenchmark.QUERIES)
+  public double tailProbability() {
+    double sum = 0.0;
+    for (int j = 0; j < xs.length; j ++) {
+      sum += model.computeTailProbability(xs[j]);
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(DensityBenchmark.QUERIES)
+  public double quantile() {
+    double sum = 0.0;
+    for (int j = 0; j < ps.length; j ++) {
+      sum += model.computeQuantile(ps[j]);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,54 @@
+package densityEstimator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the cost of the M-step (including the refresh of the cached
+ * coefficients) on statistics collected from a full batch.
+ *  
+ * @author Róbert Ormándi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MStepBenchmark {
+  @Param({"3", "16", "256"})
+  public int k;
+  
+  @Param({"1000", "100000"})
+  public int batchSize;
+  
+  @Param({"separated", "overlapping", "heavyTailed"})
+  public String distribution;
+  
+  private BatchBasedOnlineGMM model;
+  
+  @Setup
+  public void setup() throws Exception {
+    double[] xs = BenchmarkData.generate(distribution, 4 * batchSize - 1, 123456789L);
+    // the statistics of the last (almost full) batch remain in the model
+    model = (BatchBasedOnlineGMM) BenchmarkData.createModel("BatchBasedOnlineGMM", k, "batchSize=" + batchSize, xs);
+  }
+  
+  @Benchmark
+  public double mStep() {
+    model.stats.maximize(model.w, model.m, model.v, batchSize);
+    model.refreshCoefficients();
+    return model.lw[0];
+  }
+}
@@ -0,0 +1,95 @@
+package densityEstimator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark compares the keyed update and scoring of many small models stored in a GMMStore
+ * to the same operations on an array of SmoothGMM instances.
+ * 
+ * @author Róbert Ormándi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class StoreBenchmark {
+  private static final int SAMPLES = 1 << 18;
+  private static final String PARAMS = "batchSize=100,alpha=0.2";
+  
+  @Param({"1000", "1000000"})
+  public int models;
+  
+  @Param({"3"})
+  public int k;
+  
+  private int[] ids;
+  private double[] xs;
+  private double[] out;
+  private GMMStore store;
+  private SmoothGMM[] instances;
+  
+  @Setup
+  public void setup() {
+    final Random r = new Random(123456789L);
+    xs = BenchmarkData.generate("overlapping", StoreBenchmark.SAMPLES, 987654321L);
+    ids = new int[StoreBenchmark.SAMPLES];
+    for (int j = 0; j < ids.length; j ++) {
+      ids[j] = r.nextInt(models);
+    }
+    out = new double[StoreBenchmark.SAMPLES];
+    store = new GMMStore(k);
+    store.parseParameters(StoreBenchmark.PARAMS);
+    store.addModels(models);
+    instances = new SmoothGMM[models];
+    for (int i = 0; i < models; i ++) {
+      instances[i] = new SmoothGMM(k);
+      instances[i].parseParameters(StoreBenchmark.PARAMS);
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(StoreBenchmark.SAMPLES)
+  public void storeUpdate() {
+    store.update(ids, xs, 0, xs.length);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(StoreBenchmark.SAMPLES)
+  public void instancesUpdate() {
+    for (int j = 0; j < xs.length; j ++) {
+      instances[ids[j]].update(xs[j]);
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(StoreBenchmark.SAMPLES)
+  public double[] storeScore() {
+    store.score(ids, xs, out);
+    return out;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(StoreBenchmark.SAMPLES)
+  public double[] instancesScore() {
+    for (int j = 0; j < xs.length; j ++) {
+      out[j] = instances[ids[j]].computeLogDensityValue(xs[j]);
+    }
+    return out;
+  }
+}
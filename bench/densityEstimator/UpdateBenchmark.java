@@ -0,0 +1,67 @@
+package densityEstimator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the update throughput of the estimators both in case of the
+ * sample by sample and the bulk update.
+ *  
+ * @author Róbert Ormándi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+  private static final int SAMPLES = 1 << 16;
+  
+  @Param({"BatchBasedOnlineGMM", "SmoothGMM"})
+  public String estimator;
+  
+  @Param({"3", "16", "256"})
+  public int k;
+  
+  @Param({"100", "10000"})
+  public int batchSize;
+  
+  @Param({"separated", "overlapping", "heavyTailed"})
+  public String distribution;
+  
+  private double[] xs;
+  private MixtureModel model;
+  
+  @Setup
+  public void setup() throws Exception {
+    xs = BenchmarkData.generate(distribution, UpdateBenchmark.SAMPLES, 123456789L);
+    model = BenchmarkData.createModel(estimator, k, "batchSize=" + batchSize + ",alpha=0.2", xs);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(UpdateBenchmark.SAMPLES)
+  public void updateSingle() {
+    for (int j = 0; j < xs.length; j ++) {
+      model.update(xs[j]);
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(UpdateBenchmark.SAMPLES)
+  public void updateBulk() {
+    model.update(xs, 0, xs.length);
+  }
+}
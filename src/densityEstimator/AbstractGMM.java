@@ -1,6 +1,13 @@
 package densityEstimator;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.random.RandomGenerator;
 
 /**
  * This is an abstract implementation of interface MixtureModel which
@@ -13,16 +20,83 @@ import java.util.Arrays;
 public abstract class AbstractGMM implements MixtureModel {
   private static final long serialVersionUID = -7538021417587298397L;
   
-  private final static double ONE_PER_SQRT2PI = 1.0/Math.sqrt(2.0 *  Math.PI);
+  protected final static double ONE_PER_SQRT2PI = 1.0/Math.sqrt(2.0 *  Math.PI);
+  protected final static double LOG_SQRT2PI = 0.5 * Math.log(2.0 * Math.PI);
   private final static double DEFAULT_VARIANCE = 0.1;
+  private final static int SCORING_BLOCK_SIZE = 256;
+  final static int SAMPLING_CHUNK_SIZE = 1 << 16;
+  private final static double SPLIT_OFFSET = 0.5;
+  // overlap of the two halves of a split component (exp(-1/6)), a lower mergeOverlap would undo the splits
+  private final static double SPLIT_OVERLAP = AbstractGMM.computeOverlap(-AbstractGMM.SPLIT_OFFSET, Math.sqrt(1.0 - AbstractGMM.SPLIT_OFFSET * AbstractGMM.SPLIT_OFFSET), 
+      AbstractGMM.SPLIT_OFFSET, Math.sqrt(1.0 - AbstractGMM.SPLIT_OFFSET * AbstractGMM.SPLIT_OFFSET));
   
   protected int k = 0;
   protected double[] w = null;  // component (w)eights
   protected double[] m = null;  // component (m)eans
   protected double[] v = null;  // component (v)ariances
   
+  // per-component coefficients which are refreshed only when the parameters change
+  protected double[] lw = null; // (l)og (w)eights
+  protected double[] ln = null; // (l)og (n)ormalisers i.e. -log(sqrt(2*pi)*v)
+  protected double[] iv = null; // (i)nverse (v)ariances i.e. 1/v^2
+  
+  // approximate scoring
+  protected double densityTableError = 0.0;    // error bound of the density table (0.0 means exact scoring)
+  protected transient DensityTable densityTable = null; // table of the current parameters, it is built lazily
+  
+  // sampling and quantiles
+  protected transient AliasSampler aliasSampler = null; // alias table of the current weights, it is built lazily
+  protected transient QuantileTable quantileTable = null; // inverse cdf table of the current parameters, it is built lazily
+  
+  // instrumentation
+  protected transient EstimatorMetrics metrics = null; // runtime metrics (null means that the instrumentation is off)
+  
+  // model order management
+  protected boolean pruneDead = false;  // the dead components are removed after the M-steps
+  protected double mergeOverlap = 0.0;  // overlap above which two components are merged (0.0 means no merging)
+  protected double splitSigma = 0.0;    // variance above which a component is split (0.0 means no splitting)
+  protected int maxComponents = 0;      // upper bound of the number of components for splitting
+  protected int layout = 0;             // it is incremented each time the components are removed, merged or split
+  
+  // data driven initialization
+  protected InitializationStrategy initialization = null; // initialization of the components (null means the default components)
+  protected int initSamples = 0;        // number of samples from which the components are initialized
+  protected double[] reservoir = null;  // first samples of the stream, it is null once the components are initialized
+  protected int reserved = 0;           // number of samples in the reservoir
+  
   public abstract void update(double x);
   
+  /**
+   * This is a generic implementation which simply calls update(double) for each sample.
+   * The subclasses are encouraged to override it with a more efficient block based solution.
+   */
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + xs.length + "!");
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      update(xs[j]);
+    }
+  }
+  
+  @Override
+  public void update(DoubleBuffer xs) {
+    if (xs.hasArray()) {
+      // heap buffer: use its array directly
+      update(xs.array(), xs.arrayOffset() + xs.position(), xs.remaining());
+      xs.position(xs.limit());
+    } else {
+      // direct buffer: copy it in chunks
+      double[] chunk = new double[Math.min(xs.remaining(), 4096)];
+      while (xs.hasRemaining()) {
+        int n = Math.min(xs.remaining(), chunk.length);
+        xs.get(chunk, 0, n);
+        update(chunk, 0, n);
+      }
+    }
+  }
+  
   /**
    * This method sets the number of components and since the model is changed
    * initialzes the components.<br/>
@@ -33,6 +107,7 @@ public abstract class AbstractGMM implements MixtureModel {
   private void init(int k) {
     // update the number of components
     this.k = k;
+    layout ++;
     
     // initialize component weights uniformly
     w = new double[k];
@@ -45,6 +120,64 @@ public abstract class AbstractGMM implements MixtureModel {
     }
     v = new double[k];
     Arrays.fill(v, AbstractGMM.DEFAULT_VARIANCE);
+    
+    // initialize coefficients
+    lw = new double[k];
+    ln = new double[k];
+    iv = new double[k];
+    refreshCoefficients();
+    
+    // the new components are initialized from the data again
+    reservoir = (initialization == null) ? null : new double[initSamples];
+    reserved = 0;
+  }
+  
+  /**
+   * This method recomputes the cached per-component coefficients from the current parameters. 
+   * It has to be called each time the arrays w, m or v are modified, otherwise the density 
+   * functions are evaluated using the previous parameters.
+   */
+  protected void refreshCoefficients() {
+    AbstractGMM.computeCoefficients(k, w, v, lw, ln, iv);
+    densityTable = null;
+    aliasSampler = null;
+    quantileTable = null;
+  }
+  
+  /**
+   * This method turns on the approximate scoring mode. In this mode computeDensityValue and 
+   * computeDensityValues answer the queries from a DensityTable whose absolute error is at most 
+   * maxError. The table is built by the first query after each change of the parameters, so its 
+   * cost is paid at most once per M-step. The points outside of the table (which are far from every
+   * component) and the log-density queries are evaluated exactly.
+   * 
+   * @param maxError error bound of the table or 0.0 to turn off the approximate scoring
+   */
+  public void setDensityTableError(double maxError) {
+    if (maxError < 0.0) {
+      throw new RuntimeException("The error bound of the density table has to be non-negative!");
+    }
+    densityTableError = maxError;
+    densityTable = null;
+  }
+  
+  /**
+   * This method computes the per-component coefficients (log weights, log normalisers and 
+   * inverse variances) of the given Gaussian components.
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param v component variances (sigma values)
+   * @param lw output array of log weights
+   * @param ln output array of log normalisers
+   * @param iv output array of inverse variances
+   */
+  static void computeCoefficients(int k, double[] w, double[] v, double[] lw, double[] ln, double[] iv) {
+    for (int i = 0; i < k; i ++) {
+      lw[i] = Math.log(w[i]); // negative infinity for dead components
+      ln[i] = - Math.log(v[i]) - AbstractGMM.LOG_SQRT2PI;
+      iv[i] = 1.0 / (v[i] * v[i]);
+    }
   }
   
   /**
@@ -58,31 +191,855 @@ public abstract class AbstractGMM implements MixtureModel {
    */
   protected double computeComponentDensity(int i, double x) {
     if (0 <= i && i < k) {
-      if (w[i] > 0.0) {
-        double z = (x - m[i]) / v[i];
-        z *= z;
-        double ret = w[i] * AbstractGMM.ONE_PER_SQRT2PI * (1.0/v[i]) * Math.exp(-0.5 * z);
-        //System.out.print("\nx=" + x + ", z=" + z + ", i=" + i + ", density=" + ret);
-        return ret;
-      } else {
-        return 0.0;
-      }
+      return Math.exp(computeComponentLogDensity(i, x));
     }
     return Double.NaN;
   }
   
+  /**
+   * This method computes the logarithm of the weighted probability density function value at x in 
+   * case of <i>i</i>th component using the cached coefficients. It does not check the index <i>i</i>.
+   * 
+   * @param i index of component between 0 (inclusive) and numberOfComponenets (exclusive)
+   * @param x point in which the log of the weighted pdf will be evaluated
+   * @return log of the weighted pdf function value (negative infinity for dead components)
+   */
+  protected double computeComponentLogDensity(int i, double x) {
+    final double d = x - m[i];
+    return lw[i] + ln[i] - 0.5 * d * d * iv[i];
+  }
+  
   @Override
   public double computeDensityValue(double x) {
-    double density = 0.0;
-    
-    // compute the value of density function at x using the current parameters
+    if (densityTableError > 0.0) {
+      final double density = getDensityTable().lookup(x);
+      if (density == density) { // it is not NaN i.e. x is in the table
+        return density;
+      }
+    }
+    return Math.exp(computeLogDensityValue(x));
+  }
+  
+  /**
+   * It returns the density table of the current parameters and builds it if it is necessary.
+   * If the table cannot be built, an empty one is returned and the queries are evaluated exactly.
+   */
+  private DensityTable getDensityTable() {
+    DensityTable table = densityTable;
+    if (table == null) {
+      table = DensityTable.build(k, w, m, v, lw, ln, iv, densityTableError);
+      if (table == null) {
+        table = DensityTable.EMPTY;
+      }
+      densityTable = table;
+    }
+    return table;
+  }
+  
+  @Override
+  public double computeLogDensityValue(double x) {
+    // compute the value of log density function at x using the current parameters (log-sum-exp)
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      max = Math.max(max, computeComponentLogDensity(i, x));
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      sum += Math.exp(computeComponentLogDensity(i, x) - max);
+    }
+    return max + Math.log(sum);
+  }
+  
+  @Override
+  public void computeDensityValues(double[] xs, double[] out) {
+    if (densityTableError > 0.0) {
+      final DensityTable table = getDensityTable();
+      for (int j = 0; j < xs.length; j ++) {
+        final double density = table.lookup(xs[j]);
+        out[j] = (density == density) ? density : Math.exp(computeLogDensityValue(xs[j]));
+      }
+    } else {
+      computeLogDensityValues(xs, out);
+      for (int j = 0; j < xs.length; j ++) {
+        out[j] = Math.exp(out[j]);
+      }
+    }
+  }
+  
+  /**
+   * The log densities are computed in blocks using component-major loops (log-sum-exp).
+   */
+  @Override
+  public void computeLogDensityValues(double[] xs, double[] out) {
+    if (out.length < xs.length) {
+      throw new IndexOutOfBoundsException("The output array is shorter (" + out.length + ") than the input (" + xs.length + ")!");
+    }
+    final double[] sums = new double[Math.min(xs.length, AbstractGMM.SCORING_BLOCK_SIZE)];
+    for (int offset = 0; offset < xs.length; offset += AbstractGMM.SCORING_BLOCK_SIZE) {
+      final int n = Math.min(xs.length - offset, AbstractGMM.SCORING_BLOCK_SIZE);
+      // maximal log densities
+      Arrays.fill(out, offset, offset + n, Double.NEGATIVE_INFINITY);
+      for (int i = 0; i < k; i ++) {
+        final double coef = lw[i] + ln[i];
+        final double a = -0.5 * iv[i];
+        final double mi = m[i];
+        for (int j = offset; j < offset + n; j ++) {
+          final double d = xs[j] - mi;
+          out[j] = Math.max(out[j], coef + a * d * d);
+        }
+      }
+      // sums of the scaled densities
+      Arrays.fill(sums, 0, n, 0.0);
+      for (int i = 0; i < k; i ++) {
+        final double coef = lw[i] + ln[i];
+        final double a = -0.5 * iv[i];
+        final double mi = m[i];
+        for (int j = 0; j < n; j ++) {
+          final double d = xs[offset + j] - mi;
+          sums[j] += Math.exp(coef + a * d * d - out[offset + j]);
+        }
+      }
+      for (int j = 0; j < n; j ++) {
+        // the maximum is negative infinity only if the point is far from every component (or every component is dead)
+        out[offset + j] = (out[offset + j] == Double.NEGATIVE_INFINITY) ? Double.NEGATIVE_INFINITY : out[offset + j] + Math.log(sums[j]);
+      }
+    }
+  }
+  
+  @Override
+  public double computeCdf(double x) {
+    return AbstractGMM.computeCdf(k, w, m, v, x);
+  }
+  
+  @Override
+  public double computeTailProbability(double x) {
+    return AbstractGMM.computeTailProbability(k, w, m, v, x);
+  }
+  
+  @Override
+  public double computeQuantile(double p) {
+    QuantileTable table = quantileTable;
+    if (table == null) {
+      table = AbstractGMM.buildQuantileTable(k, w, m, v, lw, ln, iv);
+      quantileTable = table;
+    }
+    return table.quantile(p);
+  }
+  
+  /**
+   * This method computes the cdf of the given Gaussian mixture at x. The weights are normalized, so
+   * the cdf tends to 1 even if the weights do not sum to 1 exactly.
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param x point
+   * @return value of the cdf
+   */
+  static double computeCdf(int k, double[] w, double[] m, double[] v, double x) {
+    double sum = 0.0, weights = 0.0;
     for (int i = 0; i < k; i ++) {
-      density += computeComponentDensity(i, x);
+      if (w[i] > 0.0) {
+        sum += w[i] * QuantileTable.normalCdf((x - m[i]) / v[i]);
+        weights += w[i];
+      }
     }
+    return sum / weights;
+  }
+  
+  /**
+   * This method computes the tail probability of the given Gaussian mixture at x (see computeCdf).
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param x point
+   * @return tail probability
+   */
+  static double computeTailProbability(int k, double[] w, double[] m, double[] v, double x) {
+    double sum = 0.0, weights = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        sum += w[i] * QuantileTable.normalTail((x - m[i]) / v[i]);
+        weights += w[i];
+      }
+    }
+    return sum / weights;
+  }
+  
+  /**
+   * This method builds the quantile table of the given Gaussian mixture. The arrays are used
+   * directly, so they must not change while the table is in use.
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param lw log weights of the components
+   * @param ln log normalisers of the components
+   * @param iv inverse variances of the components
+   * @return quantile table
+   */
+  static QuantileTable buildQuantileTable(final int k, final double[] w, final double[] m, final double[] v, final double[] lw, final double[] ln, final double[] iv) {
+    double weights = 0.0, first = 0.0, second = 0.0, minSigma = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        weights += w[i];
+        first += w[i] * m[i];
+        second += w[i] * (v[i] * v[i] + m[i] * m[i]);
+        minSigma = Math.min(minSigma, v[i]);
+      }
+    }
+    if (!(weights > 0.0)) {
+      throw new RuntimeException("The quantiles are undefined since every component is dead!");
+    }
+    final double mean = first / weights;
+    final double scale = Math.max(Math.sqrt(Math.max(second / weights - mean * mean, 0.0)), minSigma);
+    final double norm = 1.0 / weights;
+    return new QuantileTable(new DistributionFunction() {
+      @Override
+      public double cdf(double x) {
+        return AbstractGMM.computeCdf(k, w, m, v, x);
+      }
+      
+      @Override
+      public double tail(double x) {
+        return AbstractGMM.computeTailProbability(k, w, m, v, x);
+      }
+      
+      @Override
+      public double density(double x) {
+        double sum = 0.0;
+        for (int i = 0; i < k; i ++) {
+          final double d = x - m[i];
+          sum += Math.exp(lw[i] + ln[i] - 0.5 * d * d * iv[i]);
+        }
+        return sum * norm;
+      }
+    }, mean, scale);
+  }
+  
+  @Override
+  public double sample(RandomGenerator rng) {
+    final int i = getAliasSampler().next(rng);
+    return m[i] + v[i] * rng.nextGaussian();
+  }
+  
+  @Override
+  public void sample(double[] out, RandomGenerator rng) {
+    sample(out, 0, out.length, rng);
+  }
+  
+  @Override
+  public void sample(double[] out, int offset, int length, RandomGenerator rng) {
+    if (offset < 0 || length < 0 || offset + length > out.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + out.length + "!");
+    }
+    AbstractGMM.generateSamples(getAliasSampler(), m, v, out, offset, length, rng);
+  }
+  
+  /**
+   * It returns the alias table of the current weights and builds it if it is necessary.
+   */
+  private AliasSampler getAliasSampler() {
+    AliasSampler sampler = aliasSampler;
+    if (sampler == null) {
+      sampler = new AliasSampler(k, w);
+      aliasSampler = sampler;
+    }
+    return sampler;
+  }
+  
+  /**
+   * This method generates samples from the Gaussian mixture which is given by the alias table of its
+   * weights, its means and its variances. If the generator is splittable and the request is larger than
+   * SAMPLING_CHUNK_SIZE, the output is cut into chunks of SAMPLING_CHUNK_SIZE samples, a generator is 
+   * split off for each chunk in order and the chunks are filled in parallel, so the result is reproducible
+   * from a single seed regardless of the number of threads.
+   * 
+   * @param sampler alias table of the component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param out output array of the samples
+   * @param offset index of the first generated sample
+   * @param length number of generated samples
+   * @param rng source of randomness
+   */
+  static void generateSamples(AliasSampler sampler, double[] m, double[] v, double[] out, int offset, int length, RandomGenerator rng) {
+    if (length > AbstractGMM.SAMPLING_CHUNK_SIZE && rng instanceof RandomGenerator.SplittableGenerator) {
+      final RandomGenerator.SplittableGenerator root = (RandomGenerator.SplittableGenerator) rng;
+      final RandomGenerator[] rngs = new RandomGenerator[(length + AbstractGMM.SAMPLING_CHUNK_SIZE - 1) / AbstractGMM.SAMPLING_CHUNK_SIZE];
+      for (int c = 0; c < rngs.length; c ++) {
+        rngs[c] = root.split();
+      }
+      ForkJoinPool.commonPool().invoke(new SamplingTask(sampler, m, v, out, offset, length, rngs, 0, rngs.length));
+    } else {
+      AbstractGMM.fillSamples(sampler, m, v, out, offset, offset + length, rng);
+    }
+  }
+  
+  /**
+   * It fills out[from..to) with samples using a single generator.
+   */
+  private static void fillSamples(AliasSampler sampler, double[] m, double[] v, double[] out, int from, int to, RandomGenerator rng) {
+    for (int j = from; j < to; j ++) {
+      final int i = sampler.next(rng);
+      out[j] = m[i] + v[i] * rng.nextGaussian();
+    }
+  }
+  
+  /**
+   * This task fills the chunks [lo, hi) of the output, each of them with its own generator.
+   */
+  private static class SamplingTask extends RecursiveAction {
+    private static final long serialVersionUID = 5304870021768563187L;
+    
+    private final AliasSampler sampler;
+    private final double[] m;
+    private final double[] v;
+    private final double[] out;
+    private final int offset;
+    private final int length;
+    private final RandomGenerator[] rngs;
+    private final int lo;
+    private final int hi;
     
-    return density;
+    SamplingTask(AliasSampler sampler, double[] m, double[] v, double[] out, int offset, int length, RandomGenerator[] rngs, int lo, int hi) {
+      this.sampler = sampler;
+      this.m = m;
+      this.v = v;
+      this.out = out;
+      this.offset = offset;
+      this.length = length;
+      this.rngs = rngs;
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected void compute() {
+      if (hi - lo == 1) {
+        final int from = offset + lo * AbstractGMM.SAMPLING_CHUNK_SIZE;
+        final int to = offset + Math.min(length, hi * AbstractGMM.SAMPLING_CHUNK_SIZE);
+        AbstractGMM.fillSamples(sampler, m, v, out, from, to, rngs[lo]);
+      } else {
+        final int mid = (lo + hi) >>> 1;
+        RecursiveAction.invokeAll(new SamplingTask(sampler, m, v, out, offset, length, rngs, lo, mid), 
+            new SamplingTask(sampler, m, v, out, offset, length, rngs, mid, hi));
+      }
+    }
   }
 
+  /**
+   * It parses the optional parameters of the model order management: pruneDead=true removes the dead 
+   * components, mergeOverlap=o merges the pairs of components whose Bhattacharyya coefficient is at least o
+   * (in (0, 1]), splitSigma=s splits the components whose variance (sigma) is greater than s and 
+   * maxComponents=n bounds the number of components which can be produced by splitting (its default is 
+   * the current number of components). If both merging and splitting are turned on, mergeOverlap has to 
+   * be greater than the overlap of the two halves of a split (about 0.846), otherwise the halves would be
+   * merged back at the next M-step.
+   * 
+   * @param p parsed parameter map
+   */
+  protected void parseOrderParameters(Map<String,String> p) {
+    if (p.containsKey("pruneDead")) {
+      pruneDead = Boolean.parseBoolean(p.get("pruneDead"));
+    }
+    if (p.containsKey("mergeOverlap")) {
+      mergeOverlap = Double.parseDouble(p.get("mergeOverlap"));
+      if (!(mergeOverlap >= 0.0 && mergeOverlap <= 1.0)) {
+        throw new RuntimeException("Parameter mergeOverlap has to be in [0, 1] for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("splitSigma")) {
+      splitSigma = Double.parseDouble(p.get("splitSigma"));
+      if (!(splitSigma >= 0.0)) {
+        throw new RuntimeException("Parameter splitSigma has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (mergeOverlap > 0.0 && splitSigma > 0.0 && mergeOverlap <= AbstractGMM.SPLIT_OVERLAP) {
+      throw new RuntimeException("Parameter mergeOverlap has to be greater than " + AbstractGMM.SPLIT_OVERLAP + " (the overlap of the halves of a split) if splitSigma is set for mixture model " + getClass().getCanonicalName() + "!");
+    }
+    maxComponents = p.containsKey("maxComponents") ? Integer.parseInt(p.get("maxComponents")) : Math.max(maxComponents, k);
+    if (maxComponents < 1) {
+      throw new RuntimeException("Parameter maxComponents has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+    }
+  }
+  
+  /**
+   * It parses the optional parameters of the data driven initialization: init=quantile, init=kmeans++
+   * or init=className (an InitializationStrategy class) selects the strategy, which computes the 
+   * components from the first initSamples samples (init=default keeps the default components).
+   * 
+   * @param p parsed parameter map
+   * @param defaultSamples default value of initSamples
+   */
+  protected void parseInitParameters(Map<String,String> p, int defaultSamples) {
+    if (p.containsKey("init")) {
+      initialization = p.get("init").equals("default") ? null : InitializationStrategy.create(p.get("init"));
+    }
+    initSamples = p.containsKey("initSamples") ? Integer.parseInt(p.get("initSamples")) : defaultSamples;
+    if (initialization != null && initSamples < 1) {
+      throw new RuntimeException("Parameter initSamples has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+    }
+    reservoir = (initialization == null) ? null : new double[initSamples];
+    reserved = 0;
+  }
+  
+  /**
+   * It adds the sample to the reservoir of the initialization and initializes the components if the
+   * reservoir is full. The subclasses call it from their update methods while the reservoir exists.
+   * 
+   * @param x observation
+   */
+  protected void reserve(double x) {
+    reservoir[reserved ++] = x;
+    if (reserved == reservoir.length) {
+      initialize();
+    }
+  }
+  
+  /**
+   * It adds the samples of xs[offset..offset+length) to the reservoir of the initialization until it is
+   * full and initializes the components if the reservoir is full. The subclasses call it from their update
+   * methods while the reservoir exists and process the rest of the samples themselves.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation
+   * @param length number of observations
+   * @return number of observations which were added to the reservoir
+   */
+  protected int reserve(double[] xs, int offset, int length) {
+    final int n = Math.min(length, reservoir.length - reserved);
+    System.arraycopy(xs, offset, reservoir, reserved, n);
+    reserved += n;
+    if (reserved == reservoir.length) {
+      initialize();
+    }
+    return n;
+  }
+  
+  /**
+   * This method initializes the components from the finite samples of the reservoir by the initialization
+   * strategy and processes the samples of the reservoir by the update method, so they are not lost. It is
+   * called automatically when the reservoir is full; calling it earlier initializes the components from 
+   * the samples seen so far (e.g. at the end of a short stream). If the components are already 
+   * initialized, it does nothing.
+   */
+  public void initialize() {
+    if (reservoir == null) {
+      return;
+    }
+    final double[] xs = new double[reserved];
+    int n = 0;
+    for (int j = 0; j < reserved; j ++) {
+      if (Double.isFinite(reservoir[j])) {
+        xs[n ++] = reservoir[j];
+      }
+    }
+    if (n == 0) {
+      setParameters(w, m, v); // nothing to learn from, the buffered samples are processed by the current components
+      return;
+    }
+    final double[] nw = new double[k], nm = new double[k], nv = new double[k];
+    initialization.initialize(xs, n, k, nw, nm, nv);
+    setParameters(nw, nm, nv);
+  }
+  
+  /**
+   * It replaces the parameters of the model by the given ones (warm start) and drops the statistics of
+   * the partial batch. The number of components is set to the length of the arrays and the weights are
+   * normalized. If the model is still collecting the reservoir of its initialization, the initialization
+   * is skipped and the buffered samples are processed using the given parameters.
+   * 
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   */
+  public void setParameters(double[] w, double[] m, double[] v) {
+    if (w.length == 0 || m.length != w.length || v.length != w.length) {
+      throw new RuntimeException("The weights, means and variances have to be non-empty arrays of the same length!");
+    }
+    double sum = 0.0;
+    for (int i = 0; i < w.length; i ++) {
+      if (!(w[i] >= 0.0 && v[i] > 0.0 && Double.isFinite(m[i]) && Double.isFinite(v[i]))) {
+        throw new RuntimeException("Bad parameters of component " + i + " (weight " + w[i] + ", mean " + m[i] + ", variance " + v[i] + ")!");
+      }
+      sum += w[i];
+    }
+    if (!(sum > 0.0 && sum < Double.POSITIVE_INFINITY)) {
+      throw new RuntimeException("The sum of the weights has to be positive!");
+    }
+    final double[] nw = new double[w.length];
+    for (int i = 0; i < w.length; i ++) {
+      nw[i] = w[i] / sum;
+    }
+    final double[] buffered = reservoir;
+    final int n = reserved;
+    reservoir = null;
+    reserved = 0;
+    setComponents(w.length, nw, m.clone(), v.clone());
+    if (buffered != null && n > 0) {
+      update(buffered, 0, n);
+    }
+  }
+  
+  /**
+   * It returns whether the model is still collecting the samples of its data driven initialization.
+   * 
+   * @return true iff. the components are not initialized yet
+   */
+  public boolean isInitializing() {
+    return reservoir != null;
+  }
+  
+  /**
+   * This method applies the model order management to the current parameters. It is called by the
+   * subclasses right after their M-steps. First the dead components are removed (if pruneDead is set), 
+   * then the pairs of components which overlap at least mergeOverlap are merged (the most overlapping 
+   * pairs first) and finally the components whose variance is greater than splitSigma are split (the
+   * widest ones first, while there are less than maxComponents components). A component takes part 
+   * in at most one merge or split per call.
+   * 
+   * @return true iff. the components were changed
+   */
+  protected boolean manageComponents() {
+    final int previousLayout = layout;
+    boolean[] merged = null; // components produced by the merges
+    if (pruneDead) {
+      removeDeadComponents();
+    }
+    if (mergeOverlap > 0.0 && k > 1) {
+      // collect the overlapping pairs
+      final int[] pairs = new int[k * (k - 1) / 2];
+      final double[] overlaps = new double[k * k];
+      int n = 0;
+      for (int i = 0; i < k; i ++) {
+        for (int j = i + 1; j < k; j ++) {
+          overlaps[i * k + j] = AbstractGMM.computeOverlap(m[i], v[i], m[j], v[j]);
+          if (w[i] > 0.0 && w[j] > 0.0 && overlaps[i * k + j] >= mergeOverlap) {
+            pairs[n ++] = i * k + j;
+          }
+        }
+      }
+      // merge the most overlapping pairs first
+      AbstractGMM.sortDescending(pairs, n, overlaps);
+      final boolean[] used = new boolean[k];
+      final boolean[] removed = new boolean[k];
+      final double[] nw = w.clone(), nm = m.clone(), nv = v.clone();
+      int numberOfMerges = 0;
+      for (int c = 0; c < n; c ++) {
+        final int i = pairs[c] / k, j = pairs[c] % k;
+        if (!used[i] && !used[j]) {
+          AbstractGMM.mergeMoments(nw, nm, nv, i, j);
+          used[i] = used[j] = removed[j] = true;
+          numberOfMerges ++;
+        }
+      }
+      if (numberOfMerges > 0) {
+        merged = new boolean[k - numberOfMerges];
+        for (int i = 0, j = 0; i < used.length; i ++) {
+          if (!removed[i]) {
+            merged[j ++] = used[i];
+          }
+        }
+        compact(nw, nm, nv, removed, numberOfMerges);
+      }
+    }
+    if (splitSigma > 0.0 && k < maxComponents) {
+      // split the widest components first
+      final int[] order = new int[k];
+      for (int i = 0; i < k; i ++) {
+        order[i] = i;
+      }
+      AbstractGMM.sortDescending(order, k, v);
+      final int original = k;
+      for (int c = 0; c < original && k < maxComponents && v[order[c]] > splitSigma; c ++) {
+        if (w[order[c]] > 0.0 && (merged == null || !merged[order[c]])) {
+          splitComponent(order[c]);
+        }
+      }
+    }
+    return layout != previousLayout;
+  }
+  
+  /**
+   * It sorts the first n indices by their keys in descending order. The sort is stable (the indices of
+   * equal keys keep their order) and it does not box the indices.
+   * 
+   * @param indices indices to sort
+   * @param n number of indices
+   * @param keys keys of the indices
+   */
+  static void sortDescending(int[] indices, int n, double[] keys) {
+    // bottom-up merge sort
+    int[] src = indices, dst = new int[n];
+    for (int width = 1; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        final int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+        int a = lo, b = mid, c = lo;
+        while (a < mid && b < hi) {
+          dst[c ++] = (Double.compare(keys[src[b]], keys[src[a]]) > 0) ? src[b ++] : src[a ++];
+        }
+        while (a < mid) {
+          dst[c ++] = src[a ++];
+        }
+        while (b < hi) {
+          dst[c ++] = src[b ++];
+        }
+      }
+      final int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+    if (src != indices) {
+      System.arraycopy(src, 0, indices, 0, n);
+    }
+  }
+  
+  /**
+   * It removes the dead components (whose weight is zero) keeping the parameters and the order
+   * of the other components. If every component is dead, the model is not changed.
+   * 
+   * @return number of removed components
+   */
+  public int removeDeadComponents() {
+    final boolean[] removed = new boolean[k];
+    int dead = 0;
+    for (int i = 0; i < k; i ++) {
+      removed[i] = !(w[i] > 0.0);
+      dead += removed[i] ? 1 : 0;
+    }
+    if (dead == 0 || dead == k) {
+      return 0;
+    }
+    compact(w.clone(), m.clone(), v.clone(), removed, dead);
+    return dead;
+  }
+  
+  /**
+   * It merges the components <i>i</i> and <i>j</i> into one component which has the same weight, mean 
+   * and second moment as the two components together. The merged component takes the place of the
+   * component with the smaller index, the other one is removed.
+   * 
+   * @param i index of a component
+   * @param j index of another component
+   */
+  public void mergeComponents(int i, int j) {
+    if (i < 0 || j < 0 || i >= k || j >= k || i == j) {
+      throw new IndexOutOfBoundsException("Bad component indices (" + i + ", " + j + ") for a model of " + k + " components!");
+    }
+    final double[] nw = w.clone(), nm = m.clone(), nv = v.clone();
+    AbstractGMM.mergeMoments(nw, nm, nv, Math.min(i, j), Math.max(i, j));
+    final boolean[] removed = new boolean[k];
+    removed[Math.max(i, j)] = true;
+    compact(nw, nm, nv, removed, 1);
+  }
+  
+  /**
+   * It splits the component <i>i</i> into two components of half weight whose means are shifted by
+   * -SPLIT_OFFSET and +SPLIT_OFFSET times the variance (sigma). The variance of the two components is 
+   * reduced, so the weight, the mean and the second moment of the pair equal to those of the original
+   * component. The first half takes the place of the component, the second one is appended.
+   * 
+   * @param i index of the component
+   */
+  public void splitComponent(int i) {
+    if (i < 0 || i >= k) {
+      throw new IndexOutOfBoundsException("Bad component index " + i + " for a model of " + k + " components!");
+    }
+    final double[] nw = Arrays.copyOf(w, k + 1), nm = Arrays.copyOf(m, k + 1), nv = Arrays.copyOf(v, k + 1);
+    nw[i] = nw[k] = 0.5 * w[i];
+    nm[i] = m[i] - AbstractGMM.SPLIT_OFFSET * v[i];
+    nm[k] = m[i] + AbstractGMM.SPLIT_OFFSET * v[i];
+    nv[i] = nv[k] = v[i] * Math.sqrt(1.0 - AbstractGMM.SPLIT_OFFSET * AbstractGMM.SPLIT_OFFSET);
+    setComponents(k + 1, nw, nm, nv);
+  }
+  
+  /**
+   * It computes the Bhattacharyya coefficient of two Gaussian components, which is 1.0 for identical
+   * components and tends to 0.0 as they are separated.
+   * 
+   * @param m1 mean of the first component
+   * @param v1 variance (sigma) of the first component
+   * @param m2 mean of the second component
+   * @param v2 variance (sigma) of the second component
+   * @return overlap in [0, 1]
+   */
+  static double computeOverlap(double m1, double v1, double m2, double v2) {
+    final double s = v1 * v1 + v2 * v2;
+    final double d = m1 - m2;
+    return Math.sqrt(2.0 * v1 * v2 / s) * Math.exp(-0.25 * d * d / s);
+  }
+  
+  /**
+   * It merges the component j into the component i of the given arrays by moment matching.
+   */
+  private static void mergeMoments(double[] w, double[] m, double[] v, int i, int j) {
+    final double sw = w[i] + w[j];
+    final double mean = (w[i] * m[i] + w[j] * m[j]) / sw;
+    final double second = (w[i] * (v[i] * v[i] + m[i] * m[i]) + w[j] * (v[j] * v[j] + m[j] * m[j])) / sw;
+    // the variance of the pair is at least the smaller variance, the bound only guards against rounding
+    final double lower = Math.min(v[i], v[j]);
+    w[i] = sw;
+    m[i] = mean;
+    v[i] = Math.max(Math.sqrt(Math.max(second - mean * mean, 0.0)), lower);
+  }
+  
+  /**
+   * It sets the components of the given arrays except the removed ones as the new components.
+   */
+  private void compact(double[] w, double[] m, double[] v, boolean[] removed, int numberOfRemoved) {
+    final int n = w.length - numberOfRemoved;
+    final double[] nw = new double[n], nm = new double[n], nv = new double[n];
+    for (int i = 0, j = 0; i < w.length; i ++) {
+      if (!removed[i]) {
+        nw[j] = w[i];
+        nm[j] = m[i];
+        nv[j ++] = v[i];
+      }
+    }
+    setComponents(n, nw, nm, nv);
+  }
+  
+  /**
+   * It replaces the components of the model by the given ones keeping every other setting. The 
+   * arrays are used directly.
+   * 
+   * @param k new number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   */
+  protected void setComponents(int k, double[] w, double[] m, double[] v) {
+    this.k = k;
+    this.w = w;
+    this.m = m;
+    this.v = v;
+    lw = new double[k];
+    ln = new double[k];
+    iv = new double[k];
+    refreshCoefficients();
+    layout ++;
+    componentsChanged();
+  }
+  
+  /**
+   * This method is called after the number or the order of the components was changed by 
+   * removeDeadComponents, mergeComponents, splitComponent or manageComponents. The parameters and
+   * the coefficients are already updated, the subclasses have to adjust their per-component state.
+   */
+  protected void componentsChanged() {
+  }
+  
+  /**
+   * It returns an immutable copy of the current parameters. Unlike the arrays returned by the
+   * get methods, the snapshot is not affected by the later updates of the model.
+   * 
+   * @return snapshot of the current parameters
+   */
+  public GMMSnapshot getSnapshot() {
+    return new GMMSnapshot(w, m, v, layout);
+  }
+  
+  /**
+   * It returns the number of bytes which are written by writeCheckpoint. The subclasses which
+   * extend the checkpoint have to extend this method as well (including the header of their section).
+   * 
+   * @return size of the checkpoint of the model in bytes
+   */
+  protected int getCheckpointSize() {
+    final int name = (initialization == null) ? 0 : initialization.getName().getBytes(StandardCharsets.UTF_8).length;
+    return ModelCheckpoint.SECTION_HEADER_SIZE + 4 + 8 + 3 * 8 * k + 1 + 2 * 8 + 4 + 2 + name + 2 * 4 + ((reservoir == null) ? 0 : 8 * reserved);
+  }
+  
+  /**
+   * It writes the state of the model into the buffer in the compact binary format of ModelCheckpoint.
+   * The subclasses can append their own section after calling this method. New fields have to be 
+   * appended to the end of the section of their class, so the older checkpoints remain readable.
+   * 
+   * @param out buffer in which the state is written
+   */
+  protected void writeCheckpoint(ByteBuffer out) {
+    final int section = ModelCheckpoint.beginSection(out);
+    out.putInt(k);
+    ModelCheckpoint.putDoubles(out, w);
+    ModelCheckpoint.putDoubles(out, m);
+    ModelCheckpoint.putDoubles(out, v);
+    out.putDouble(densityTableError);
+    out.put((byte) (pruneDead ? 1 : 0));
+    out.putDouble(mergeOverlap);
+    out.putDouble(splitSigma);
+    out.putInt(maxComponents);
+    final byte[] name = (initialization == null) ? new byte[0] : initialization.getName().getBytes(StandardCharsets.UTF_8);
+    out.putShort((short) name.length);
+    out.put(name);
+    out.putInt(initSamples);
+    out.putInt((reservoir == null) ? -1 : reserved);
+    if (reservoir != null) {
+      ModelCheckpoint.putDoubles(out, Arrays.copyOf(reservoir, reserved));
+    }
+    ModelCheckpoint.endSection(out, section);
+  }
+  
+  /**
+   * It restores the state of the model from the buffer which was written by writeCheckpoint. The model
+   * is a newly created one, so the fields which are missing from the end of a section (i.e. which were
+   * appended after the checkpoint was written) keep their default values.
+   * 
+   * @param in buffer from which the state is read
+   */
+  protected void readCheckpoint(ByteBuffer in) {
+    final int end = ModelCheckpoint.readSection(in);
+    setNumberOfComponents(in.getInt());
+    ModelCheckpoint.getDoubles(in, w);
+    ModelCheckpoint.getDoubles(in, m);
+    ModelCheckpoint.getDoubles(in, v);
+    if (ModelCheckpoint.hasMore(in, end)) {
+      densityTableError = in.getDouble();
+    }
+    if (ModelCheckpoint.hasMore(in, end)) {
+      // model order management
+      pruneDead = in.get() != 0;
+      mergeOverlap = in.getDouble();
+      splitSigma = in.getDouble();
+      maxComponents = in.getInt();
+    }
+    if (ModelCheckpoint.hasMore(in, end)) {
+      // initialization
+      final byte[] name = new byte[in.getShort()];
+      in.get(name);
+      initialization = (name.length == 0) ? null : InitializationStrategy.create(new String(name, StandardCharsets.UTF_8));
+      initSamples = in.getInt();
+      reserved = in.getInt();
+      if (reserved < 0) {
+        reservoir = null;
+        reserved = 0;
+      } else {
+        reservoir = new double[initSamples];
+        in.asDoubleBuffer().get(reservoir, 0, reserved);
+        in.position(in.position() + 8 * reserved);
+      }
+    }
+    ModelCheckpoint.skipSection(in, end);
+    refreshCoefficients();
+  }
+  
+  @Override
+  public void setMetrics(EstimatorMetrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  @Override
+  public EstimatorMetrics getMetrics() {
+    return metrics;
+  }
+  
   @Override
   public double[] getComponentWeights() {
     return w;
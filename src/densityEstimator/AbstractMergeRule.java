@@ -0,0 +1,103 @@
+package densityEstimator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This is a base class of the merge rules which combine the models component by component. The
+ * components of the two models are paired greedily in increasing order of their standardized
+ * distance |m_a - m_b| / sqrt(v_a^2 + v_b^2), and the subclasses combine the pairs. The components
+ * without a pair (if the models have different numbers of components) are kept with half of their
+ * weights. The weights of the merged model are normalized.
+ * 
+ * @author Róbert Ormándi
+ */
+public abstract class AbstractMergeRule implements MergeRule {
+  
+  @Override
+  public GMMSnapshot merge(GMMSnapshot local, GMMSnapshot remote) {
+    final int[] pairs = matchComponents(local, remote);
+    final int n = local.k + remote.k - pairs.length / 2;
+    final double[] w = new double[n], m = new double[n], v = new double[n];
+    final boolean[] isLocalPaired = new boolean[local.k], isRemotePaired = new boolean[remote.k];
+    final double[] out = new double[3];
+    int c = 0;
+    for (int p = 0; p < pairs.length; p += 2) {
+      final int a = pairs[p], b = pairs[p + 1];
+      isLocalPaired[a] = true;
+      isRemotePaired[b] = true;
+      combine(local.w[a], local.m[a], local.v[a], remote.w[b], remote.m[b], remote.v[b], out);
+      w[c] = out[0];
+      m[c] = out[1];
+      v[c ++] = out[2];
+    }
+    for (int a = 0; a < local.k; a ++) {
+      if (!isLocalPaired[a]) {
+        w[c] = 0.5 * local.w[a];
+        m[c] = local.m[a];
+        v[c ++] = local.v[a];
+      }
+    }
+    for (int b = 0; b < remote.k; b ++) {
+      if (!isRemotePaired[b]) {
+        w[c] = 0.5 * remote.w[b];
+        m[c] = remote.m[b];
+        v[c ++] = remote.v[b];
+      }
+    }
+    double sum = 0.0;
+    for (int i = 0; i < n; i ++) {
+      sum += w[i];
+    }
+    if (sum > 0.0) {
+      for (int i = 0; i < n; i ++) {
+        w[i] /= sum;
+      }
+    }
+    return new GMMSnapshot(w, m, v);
+  }
+  
+  /**
+   * It pairs the components of the two models greedily by their standardized distance.
+   * 
+   * @return array of the pairs (local index, remote index, local index, remote index, ...)
+   */
+  protected int[] matchComponents(GMMSnapshot local, GMMSnapshot remote) {
+    final Integer[] candidates = new Integer[local.k * remote.k];
+    final double[] distances = new double[candidates.length];
+    for (int a = 0; a < local.k; a ++) {
+      for (int b = 0; b < remote.k; b ++) {
+        final int idx = a * remote.k + b;
+        final double scale = Math.sqrt(local.v[a] * local.v[a] + remote.v[b] * remote.v[b]);
+        candidates[idx] = idx;
+        distances[idx] = Math.abs(local.m[a] - remote.m[b]) / Math.max(scale, SufficientStatistics.EPS);
+      }
+    }
+    Arrays.sort(candidates, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer x, Integer y) {
+        return Double.compare(distances[x], distances[y]);
+      }
+    });
+    final boolean[] isLocalPaired = new boolean[local.k], isRemotePaired = new boolean[remote.k];
+    final int[] pairs = new int[2 * Math.min(local.k, remote.k)];
+    int p = 0;
+    for (int c = 0; c < candidates.length && p < pairs.length; c ++) {
+      final int a = candidates[c] / remote.k, b = candidates[c] % remote.k;
+      if (!isLocalPaired[a] && !isRemotePaired[b]) {
+        isLocalPaired[a] = true;
+        isRemotePaired[b] = true;
+        pairs[p ++] = a;
+        pairs[p ++] = b;
+      }
+    }
+    return pairs;
+  }
+  
+  /**
+   * It combines a pair of components into one.
+   * 
+   * @param out output array of the weight, mean and variance (sigma value) of the combined component
+   */
+  protected abstract void combine(double wa, double ma, double va, double wb, double mb, double vb, double[] out);
+}
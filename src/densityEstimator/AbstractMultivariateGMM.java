@@ -0,0 +1,240 @@
+package densityEstimator;
+
+import java.util.Arrays;
+
+/**
+ * This is an abstract implementation of interface MultivariateMixtureModel which implements every 
+ * method specialized to d-dimensional Gaussian components except the update methods.<br/>
+ * The parameters are stored in flat arrays (see MultivariateMixtureModel). For each component the
+ * lower triangular Cholesky factor L of its covariance matrix (C = L * L^T) and the log of its weighted 
+ * normaliser are cached, and they are refreshed only when the parameters change, so the evaluation of
+ * a component is a forward substitution z = L^-1 * (x - m) and the log density is 
+ * lc - |z|^2 / 2, i.e. O(d^2) operations (O(d) for diagonal covariances) without any factorization or
+ * allocation. Because of the shared scratch vector of the substitution, the instances are not thread-safe
+ * even for evaluation.
+ * 
+ * @author Róbert Ormándi
+ */
+public abstract class AbstractMultivariateGMM implements MultivariateMixtureModel {
+  private static final long serialVersionUID = 2860934120558410346L;
+  
+  private final static double DEFAULT_VARIANCE = 0.1;
+  
+  protected int k = 0;
+  protected final int d;                 // dimension of the observations
+  protected boolean diagonal = false;    // the covariance matrices are diagonal
+  protected double[] w = null;           // component (w)eights
+  protected double[] m = null;           // component (m)eans (k*d)
+  protected double[] c = null;           // component (c)ovariances (k*d*d or k*d if diagonal)
+  
+  // per-component coefficients which are refreshed only when the parameters change
+  protected double[] lc = null;          // (l)og (c)oefficients i.e. log(w) - log(det(C))/2 - d*log(sqrt(2*pi))
+  protected double[] l = null;           // (l)ower triangular Cholesky factors (k*d*d, not used if diagonal)
+  protected double[] il = null;          // (i)nverse diagonals of the Cholesky factors (k*d) i.e. 1/sigma if diagonal
+  
+  protected final double[] z;            // scratch vector of the forward substitution
+  
+  /**
+   * It creates a model with the given number of components of the given dimension.
+   * 
+   * @param numberOfComponents number of components
+   * @param dimension dimension of the observations
+   */
+  public AbstractMultivariateGMM(int numberOfComponents, int dimension) {
+    if (dimension < 1) {
+      throw new RuntimeException("The dimension of a mixture model has to be positive!");
+    }
+    d = dimension;
+    z = new double[d];
+    init(numberOfComponents);
+  }
+  
+  /**
+   * This method sets the number of components and initializes the components like AbstractGMM: 
+   * uniform weights, means on the diagonal line and spherical covariances.
+   */
+  private void init(int k) {
+    this.k = k;
+    w = new double[k];
+    Arrays.fill(w, 1.0/((double)k));
+    m = new double[k * d];
+    for (int i = 0; i < k; i ++) {
+      Arrays.fill(m, i * d, (i + 1) * d, ((double)i) - ((double)k)/2.0);
+    }
+    c = new double[diagonal ? k * d : k * d * d];
+    for (int i = 0; i < k; i ++) {
+      for (int a = 0; a < d; a ++) {
+        c[diagonal ? i * d + a : (i * d + a) * d + a] = AbstractMultivariateGMM.DEFAULT_VARIANCE * AbstractMultivariateGMM.DEFAULT_VARIANCE;
+      }
+    }
+    lc = new double[k];
+    l = diagonal ? null : new double[k * d * d];
+    il = new double[k * d];
+    refreshCoefficients();
+  }
+  
+  /**
+   * It sets the type of the covariance matrices and initializes the model. It has to be called before 
+   * the first update.
+   * 
+   * @param diagonal true for diagonal and false for full covariances
+   */
+  protected void setDiagonal(boolean diagonal) {
+    this.diagonal = diagonal;
+    init(k);
+  }
+  
+  /**
+   * This method recomputes the cached per-component coefficients (the Cholesky factors and the log
+   * normalisers) from the current parameters. It has to be called each time the arrays w, m or c 
+   * are modified. The pivots of the factorizations are clamped to EPS, so a singular covariance 
+   * matrix is evaluated as if it were slightly regularized.
+   */
+  protected void refreshCoefficients() {
+    for (int i = 0; i < k; i ++) {
+      double logDet = 0.0;
+      if (diagonal) {
+        for (int a = 0; a < d; a ++) {
+          final double variance = Math.max(c[i * d + a], SufficientStatistics.EPS);
+          il[i * d + a] = 1.0 / Math.sqrt(variance);
+          logDet += Math.log(variance);
+        }
+      } else {
+        final int base = i * d * d;
+        for (int a = 0; a < d; a ++) {
+          for (int b = 0; b <= a; b ++) {
+            double s = c[base + a * d + b];
+            for (int t = 0; t < b; t ++) {
+              s -= l[base + a * d + t] * l[base + b * d + t];
+            }
+            if (a == b) {
+              final double pivot = Math.max(s, SufficientStatistics.EPS);
+              l[base + a * d + a] = Math.sqrt(pivot);
+              il[i * d + a] = 1.0 / l[base + a * d + a];
+              logDet += Math.log(pivot);
+            } else {
+              l[base + a * d + b] = s * il[i * d + b];
+            }
+          }
+        }
+      }
+      lc[i] = Math.log(w[i]) - 0.5 * logDet - d * AbstractGMM.LOG_SQRT2PI; // negative infinity for dead components
+    }
+  }
+  
+  /**
+   * This method computes the log of the weighted probability density function of the <i>i</i>th 
+   * component at the observation which starts at index <i>offset</i> of the array xs.
+   * 
+   * @param i index of the component
+   * @param xs array of the observation
+   * @param offset index of the first coordinate of the observation
+   * @return log of the weighted pdf value (negative infinity for dead components)
+   */
+  protected final double computeComponentLogDensity(int i, double[] xs, int offset) {
+    final int md = i * d;
+    double q = 0.0;
+    if (diagonal) {
+      for (int a = 0; a < d; a ++) {
+        final double y = (xs[offset + a] - m[md + a]) * il[md + a];
+        q += y * y;
+      }
+    } else {
+      // forward substitution L * z = x - m
+      final int base = md * d;
+      for (int a = 0; a < d; a ++) {
+        double s = xs[offset + a] - m[md + a];
+        for (int b = 0; b < a; b ++) {
+          s -= l[base + a * d + b] * z[b];
+        }
+        z[a] = s * il[md + a];
+        q += z[a] * z[a];
+      }
+    }
+    return lc[i] - 0.5 * q;
+  }
+  
+  /**
+   * It computes the log of the mixture density at the observation which starts at index <i>offset</i>
+   * of the array xs and leaves the log densities of the components in the array p.
+   * 
+   * @param xs array of the observation
+   * @param offset index of the first coordinate of the observation
+   * @param p output array of the component log densities (its length has to be at least the number of components)
+   * @return maximum of the component log densities (0.0 if every one of them is negative infinity)
+   */
+  protected final double computeComponentLogDensities(double[] xs, int offset, double[] p) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      p[i] = computeComponentLogDensity(i, xs, offset);
+      max = Math.max(max, p[i]);
+    }
+    return (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+  }
+  
+  @Override
+  public double computeDensityValue(double[] x) {
+    return Math.exp(computeLogDensityValue(x));
+  }
+  
+  @Override
+  public double computeLogDensityValue(double[] x) {
+    checkDimension(x.length);
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      max = Math.max(max, computeComponentLogDensity(i, x, 0));
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      sum += Math.exp(computeComponentLogDensity(i, x, 0) - max);
+    }
+    return max + Math.log(sum);
+  }
+  
+  /**
+   * It checks whether the length of an observation equals to the dimension of the model.
+   */
+  protected void checkDimension(int length) {
+    if (length != d) {
+      throw new RuntimeException("The length of the observation (" + length + ") differs from the dimension of the model (" + d + ")!");
+    }
+  }
+  
+  @Override
+  public int getDimension() {
+    return d;
+  }
+  
+  @Override
+  public double[] getComponentWeights() {
+    return w;
+  }
+  
+  @Override
+  public double[] getComponentMeans() {
+    return m;
+  }
+  
+  @Override
+  public double[] getComponentCovariances() {
+    return c;
+  }
+  
+  @Override
+  public boolean isDiagonal() {
+    return diagonal;
+  }
+  
+  @Override
+  public int getNumberOfComponents() {
+    return k;
+  }
+  
+  @Override
+  public void setNumberOfComponents(int num) {
+    init(num);
+  }
+}
@@ -0,0 +1,106 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.random.RandomGenerator;
+
+/**
+ * This is a sampler of a discrete distribution (e.g. the component weights of a mixture) which
+ * is based on the alias method of Walker using the construction of Vose. After an O(k)
+ * preprocessing step each draw takes constant time (one uniform random number, one comparison
+ * and at most two array reads) independently of the number of outcomes, while the cumulative
+ * scan needs O(k) time per draw.<br/>
+ * The table is immutable, so it has to be rebuilt when the weights change.
+ * 
+ * @author Róbert Ormándi
+ */
+public class AliasSampler implements Serializable {
+  private static final long serialVersionUID = 2816493581735460914L;
+  
+  protected final int k;          // number of outcomes
+  protected final double[] prob;  // probability of keeping the selected column
+  protected final int[] alias;    // outcome of the column if it is not kept
+  
+  /**
+   * It builds the alias table of the given (not necessarily normalized) weights.
+   * 
+   * @param k number of outcomes
+   * @param w non-negative weights of the outcomes
+   */
+  public AliasSampler(int k, double[] w) {
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (!(w[i] >= 0.0)) {
+        throw new RuntimeException("The weight of outcome " + i + " is negative or NaN (" + w[i] + ")!");
+      }
+      sum += w[i];
+    }
+    if (!(sum > 0.0) || Double.isInfinite(sum)) {
+      throw new RuntimeException("The sum of the weights has to be positive and finite (" + sum + ")!");
+    }
+    this.k = k;
+    prob = new double[k];
+    alias = new int[k];
+    
+    // scaled weights (their average is 1) are split into the small and large worklists
+    final double[] scaled = new double[k];
+    final int[] small = new int[k];
+    final int[] large = new int[k];
+    int numSmall = 0, numLarge = 0;
+    for (int i = 0; i < k; i ++) {
+      scaled[i] = w[i] * k / sum;
+      if (scaled[i] < 1.0) {
+        small[numSmall ++] = i;
+      } else {
+        large[numLarge ++] = i;
+      }
+    }
+    
+    // each small column is filled up by a large one
+    while (numSmall > 0 && numLarge > 0) {
+      final int s = small[-- numSmall];
+      final int l = large[-- numLarge];
+      prob[s] = scaled[s];
+      alias[s] = l;
+      scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+      if (scaled[l] < 1.0) {
+        small[numSmall ++] = l;
+      } else {
+        large[numLarge ++] = l;
+      }
+    }
+    
+    // the remaining columns are full (up to rounding errors)
+    while (numLarge > 0) {
+      final int l = large[-- numLarge];
+      prob[l] = 1.0;
+      alias[l] = l;
+    }
+    while (numSmall > 0) {
+      final int s = small[-- numSmall];
+      prob[s] = 1.0;
+      alias[s] = s;
+    }
+  }
+  
+  /**
+   * It draws an outcome. A single uniform random number selects the column and decides
+   * whether the column or its alias is returned.
+   * 
+   * @param rng source of randomness
+   * @return index of the outcome between 0 (inclusive) and k (exclusive)
+   */
+  public int next(RandomGenerator rng) {
+    final double u = rng.nextDouble() * k;
+    final int i = Math.min((int) u, k - 1);
+    return (u - i < prob[i]) ? i : alias[i];
+  }
+  
+  /**
+   * It returns the number of outcomes.
+   * 
+   * @return number of outcomes
+   */
+  public int getNumberOfOutcomes() {
+    return k;
+  }
+}
@@ -1,7 +1,11 @@
 package densityEstimator;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * This class implements a naive online GMM learning mechanism using the
@@ -17,28 +21,89 @@ import java.util.TreeMap;
  *   <li>If the above defined statistics are computed all of the B samples i.e. the model saw exactly B samples, 
  *   an M-step is perfomed based on the these statistics.</li>
  * </ul>
- * The original EM algorithm does the same process except it uses the same B samples in each EM iteration.
+ * The original EM algorithm does the same process except it uses the same B samples in each EM iteration.<br/>
+ * In the adaptive mode (maxSubsampling greater than 1) the model tracks the change of the means and
+ * of the expected log-likelihood of the batches across the M-steps. The changes are measured from the
+ * beginning of the current run of converged M-steps, so the slow drift of EM is not taken for convergence.
+ * After every STABLE_STEPS converged M-steps the subsampling factor is doubled i.e. the E-step is 
+ * performed only on every second (fourth, ...) sample, which grows the batch in terms of observed 
+ * samples as well. If a shift of the stream is 
+ * detected, the model returns to the E-step on every sample at once. A new factor applies from the first
+ * sample after the M-step which changed it, in the bulk update as well. The subsampling is applied by the
+ * update methods of the model only (ConcurrentGMM computes its own E-steps).<br/>
+ * In the sparse mode (sparseRadius greater than 0) the E-step of a sample evaluates only the components
+ * whose means are in the window of the sample in a ComponentIndex, which is rebuilt after each M-step.
+ * If the responsibility mass of the other components cannot be bounded by sparseTolerance (e.g. the
+ * sample is far from every component), the sample is processed by the exact E-step.<br/>
+ * With a data driven initialization (init=quantile or init=kmeans++) the first initSamples samples
+ * (by default a batch) are buffered, the components are computed from them and then they are processed
+ * as the first samples of the stream.
  * 
  * @author Róbert Ormándi
  */
 public class BatchBasedOnlineGMM extends AbstractGMM {
   private static final long serialVersionUID = 9035582797449162031L;
   
-  private static final int COMPUTED_MOMENTS = 3;
-  private static final double EPS = 1.0E-12;
+  private static final int MIN_PARALLEL_GRAIN = 16 * SufficientStatistics.BLOCK_SIZE;
+  private static final int STABLE_STEPS = 8;
+  private static final int SUBSAMPLE_BUFFER_SIZE = 16 * SufficientStatistics.BLOCK_SIZE;
+  private static final Map<Integer,ForkJoinPool> POOLS = new HashMap<Integer,ForkJoinPool>(); // shared pools of the parallel E-step by parallelism
   
   protected int batchSize;       // number of samples from which gamma statistics are collected
-  protected double[] pcx;           // batchSize x numOfComps array in which the statistics are collected (probabilities)
-  protected double[][] pcx_moments; // C x numOfComps array in which some other statistics are collected (moments)
+  protected double[] pcx;           // numOfComps array in which the probabilities of a sample are computed
+  protected SufficientStatistics stats; // statistics collected for the M-step (moments)
   protected int c = 0;              // sample counter
+  protected int parallelism = 1;    // number of workers of the parallel E-step (1 means sequential)
+  private double[] block = null;     // numOfComps x BLOCK_SIZE scratch array of the block based E-step
+  private double[] blockSums = null; // BLOCK_SIZE scratch array of the normalization factors
+  private double[] blockMaxs = null; // BLOCK_SIZE scratch array of the maximal log densities
+  
+  // adaptive mode
+  protected int maxSubsampling = 1;           // largest subsampling factor of the E-step (1 means no adaptation)
+  protected double convergenceZ = 2.0;        // z-score of the changes below which an M-step is considered converged
+  protected double shiftZ = 8.0;              // z-score of the changes above which a shift is detected
+  protected int subsampling = 1;              // current subsampling factor (the E-step is performed on every subsampling-th sample)
+  protected int skipped = 0;                  // number of samples skipped since the last E-step
+  protected int stableSteps = 0;              // number of consecutive converged M-steps
+  protected double[] referenceMeans = null;   // means at the beginning of the current run of converged M-steps
+  protected double referenceLikelihood = Double.NaN; // expected log-likelihood per sample at the beginning of the run
+  private double[] batchWeights = null;       // numOfComps scratch array of the statistics s0 of the batch
+  private double[] subsample = null;          // scratch array of the subsampled bulk update
+  
+  // sparse E-step
+  protected double sparseRadius = 0.0;        // radius of the window of the sparse E-step in standard deviations (0.0 means exact E-step)
+  protected double sparseTolerance = 1.0E-6;  // bound of the discarded responsibility mass of a sample
+  protected transient ComponentIndex componentIndex = null; // index of the current parameters, it is built lazily
+  private int[] sparseComponents = null;      // numOfComps scratch array of the evaluated components
+  private final double[] sampleMax = new double[1]; // maximal log density of the last sample
+  private final double[] sampleNorm = new double[1]; // reciprocal normalization factor of the last sample
   
   /**
    * This is a mandatory constructor which is used through the reflection based initalization in the simulator.  
    */
   public BatchBasedOnlineGMM(int numberOfComponents) {
     setNumberOfComponents(numberOfComponents);
-    pcx = new double[numberOfComponents];
-    pcx_moments = new double[BatchBasedOnlineGMM.COMPUTED_MOMENTS][numberOfComponents];
+  }
+  
+  @Override
+  public void setNumberOfComponents(int num) {
+    super.setNumberOfComponents(num);
+    pcx = new double[num];
+    stats = new SufficientStatistics(num);
+    c = 0;
+    resetAdaptation();
+  }
+  
+  /**
+   * It restarts the convergence detection of the adaptive mode, so the E-step is performed on every sample.
+   */
+  protected void resetAdaptation() {
+    subsampling = 1;
+    skipped = 0;
+    stableSteps = 0;
+    referenceMeans = m.clone();
+    referenceLikelihood = Double.NaN;
+    batchWeights = new double[k];
   }
   
   @Override
@@ -46,9 +111,50 @@ public class BatchBasedOnlineGMM extends AbstractGMM {
     Map<String,String> p = parseParamsToMap(params);    
     if (p.containsKey("batchSize")) {
       batchSize = Integer.parseInt(p.get("batchSize"));
+      if (batchSize < 1) {
+        throw new RuntimeException("Parameter batchSize has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+      }
     } else {
       throw new RuntimeException("Parameter batchSize=someInteger is mandatory for mixture model " + getClass().getCanonicalName() + ", please specify it at the command line!");
     }
+    if (p.containsKey("parallelism")) {
+      parallelism = Integer.parseInt(p.get("parallelism"));
+      if (parallelism < 1) {
+        throw new RuntimeException("Parameter parallelism has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("densityTableError")) {
+      setDensityTableError(Double.parseDouble(p.get("densityTableError")));
+    }
+    if (p.containsKey("maxSubsampling")) {
+      maxSubsampling = Integer.parseInt(p.get("maxSubsampling"));
+      if (maxSubsampling < 1) {
+        throw new RuntimeException("Parameter maxSubsampling has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("convergenceZ")) {
+      convergenceZ = Double.parseDouble(p.get("convergenceZ"));
+    }
+    if (p.containsKey("shiftZ")) {
+      shiftZ = Double.parseDouble(p.get("shiftZ"));
+    }
+    if (p.containsKey("sparseRadius")) {
+      sparseRadius = Double.parseDouble(p.get("sparseRadius"));
+      if (!(sparseRadius >= 0.0)) {
+        throw new RuntimeException("Parameter sparseRadius has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("sparseTolerance")) {
+      sparseTolerance = Double.parseDouble(p.get("sparseTolerance"));
+      if (!(sparseTolerance > 0.0 && sparseTolerance < 1.0)) {
+        throw new RuntimeException("Parameter sparseTolerance has to be in (0, 1) for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (!(convergenceZ > 0.0 && shiftZ > convergenceZ)) {
+      throw new RuntimeException("Parameter convergenceZ has to be positive and shiftZ has to be greater than convergenceZ for mixture model " + getClass().getCanonicalName() + "!");
+    }
+    parseOrderParameters(p);
+    parseInitParameters(p, batchSize);
     return p;
   }
   
@@ -58,7 +164,7 @@ public class BatchBasedOnlineGMM extends AbstractGMM {
    * @param params paramter string which contains comma separeted param-value pairs in from paramName=value
    * @return parsed parmeter map
    */
-  protected Map<String,String> parseParamsToMap(String params) {
+  protected static Map<String,String> parseParamsToMap(String params) {
     String[] paramsA = params.split("\\s*,\\s*");
     Map<String,String> ret = new TreeMap<String,String>();
     for (int i = 0; i < paramsA.length; i ++) {
@@ -73,52 +179,491 @@ public class BatchBasedOnlineGMM extends AbstractGMM {
   
   @Override
   public void update(double x) {
-    // compute the P(C_i|x) = P(C_i|x_c) values for each component
-    double sumProbs = 0.0;
-    for (int i = 0; i < k; i ++) {
-      pcx[i] = computeComponentDensity(i, x);
-      sumProbs += pcx[i];
+    if (reservoir != null) {
+      // the sample is buffered for the initialization and processed after it
+      reserve(x);
+      return;
     }
-    sumProbs = (sumProbs == 0.0) ? 1.0 : sumProbs; // numeric issue
-    // normalize values
-    //System.out.print("\nx=" + x + ", components: ");
-    for (int i = 0; i < k; i ++) {
-      pcx[i] /= sumProbs;
-      pcx_moments[0][i] += pcx[i];
-      pcx_moments[0][i] = (pcx_moments[0][i] < BatchBasedOnlineGMM.EPS) ? BatchBasedOnlineGMM.EPS : pcx_moments[0][i]; // numeric issues
-      pcx_moments[1][i] += (pcx[i] * x);
-      pcx_moments[1][i] = (Math.abs(pcx_moments[1][i]) < BatchBasedOnlineGMM.EPS) ? Math.signum(pcx_moments[1][i])*BatchBasedOnlineGMM.EPS : pcx_moments[1][i]; // numeric issues
-      pcx_moments[2][i] += (pcx[i] * x * x);
-      pcx_moments[2][i] = (pcx_moments[2][i] < BatchBasedOnlineGMM.EPS) ? BatchBasedOnlineGMM.EPS : pcx_moments[2][i]; // numeric issues
-      //System.out.print("\n  " + i + ": g("+i+","+x+")="+pcx[i]+", sum0: g("+i+","+x+")="+pcx_moments[0][i]+", sum1: g("+i+","+x+")="+pcx_moments[1][i]+", sum2: g("+i+","+x+")="+pcx_moments[2][i]);
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    if (subsampling > 1 && ++ skipped < subsampling) {
+      // the sample is skipped by the adaptive mode
+      if (metrics != null) {
+        metrics.recordUpdate(1, System.nanoTime() - start);
+      }
+      return;
+    }
+    skipped = 0;
+    if (!(sparseRadius > 0.0 && addSparse(getComponentIndex(), x, 0, sampleMax, sampleNorm, stats, pcx, getSparseComponents()))) {
+      addExact(x, 0, sampleMax, sampleNorm, stats, pcx);
+    }
+    if (metrics != null) {
+      metrics.recordLogDensity((sampleNorm[0] == 0.0) ? Double.NEGATIVE_INFINITY : sampleMax[0] - Math.log(sampleNorm[0]));
     }
     
     // increment the sample counter
     c++;    
     if (c == batchSize) {
       // all P(C_i|x_j) are computed so perform an EM step and clear statistics
-      
-      //System.out.print("\nM-step, components: ");
-      // perform M-step
-      for (int i = 0; i < k; i ++) {
-        m[i] = pcx_moments[1][i] / pcx_moments[0][i];
-        v[i] = Math.sqrt(pcx_moments[2][i] / pcx_moments[0][i] - m[i] * m[i]);
-        v[i] = (v[i] < BatchBasedOnlineGMM.EPS) ? BatchBasedOnlineGMM.EPS : v[i]; // numeric issue
-        w[i] = pcx_moments[0][i] / ((double)batchSize);
-        w[i] = (w[i] < BatchBasedOnlineGMM.EPS) ? 0.0 : w[i]; // numeric issue
-        //System.out.print("\n  " + i + ": m=" + m[i] + ", v=" + v[i] + ", w=" + w[i]);
-      }
-      
-      
-      // set the sample counter to zero
-      c = 0;
-      // clear buffer
-      for (int i = 0; i < k; i ++) {
-        pcx_moments[0][i] = 0.0;
-        pcx_moments[1][i] = 0.0;
-        pcx_moments[2][i] = 0.0;
-      }
-      //System.out.println();
+      finishBatch();
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(1, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * This method performs the exact E-step on the sample x and adds the results to the target statistics.
+   * 
+   * @param x observation
+   * @param j index of the sample in maxs and norms
+   * @param maxs output array of the maximal log densities
+   * @param norms output array of the reciprocal normalization factors (0 for zero density)
+   * @param target statistics to which the results are added
+   * @param p numOfComps scratch array
+   */
+  private void addExact(double x, int j, double[] maxs, double[] norms, SufficientStatistics target, double[] p) {
+    // compute the P(C_i|x) = P(C_i|x_c) values for each component in log-space
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      p[i] = computeComponentLogDensity(i, x);
+      max = Math.max(max, p[i]);
+    }
+    max = (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+    double sumProbs = 0.0;
+    for (int i = 0; i < k; i ++) {
+      p[i] = Math.exp(p[i] - max);
+      sumProbs += p[i];
+    }
+    // the largest term is exp(0.0) = 1.0, so the sum does not underflow
+    final double norm = (sumProbs == 0.0) ? 0.0 : 1.0 / sumProbs;
+    // normalize values
+    for (int i = 0; i < k; i ++) {
+      p[i] *= norm;
+    }
+    target.add(x, p);
+    maxs[j] = max;
+    norms[j] = norm;
+  }
+  
+  /**
+   * This method performs the sparse E-step on the sample x: only the components of the window of x 
+   * are evaluated. The results are added to the target statistics only if the responsibility mass of
+   * the other components is at most sparseTolerance.
+   * 
+   * @param index index of the current parameters
+   * @param x observation
+   * @param j index of the sample in maxs and norms
+   * @param maxs output array of the maximal log densities
+   * @param norms output array of the reciprocal normalization factors
+   * @param target statistics to which the results are added
+   * @param p numOfComps scratch array
+   * @param comps numOfComps scratch array
+   * @return true iff. the sample was processed (otherwise the exact E-step is needed)
+   */
+  private boolean addSparse(ComponentIndex index, double x, int j, double[] maxs, double[] norms, SufficientStatistics target, double[] p, int[] comps) {
+    final int from = index.lowerBound(x);
+    final int to = index.upperBound(x);
+    double max = Double.NEGATIVE_INFINITY;
+    for (int c = from; c < to; c ++) {
+      final int i = index.getComponent(c);
+      comps[c - from] = i;
+      p[c - from] = computeComponentLogDensity(i, x);
+      max = Math.max(max, p[c - from]);
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return false; // empty window or x is not finite
+    }
+    final int n = to - from;
+    double sumProbs = 0.0;
+    for (int c = 0; c < n; c ++) {
+      p[c] = Math.exp(p[c] - max);
+      sumProbs += p[c];
+    }
+    // the density of the window is exp(max) * sumProbs, the density of the other components is below the tail bound
+    if (Math.exp(index.getLogTailBound() - max) > sparseTolerance * sumProbs) {
+      return false;
+    }
+    final double norm = 1.0 / sumProbs;
+    for (int c = 0; c < n; c ++) {
+      final double g = p[c] * norm;
+      target.add(comps[c], g, g * x, g * x * x);
+    }
+    maxs[j] = max;
+    norms[j] = norm;
+    return true;
+  }
+  
+  /**
+   * It returns the component index of the current parameters and builds it if it is necessary.
+   */
+  private ComponentIndex getComponentIndex() {
+    ComponentIndex index = componentIndex;
+    if (index == null) {
+      index = new ComponentIndex(k, w, m, v, lw, ln, sparseRadius);
+      componentIndex = index;
+    }
+    return index;
+  }
+  
+  private int[] getSparseComponents() {
+    if (sparseComponents == null || sparseComponents.length < k) {
+      sparseComponents = new int[k];
+    }
+    return sparseComponents;
+  }
+  
+  @Override
+  protected void refreshCoefficients() {
+    super.refreshCoefficients();
+    componentIndex = null;
+  }
+  
+  /**
+   * The block based version of the update. The samples are processed in blocks of at most 
+   * BLOCK_SIZE samples which never cross a batch boundary, so the M-step is performed
+   * exactly at the same samples as in case of the sample by sample update.<br/>
+   * If parallelism is greater than one, the large parts of a batch are split among the 
+   * workers of a ForkJoinPool (shared by the models of the same parallelism), whose partial statistics 
+   * are merged before the M-step.<br/>
+   * In the adaptive mode the samples are processed batch by batch, so a new subsampling factor
+   * applies immediately after the M-step which changed it (also inside a long array).
+   */
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + xs.length + "!");
+    }
+    if (reservoir != null) {
+      // the first samples are buffered for the initialization and processed after it
+      final int n = reserve(xs, offset, length);
+      offset += n;
+      length -= n;
+    }
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    final int end = offset + length;
+    while (offset < end) {
+      if (subsampling > 1) {
+        // gather the samples of the E-step up to the end of the batch
+        if (subsample == null) {
+          subsample = new double[BatchBasedOnlineGMM.SUBSAMPLE_BUFFER_SIZE];
+        }
+        int n = 0;
+        while (offset < end && c + n < batchSize) {
+          if (++ skipped < subsampling) {
+            offset ++;
+            continue;
+          }
+          skipped = 0;
+          subsample[n ++] = xs[offset ++];
+          if (n == subsample.length) {
+            updateBlocks(subsample, 0, n);
+            n = 0;
+          }
+        }
+        updateBlocks(subsample, 0, n);
+      } else {
+        // in the adaptive mode the subsampling factor is checked again after the M-step
+        final int n = (maxSubsampling > 1) ? Math.min(end - offset, batchSize - c) : end - offset;
+        updateBlocks(xs, offset, n);
+        offset += n;
+      }
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(length, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * It returns the pool of the parallel E-step with the given parallelism. The pools are shared by 
+   * the models, so creating many models does not create more threads (the workers of a ForkJoinPool
+   * are daemon threads which terminate when the pool is idle).
+   * 
+   * @param parallelism number of workers
+   * @return shared pool
+   */
+  private static synchronized ForkJoinPool getPool(int parallelism) {
+    ForkJoinPool pool = BatchBasedOnlineGMM.POOLS.get(parallelism);
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+      BatchBasedOnlineGMM.POOLS.put(parallelism, pool);
+    }
+    return pool;
+  }
+  
+  /**
+   * It performs the E-step on every sample of xs[offset..offset+length) in blocks and the M-steps
+   * at the batch boundaries.
+   */
+  private void updateBlocks(double[] xs, int offset, int length) {
+    final int end = offset + length;
+    while (offset < end) {
+      final int n = Math.min(end - offset, batchSize - c);
+      if (sparseRadius > 0.0) {
+        getComponentIndex(); // it is built before the workers read it
+      }
+      if (parallelism > 1 && n >= 2 * BatchBasedOnlineGMM.MIN_PARALLEL_GRAIN) {
+        final int grain = Math.max(BatchBasedOnlineGMM.MIN_PARALLEL_GRAIN, n / (4 * parallelism));
+        stats.merge(BatchBasedOnlineGMM.getPool(parallelism).invoke(new EStepTask(xs, offset, n, grain)));
+      } else {
+        if (block == null || block.length < k * SufficientStatistics.BLOCK_SIZE) {
+          block = new double[k * SufficientStatistics.BLOCK_SIZE];
+          blockSums = new double[SufficientStatistics.BLOCK_SIZE];
+          blockMaxs = new double[SufficientStatistics.BLOCK_SIZE];
+        }
+        for (int j = offset; j < offset + n; j += SufficientStatistics.BLOCK_SIZE) {
+          computeBlockStatistics(xs, j, Math.min(SufficientStatistics.BLOCK_SIZE, offset + n - j), block, blockSums, blockMaxs, getSparseComponents(), stats);
+          if (metrics != null) {
+            metrics.recordBlock(blockMaxs, blockSums, Math.min(SufficientStatistics.BLOCK_SIZE, offset + n - j));
+          }
+        }
+      }
+      offset += n;
+      c += n;
+      if (c == batchSize) {
+        finishBatch();
+      }
+    }
+  }
+  
+  /**
+   * This method performs the E-step on the samples xs[offset..offset+n) and adds the results to the
+   * given statistics. The method reads only the parameters of the model, so it can be called from
+   * more threads at the same time using different scratch arrays and statistics.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation of the block
+   * @param n number of observations in the block (at most BLOCK_SIZE)
+   * @param p numOfComps x BLOCK_SIZE scratch array
+   * @param sums BLOCK_SIZE scratch array
+   * @param maxs BLOCK_SIZE scratch array
+   * @param comps numOfComps scratch array of the sparse E-step
+   * @param target statistics to which the results are added
+   */
+  protected void computeBlockStatistics(double[] xs, int offset, int n, double[] p, double[] sums, double[] maxs, int[] comps, SufficientStatistics target) {
+    final ComponentIndex index = componentIndex;
+    if (sparseRadius > 0.0 && index != null) {
+      for (int j = 0; j < n; j ++) {
+        if (!addSparse(index, xs[offset + j], j, maxs, sums, target, p, comps)) {
+          addExact(xs[offset + j], j, maxs, sums, target, p);
+        }
+      }
+    } else {
+      target.addBlock(xs, offset, n, m, lw, ln, iv, p, sums, maxs);
+    }
+  }
+  
+  /**
+   * This method closes the current batch: it performs the M-step and the model order management,
+   * refreshes the cached coefficients and reports the M-step to the metrics if they are attached.
+   */
+  protected void finishBatch() {
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    double likelihood = Double.NaN;
+    final int n = c;
+    if (maxSubsampling > 1) {
+      // save the state which is needed by the convergence detection
+      likelihood = computeBatchLikelihood();
+      System.arraycopy(stats.s0, 0, batchWeights, 0, k);
+    }
+    performMStep();
+    if (maxSubsampling > 1) {
+      adaptSubsampling(likelihood, n);
+    }
+    manageComponents();
+    refreshCoefficients();
+    if (metrics != null) {
+      metrics.recordMStep(System.nanoTime() - start, w);
+    }
+  }
+  
+  /**
+   * It computes the expected complete-data log-likelihood per sample of the current batch under the 
+   * parameters which were used by its E-step, from the statistics of the batch.
+   * 
+   * @return expected log-likelihood per sample
+   */
+  protected double computeBatchLikelihood() {
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (stats.s0[i] > 0.0 && lw[i] > Double.NEGATIVE_INFINITY) {
+        final double squares = stats.s2[i] - 2.0 * m[i] * stats.s1[i] + m[i] * m[i] * stats.s0[i];
+        sum += stats.s0[i] * (lw[i] + ln[i]) - 0.5 * iv[i] * squares;
+      }
+    }
+    return sum / c;
+  }
+  
+  /**
+   * This method updates the subsampling factor of the adaptive mode after an M-step. The change of a
+   * mean since the beginning of the current run is measured by its z-score i.e. it is divided by the
+   * standard error of the mean of the batch. The change of the expected log-likelihood per sample is
+   * multiplied by the square root of the batch size, which is its z-score if the standard deviation of
+   * the log-likelihood of the samples is about 1 (it is 1/sqrt(2) inside a Gaussian component). A run
+   * ends if a change is too large for convergence and the subsampling is turned off if it is large 
+   * enough to be a shift of the stream.
+   * 
+   * @param likelihood expected log-likelihood per sample of the batch (see computeBatchLikelihood)
+   * @param n number of samples in the batch
+   */
+  protected void adaptSubsampling(double likelihood, int n) {
+    double z = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (batchWeights[i] >= 1.0 && w[i] > 0.0) {
+        z = Math.max(z, Math.abs(m[i] - referenceMeans[i]) * Math.sqrt(batchWeights[i]) / v[i]);
+      }
+    }
+    final double change = (likelihood - referenceLikelihood) * Math.sqrt(n); // NaN at the beginning of a run
+    if (z > shiftZ || change < -shiftZ) {
+      // shift: perform the E-step on every sample again
+      subsampling = 1;
+      stableSteps = 0;
+    } else if (z < convergenceZ && Math.abs(change) < convergenceZ) {
+      if (++ stableSteps >= BatchBasedOnlineGMM.STABLE_STEPS) {
+        subsampling = Math.min(2 * subsampling, maxSubsampling);
+        stableSteps = 0;
+      }
+      return;
+    } else {
+      stableSteps = 0;
+    }
+    // start a new run
+    System.arraycopy(m, 0, referenceMeans, 0, k);
+    referenceLikelihood = likelihood;
+  }
+  
+  /**
+   * It returns the current subsampling factor of the adaptive mode.
+   * 
+   * @return the E-step is performed on every subsampling-th sample
+   */
+  public int getSubsampling() {
+    return subsampling;
+  }
+  
+  /**
+   * This method performs the M-step based on the collected moments and clears them.
+   * It is called exactly when the model has seen batchSize samples since the last M-step
+   * (c contains the number of samples the statistics were collected on).
+   * The subclasses can extend it in order to post-process the new parameters. The cached
+   * coefficients are refreshed by the caller after the method returns.
+   */
+  protected void performMStep() {
+    stats.maximize(w, m, v, c, metrics);
+    
+    // set the sample counter to zero
+    c = 0;
+    // clear buffer
+    stats.reset();
+  }
+  
+  /**
+   * The statistics are reallocated for the new components. If the components are changed in the
+   * middle of a batch (i.e. not by the model order management of an M-step), the statistics of
+   * the partial batch are dropped. The adaptive mode waits for the new components to converge.
+   */
+  @Override
+  protected void componentsChanged() {
+    pcx = new double[k];
+    stats = new SufficientStatistics(k);
+    c = 0;
+    resetAdaptation();
+  }
+  
+  @Override
+  protected int getCheckpointSize() {
+    return super.getCheckpointSize() + ModelCheckpoint.SECTION_HEADER_SIZE + 3 * 4 + 3 * 8 * k + 4 * 4 + 3 * 8 + 8 * k + 2 * 8;
+  }
+  
+  @Override
+  protected void writeCheckpoint(ByteBuffer out) {
+    super.writeCheckpoint(out);
+    final int section = ModelCheckpoint.beginSection(out);
+    out.putInt(batchSize);
+    out.putInt(parallelism);
+    out.putInt(c);
+    stats.writeCheckpoint(out);
+    out.putInt(maxSubsampling);
+    out.putDouble(convergenceZ);
+    out.putDouble(shiftZ);
+    out.putInt(subsampling);
+    out.putInt(skipped);
+    out.putInt(stableSteps);
+    out.putDouble(referenceLikelihood);
+    ModelCheckpoint.putDoubles(out, referenceMeans);
+    out.putDouble(sparseRadius);
+    out.putDouble(sparseTolerance);
+    ModelCheckpoint.endSection(out, section);
+  }
+  
+  @Override
+  protected void readCheckpoint(ByteBuffer in) {
+    super.readCheckpoint(in);
+    final int end = ModelCheckpoint.readSection(in);
+    batchSize = in.getInt();
+    parallelism = in.getInt();
+    c = in.getInt();
+    stats.readCheckpoint(in);
+    if (ModelCheckpoint.hasMore(in, end)) {
+      // adaptive subsampling
+      maxSubsampling = in.getInt();
+      convergenceZ = in.getDouble();
+      shiftZ = in.getDouble();
+      subsampling = in.getInt();
+      skipped = in.getInt();
+      stableSteps = in.getInt();
+      referenceLikelihood = in.getDouble();
+      ModelCheckpoint.getDoubles(in, referenceMeans);
+    }
+    if (ModelCheckpoint.hasMore(in, end)) {
+      // sparse E-step
+      sparseRadius = in.getDouble();
+      sparseTolerance = in.getDouble();
+    }
+    ModelCheckpoint.skipSection(in, end);
+  }
+  
+  /**
+   * This task computes the statistics of a range of samples by splitting it recursively
+   * into parts of at most <i>grain</i> samples.
+   */
+  private class EStepTask extends RecursiveTask<SufficientStatistics> {
+    private static final long serialVersionUID = 3541709224395883152L;
+    
+    private final double[] xs;
+    private final int offset;
+    private final int n;
+    private final int grain;
+    
+    private EStepTask(double[] xs, int offset, int n, int grain) {
+      this.xs = xs;
+      this.offset = offset;
+      this.n = n;
+      this.grain = grain;
+    }
+    
+    @Override
+    protected SufficientStatistics compute() {
+      if (n <= grain) {
+        final SufficientStatistics partial = new SufficientStatistics(k);
+        final double[] p = new double[k * SufficientStatistics.BLOCK_SIZE];
+        final double[] sums = new double[SufficientStatistics.BLOCK_SIZE];
+        final double[] maxs = new double[SufficientStatistics.BLOCK_SIZE];
+        final int[] comps = new int[k];
+        for (int j = offset; j < offset + n; j += SufficientStatistics.BLOCK_SIZE) {
+          computeBlockStatistics(xs, j, Math.min(SufficientStatistics.BLOCK_SIZE, offset + n - j), p, sums, maxs, comps, partial);
+          if (metrics != null) {
+            metrics.recordBlock(maxs, sums, Math.min(SufficientStatistics.BLOCK_SIZE, offset + n - j));
+          }
+        }
+        return partial;
+      }
+      final int half = n / 2;
+      final EStepTask left = new EStepTask(xs, offset, half, grain);
+      final EStepTask right = new EStepTask(xs, offset + half, n - half, grain);
+      left.fork();
+      final SufficientStatistics ret = right.compute();
+      ret.merge(left.join());
+      return ret;
     }
   }
 }
@@ -0,0 +1,175 @@
+package densityEstimator;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This is the d-dimensional counterpart of BatchBasedOnlineGMM. The E-step of each observation is 
+ * accumulated into the sufficient statistics of the current batch (the sums of the responsibilities,
+ * of the weighted observations and of the weighted outer products of the observations, only the lower
+ * triangles of the latter) and the parameters are re-estimated after every batchSize observations.
+ * The cost of an observation is O(k*d^2) (O(k*d) for diagonal covariances) and it does not allocate, 
+ * since the Cholesky factors are computed only by the M-steps.<br/>
+ * Parameters: batchSize (mandatory) and covariance=full|diagonal (default full).
+ * 
+ * @author Róbert Ormándi
+ */
+public class BatchBasedOnlineMultivariateGMM extends AbstractMultivariateGMM {
+  private static final long serialVersionUID = -3871650328724509611L;
+  
+  protected int batchSize;
+  protected int n = 0;             // number of observations in the current batch
+  protected double[] pcx = null;   // P(C_i|x) values of the current observation
+  protected double[] s0 = null;    // sums of the responsibilities (k)
+  protected double[] s1 = null;    // sums of the weighted observations (k*d)
+  protected double[] s2 = null;    // sums of the weighted outer products (k*d*d, lower triangles) or squares (k*d)
+  
+  /**
+   * This is a mandatory constructor.
+   */
+  public BatchBasedOnlineMultivariateGMM(int numberOfComponents, int dimension) {
+    super(numberOfComponents, dimension);
+    resetStatistics();
+  }
+  
+  @Override
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("batchSize")) {
+      batchSize = Integer.parseInt(p.get("batchSize"));
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("Parameter batchSize has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    } else {
+      throw new RuntimeException("Parameter batchSize=someInteger is mandatory for mixture model " + getClass().getCanonicalName() + ", please specify it at the command line!");
+    }
+    if (p.containsKey("covariance")) {
+      if (p.get("covariance").equals("diagonal")) {
+        setDiagonal(true);
+      } else if (p.get("covariance").equals("full")) {
+        setDiagonal(false);
+      } else {
+        throw new RuntimeException("Parameter covariance has to be full or diagonal for mixture model " + getClass().getCanonicalName() + "!");
+      }
+      resetStatistics();
+    }
+    return p;
+  }
+  
+  @Override
+  public void setNumberOfComponents(int num) {
+    super.setNumberOfComponents(num);
+    resetStatistics();
+  }
+  
+  /**
+   * It allocates the statistics of the current number of components and covariance type.
+   */
+  private void resetStatistics() {
+    n = 0;
+    pcx = new double[k];
+    s0 = new double[k];
+    s1 = new double[k * d];
+    s2 = new double[diagonal ? k * d : k * d * d];
+  }
+  
+  @Override
+  public void update(double[] x) {
+    checkDimension(x.length);
+    add(x, 0);
+  }
+  
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || (long) (offset + length) * d > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for " + (xs.length / d) + " observations!");
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      add(xs, j * d);
+    }
+  }
+  
+  /**
+   * It performs the E-step of the observation which starts at index <i>offset</i> of the array xs,
+   * and the M-step if the batch is complete.
+   */
+  private void add(double[] xs, int offset) {
+    // compute the P(C_i|x) values in log-space
+    final double max = computeComponentLogDensities(xs, offset, pcx);
+    double sumProbs = 0.0;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = Math.exp(pcx[i] - max);
+      sumProbs += pcx[i];
+    }
+    final double norm = (sumProbs == 0.0) ? 0.0 : 1.0 / sumProbs;
+    
+    // accumulate the statistics
+    for (int i = 0; i < k; i ++) {
+      final double g = pcx[i] * norm;
+      if (g == 0.0) {
+        continue;
+      }
+      s0[i] += g;
+      final int md = i * d;
+      if (diagonal) {
+        for (int a = 0; a < d; a ++) {
+          final double gx = g * xs[offset + a];
+          s1[md + a] += gx;
+          s2[md + a] += gx * xs[offset + a];
+        }
+      } else {
+        final int base = md * d;
+        for (int a = 0; a < d; a ++) {
+          final double gx = g * xs[offset + a];
+          s1[md + a] += gx;
+          for (int b = 0; b <= a; b ++) {
+            s2[base + a * d + b] += gx * xs[offset + b];
+          }
+        }
+      }
+    }
+    
+    if (++ n == batchSize) {
+      performMStep();
+      Arrays.fill(s0, 0.0);
+      Arrays.fill(s1, 0.0);
+      Arrays.fill(s2, 0.0);
+      n = 0;
+    }
+  }
+  
+  /**
+   * It re-estimates the parameters from the statistics of the batch. The components which got no
+   * responsibility die (their weight is set to zero), the others get the weighted moments of the
+   * batch. The variances are bounded below by EPS like in the 1-dimensional M-step.
+   */
+  protected void performMStep() {
+    for (int i = 0; i < k; i ++) {
+      w[i] = s0[i] / n;
+      if (w[i] < SufficientStatistics.EPS || s0[i] < SufficientStatistics.EPS) {
+        w[i] = 0.0; // numeric issue, the other parameters are kept
+        continue;
+      }
+      final int md = i * d;
+      final double norm = 1.0 / s0[i];
+      for (int a = 0; a < d; a ++) {
+        m[md + a] = s1[md + a] * norm;
+      }
+      if (diagonal) {
+        for (int a = 0; a < d; a ++) {
+          c[md + a] = Math.max(s2[md + a] * norm - m[md + a] * m[md + a], SufficientStatistics.EPS);
+        }
+      } else {
+        final int base = md * d;
+        for (int a = 0; a < d; a ++) {
+          for (int b = 0; b < a; b ++) {
+            c[base + a * d + b] = s2[base + a * d + b] * norm - m[md + a] * m[md + b];
+            c[base + b * d + a] = c[base + a * d + b];
+          }
+          c[base + a * d + a] = Math.max(s2[base + a * d + a] * norm - m[md + a] * m[md + a], SufficientStatistics.EPS);
+        }
+      }
+    }
+    refreshCoefficients();
+  }
+}
@@ -0,0 +1,58 @@
+package densityEstimator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This source reads little-endian binary doubles from a file through a memory mapping. The file is 
+ * mapped in windows, so arbitrarily large files can be streamed in constant heap memory. Trailing 
+ * bytes which do not form a whole double are ignored.
+ * 
+ * @author Róbert Ormándi
+ */
+public class BinarySampleSource implements SampleSource {
+  private static final long WINDOW_SIZE = 1L << 30; // size of a mapped window in bytes (multiple of 8)
+  
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final long size;       // number of bytes which are read (multiple of 8)
+  private long windowEnd = 0;    // end of the current window in bytes
+  private DoubleBuffer window = null;
+  
+  /**
+   * It opens the file.
+   * 
+   * @param file binary file of little-endian doubles
+   */
+  public BinarySampleSource(File file) throws IOException {
+    raf = new RandomAccessFile(file, "r");
+    channel = raf.getChannel();
+    size = channel.size() & ~7L;
+  }
+  
+  @Override
+  public int read(double[] buffer, int offset, int length) throws IOException {
+    if (window == null || !window.hasRemaining()) {
+      if (windowEnd >= size) {
+        return -1;
+      }
+      // map the next window
+      final long windowSize = Math.min(BinarySampleSource.WINDOW_SIZE, size - windowEnd);
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, windowSize).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+      windowEnd += windowSize;
+    }
+    final int n = Math.min(length, window.remaining());
+    window.get(buffer, offset, n);
+    return n;
+  }
+  
+  @Override
+  public void close() throws IOException {
+    window = null;
+    raf.close();
+  }
+}
@@ -0,0 +1,310 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.random.RandomGenerator;
+
+/**
+ * This is a general representation of a family of 1-dimensional component distributions of a mixture
+ * whose M-step can be computed from sufficient statistics, e.g. Gaussian, log-normal or Poisson. The
+ * per-component data of a FamilyMixtureModel are stored in flat arrays: the parameters of the i-th 
+ * component start at index i*getNumberOfParameters() of the parameter array, its cached coefficients
+ * at index i*getNumberOfCoefficients() of the coefficient array and its statistics at index
+ * i*getNumberOfStatistics() of the statistics array, where the first statistic is always the sum of 
+ * the responsibilities.<br/>
+ * The E-step is implemented by each family in addBlock instead of a generic loop which calls the
+ * family per sample and component: the families are final classes, so the kernel of the family is
+ * compiled into its own loop and the only virtual call of a block is the call of addBlock itself.
+ * 
+ * @author Róbert Ormándi
+ */
+public abstract class ComponentFamily implements Serializable {
+  private static final long serialVersionUID = -1837465520947562304L;
+  
+  private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313, 
+    -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+  private static final double HALF_LOG_2PI = 0.5 * Math.log(2.0 * Math.PI);
+  private static final double GAMMA_PRECISION = 1.0E-16;
+  private static final double GAMMA_TINY = 1.0E-300;
+  private static final int GAMMA_MAX_ITERATIONS = 100000;
+  
+  /**
+   * It returns the name of the family.
+   * 
+   * @return name
+   */
+  public abstract String getName();
+  
+  /**
+   * It returns the number of parameters of a component.
+   * 
+   * @return number of parameters
+   */
+  public abstract int getNumberOfParameters();
+  
+  /**
+   * It returns the number of cached coefficients of a component.
+   * 
+   * @return number of coefficients
+   */
+  public abstract int getNumberOfCoefficients();
+  
+  /**
+   * It returns the number of sufficient statistics of a component (including the sum of the responsibilities).
+   * 
+   * @return number of statistics
+   */
+  public abstract int getNumberOfStatistics();
+  
+  /**
+   * It tells whether x is in the support of the family (the other samples have zero density).
+   * 
+   * @param x sample
+   * @return true iff. x is in the support
+   */
+  public abstract boolean isInSupport(double x);
+  
+  /**
+   * It computes the cached coefficients of a component from its parameters.
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @param coefs coefficient array
+   * @param c index of the first coefficient of the component
+   */
+  public abstract void computeCoefficients(double[] params, int p, double[] coefs, int c);
+  
+  /**
+   * It computes the log density of a component at x from its coefficients.
+   * 
+   * @param coefs coefficient array
+   * @param c index of the first coefficient of the component
+   * @param x point
+   * @return log density (negative infinity outside of the support)
+   */
+  public abstract double computeLogDensity(double[] coefs, int c, double x);
+  
+  /**
+   * It adds the sample x with the responsibility g to the statistics of a component.
+   * 
+   * @param stats statistics array
+   * @param s index of the first statistic of the component
+   * @param g responsibility
+   * @param x sample
+   */
+  public abstract void accumulate(double[] stats, int s, double g, double x);
+  
+  /**
+   * It computes the parameters of a component from its statistics. The sum of the responsibilities 
+   * (stats[s]) is positive, and the parameters have to be kept in a valid range (e.g. positive 
+   * standard deviations).
+   * 
+   * @param stats statistics array
+   * @param s index of the first statistic of the component
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   */
+  public abstract void maximize(double[] stats, int s, double[] params, int p);
+  
+  /**
+   * It performs the E-step of <i>n</i> consecutive samples of the array xs starting at index <i>offset</i>
+   * and adds the results to the statistics.
+   * 
+   * @param xs array of samples
+   * @param offset index of the first sample
+   * @param n number of samples
+   * @param k number of components
+   * @param lw log weights of the components
+   * @param coefs coefficient array
+   * @param p scratch array of k elements
+   * @param stats statistics array
+   * @return number of samples whose density was zero for every component (they are not added)
+   */
+  public abstract int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats);
+  
+  /**
+   * It returns the mean of a component.
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @return mean
+   */
+  public abstract double getMean(double[] params, int p);
+  
+  /**
+   * It returns the standard deviation of a component.
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @return standard deviation
+   */
+  public abstract double getStandardDeviation(double[] params, int p);
+  
+  /**
+   * It computes the cumulative distribution function of a component at x.
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @param x point
+   * @return P(X &lt;= x)
+   */
+  public abstract double computeCdf(double[] params, int p, double x);
+  
+  /**
+   * It computes the tail probability of a component at x directly (not as 1 - cdf).
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @param x point
+   * @return P(X &gt; x)
+   */
+  public abstract double computeTailProbability(double[] params, int p, double x);
+  
+  /**
+   * It tells whether the family is discrete. The quantiles of discrete families are values of
+   * the support and they are found without the density.
+   * 
+   * @return true iff. the family is discrete
+   */
+  public boolean isDiscrete() {
+    return false;
+  }
+  
+  /**
+   * It draws a sample from a component.
+   * 
+   * @param params parameter array
+   * @param p index of the first parameter of the component
+   * @param rng source of randomness
+   * @return sample
+   */
+  public abstract double sample(double[] params, int p, RandomGenerator rng);
+  
+  /**
+   * It turns the weighted log densities of the components into responsibilities in place.
+   * 
+   * @param p weighted log densities of the components
+   * @param k number of components
+   * @return false iff. the density of every component is zero (then every responsibility is zero)
+   */
+  protected static boolean normalize(double[] p, int k) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      max = Math.max(max, p[i]);
+    }
+    if (max == Double.NEGATIVE_INFINITY || max != max) {
+      for (int i = 0; i < k; i ++) {
+        p[i] = 0.0;
+      }
+      return false;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      p[i] = Math.exp(p[i] - max);
+      sum += p[i];
+    }
+    // the largest term is exp(0.0) = 1.0, so the sum does not underflow
+    final double norm = 1.0 / sum;
+    for (int i = 0; i < k; i ++) {
+      p[i] *= norm;
+    }
+    return true;
+  }
+  
+  /**
+   * It computes the log of the gamma function for positive arguments (Lanczos approximation).
+   */
+  protected static double logGamma(double x) {
+    if (x < 0.5) {
+      // reflection formula
+      return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - ComponentFamily.logGamma(1.0 - x);
+    }
+    x -= 1.0;
+    double a = ComponentFamily.LANCZOS[0];
+    final double t = x + 7.5;
+    for (int i = 1; i < ComponentFamily.LANCZOS.length; i ++) {
+      a += ComponentFamily.LANCZOS[i] / (x + i);
+    }
+    return ComponentFamily.HALF_LOG_2PI + (x + 0.5) * Math.log(t) - t + Math.log(a);
+  }
+  
+  /**
+   * It computes the digamma function (the derivative of logGamma) for positive arguments.
+   */
+  protected static double digamma(double x) {
+    double r = 0.0;
+    while (x < 6.0) {
+      r -= 1.0 / x;
+      x += 1.0;
+    }
+    final double f = 1.0 / (x * x);
+    return r + Math.log(x) - 0.5 / x - f * (1.0 / 12.0 - f * (1.0 / 120.0 - f / 252.0));
+  }
+  
+  /**
+   * It computes the trigamma function (the derivative of digamma) for positive arguments.
+   */
+  protected static double trigamma(double x) {
+    double r = 0.0;
+    while (x < 6.0) {
+      r += 1.0 / (x * x);
+      x += 1.0;
+    }
+    final double f = 1.0 / (x * x);
+    return r + 1.0 / x + f / 2.0 + f / x * (1.0 / 6.0 - f * (1.0 / 30.0 - f / 42.0));
+  }
+  
+  /**
+   * It computes the regularized lower incomplete gamma function P(a, x) for positive a.
+   */
+  protected static double regularizedGammaP(double a, double x) {
+    return ComponentFamily.incompleteGamma(a, x, false);
+  }
+  
+  /**
+   * It computes the regularized upper incomplete gamma function Q(a, x) = 1 - P(a, x) for positive a
+   * without the rounding of the subtraction.
+   */
+  protected static double regularizedGammaQ(double a, double x) {
+    return ComponentFamily.incompleteGamma(a, x, true);
+  }
+  
+  /**
+   * It computes P(a, x) by its series for x &lt; a + 1 and Q(a, x) by its continued fraction (modified 
+   * Lentz method) otherwise, and returns the requested one, so the smaller of the two is always computed 
+   * directly.
+   */
+  private static double incompleteGamma(double a, double x, boolean upper) {
+    if (!(x > 0.0)) {
+      return (x == x) ? (upper ? 1.0 : 0.0) : x;
+    } else if (x == Double.POSITIVE_INFINITY) {
+      return upper ? 0.0 : 1.0;
+    }
+    final double front = Math.exp(a * Math.log(x) - x - ComponentFamily.logGamma(a));
+    if (x < a + 1.0) {
+      double term = 1.0 / a, sum = term;
+      for (int n = 1; n < ComponentFamily.GAMMA_MAX_ITERATIONS && Math.abs(term) > Math.abs(sum) * ComponentFamily.GAMMA_PRECISION; n ++) {
+        term *= x / (a + n);
+        sum += term;
+      }
+      final double lower = Math.min(sum * front, 1.0);
+      return upper ? 1.0 - lower : lower;
+    }
+    double b = x + 1.0 - a, c = 1.0 / ComponentFamily.GAMMA_TINY, d = 1.0 / b, h = d;
+    for (int n = 1; n < ComponentFamily.GAMMA_MAX_ITERATIONS; n ++) {
+      final double an = - n * (n - a);
+      b += 2.0;
+      d = an * d + b;
+      d = (Math.abs(d) < ComponentFamily.GAMMA_TINY) ? ComponentFamily.GAMMA_TINY : d;
+      c = b + an / c;
+      c = (Math.abs(c) < ComponentFamily.GAMMA_TINY) ? ComponentFamily.GAMMA_TINY : c;
+      d = 1.0 / d;
+      final double delta = d * c;
+      h *= delta;
+      if (Math.abs(delta - 1.0) <= ComponentFamily.GAMMA_PRECISION) {
+        break;
+      }
+    }
+    final double tail = Math.min(front * h, 1.0);
+    return upper ? tail : 1.0 - tail;
+  }
+}
@@ -0,0 +1,143 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This is an index of the living components of a Gaussian mixture sorted by their means, which is
+ * used by the sparse E-step. For a sample x the window [x - radius * maxSigma, x + radius * maxSigma]
+ * (where maxSigma is the largest variance) contains every component which is within radius standard
+ * deviations of x, and it is found by two binary searches.<br/>
+ * The weighted density of a component outside of the window is at most w/(sqrt(2*pi)*v) * exp(-radius^2/2),
+ * so the total density of the discarded components is bounded by exp(-radius^2/2) * sum_i(w_i/(sqrt(2*pi)*v_i))
+ * regardless of x. Comparing this bound to the density of the evaluated components bounds the discarded
+ * responsibility mass of a sample.
+ * 
+ * @author Róbert Ormándi
+ */
+public class ComponentIndex implements Serializable {
+  private static final long serialVersionUID = 1398574283645609281L;
+  
+  protected final int[] order;          // indices of the living components sorted by their means
+  protected final double[] sortedMeans; // means in the order of the index
+  protected final double halfWidth;     // half width of the window i.e. radius * maxSigma
+  protected final double logTailBound;  // log of the bound of the density of the components outside of the window
+  
+  /**
+   * It builds the index of the given components.
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param lw log weights of the components
+   * @param ln log normalisers of the components
+   * @param radius radius of the window in standard deviations
+   */
+  public ComponentIndex(int k, double[] w, double[] m, double[] v, double[] lw, double[] ln, double radius) {
+    // collect the living components
+    int n = 0;
+    double maxSigma = 0.0;
+    double maxCoef = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        n ++;
+        maxSigma = Math.max(maxSigma, v[i]);
+        maxCoef = Math.max(maxCoef, lw[i] + ln[i]);
+      }
+    }
+    // sort them by mean
+    final Integer[] sorted = new Integer[n];
+    for (int i = 0, j = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        sorted[j ++] = i;
+      }
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(m[a], m[b]);
+      }
+    });
+    order = new int[n];
+    sortedMeans = new double[n];
+    double sum = 0.0;
+    for (int c = 0; c < n; c ++) {
+      order[c] = sorted[c];
+      sortedMeans[c] = m[order[c]];
+      sum += Math.exp(lw[order[c]] + ln[order[c]] - maxCoef);
+    }
+    halfWidth = radius * maxSigma;
+    logTailBound = (n == 0) ? Double.NEGATIVE_INFINITY : -0.5 * radius * radius + maxCoef + Math.log(sum);
+  }
+  
+  /**
+   * It returns the position of the first component of the window of x.
+   * 
+   * @param x observation
+   * @return position in the index (inclusive)
+   */
+  public int lowerBound(double x) {
+    return search(x - halfWidth);
+  }
+  
+  /**
+   * It returns the position after the last component of the window of x.
+   * 
+   * @param x observation
+   * @return position in the index (exclusive)
+   */
+  public int upperBound(double x) {
+    final double limit = x + halfWidth;
+    int c = search(limit);
+    while (c < sortedMeans.length && sortedMeans[c] <= limit) {
+      c ++;
+    }
+    return c;
+  }
+  
+  /**
+   * It returns the position of the first mean which is not smaller than the limit.
+   */
+  private int search(double limit) {
+    int lo = 0, hi = sortedMeans.length;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (sortedMeans[mid] < limit) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+  
+  /**
+   * It returns the index of the component at the given position of the index.
+   * 
+   * @param c position in the index
+   * @return index of the component
+   */
+  public int getComponent(int c) {
+    return order[c];
+  }
+  
+  /**
+   * It returns the log of the bound of the total weighted density of the components outside of the window of any sample.
+   * 
+   * @return log of the bound (negative infinity if there is no living component)
+   */
+  public double getLogTailBound() {
+    return logTailBound;
+  }
+  
+  /**
+   * It returns the number of living components in the index.
+   * 
+   * @return number of components
+   */
+  public int size() {
+    return order.length;
+  }
+}
@@ -0,0 +1,430 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.nio.DoubleBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * This is a thread-safe wrapper of a BatchBasedOnlineGMM (or any of its subclasses) which can be
+ * updated and evaluated by many threads at the same time.<br/>
+ * The implementation works like this:
+ * <ul>
+ *   <li>The producer threads compute the responsibilities based on the last published parameters and
+ *   add them to one of the striped statistics. Each stripe has its own lock and the threads try the
+ *   stripes one after the other when the preferred one is busy, so there is no lock shared by all
+ *   of the producers.</li>
+ *   <li>Each stripe counts its own samples and adds them to the shared counter of the pending samples
+ *   only when at least batchSize / (4 * stripes) of them have been collected, so the producers do not 
+ *   contend on the counter (the batches can be larger than batchSize by the samples which are not counted 
+ *   yet, i.e. by at most a fourth of a batch).</li>
+ *   <li>When at least batchSize samples have been counted, the first thread which notices it is
+ *   elected to harvest the stripes and to perform the M-step of the wrapped model, while the other
+ *   threads continue collecting statistics.</li>
+ *   <li>The new parameters are published as an immutable GMMSnapshot through a volatile reference,
+ *   so the readers (computeDensityValue and the get methods) never block and never see torn parameters.</li>
+ * </ul>
+ * The E-step of the samples which arrive during an M-step uses the previous parameters, which
+ * is the only difference compared to the sequential model. If the model order management of the 
+ * wrapped model changes the components, the statistics which were collected for the previous
+ * components are dropped.<br/>
+ * The wrapped model can be selected by the optional parameter model=className (its default is
+ * densityEstimator.BatchBasedOnlineGMM) and the number of stripes by the optional parameter stripes.
+ * 
+ * @author Róbert Ormándi
+ */
+public class ConcurrentGMM implements MixtureModel {
+  private static final long serialVersionUID = -1648829360702372917L;
+  
+  protected BatchBasedOnlineGMM model;        // wrapped model, it is touched only by the elected thread
+  protected volatile GMMSnapshot snapshot;    // last published parameters
+  protected Stripe[] stripes;                 // striped statistics
+  protected final AtomicLong pending = new AtomicLong(0); // number of samples counted by the stripes since the last M-step
+  protected int flushSize = 1;                // number of samples after which a stripe adds its samples to pending
+  protected final AtomicBoolean isMStepRunning = new AtomicBoolean(false); // election flag of the M-step
+  protected transient EstimatorMetrics metrics = null; // runtime metrics (null means that the instrumentation is off)
+  
+  /**
+   * This is a mandatory constructor which is used through the reflection based initalization in the simulator.
+   */
+  public ConcurrentGMM(int numberOfComponents) {
+    this(new BatchBasedOnlineGMM(numberOfComponents));
+  }
+  
+  /**
+   * It wraps the given model. The model must not be used directly after this call.
+   * 
+   * @param model wrapped model
+   */
+  public ConcurrentGMM(BatchBasedOnlineGMM model) {
+    this.model = model;
+    init(ConcurrentGMM.defaultNumberOfStripes());
+  }
+  
+  private static int defaultNumberOfStripes() {
+    return Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+  }
+  
+  /**
+   * It (re)creates the stripes and publishes the current parameters of the wrapped model.
+   * 
+   * @param numberOfStripes number of stripes
+   */
+  private void init(int numberOfStripes) {
+    stripes = new Stripe[numberOfStripes];
+    for (int s = 0; s < numberOfStripes; s ++) {
+      stripes[s] = new Stripe(model.getNumberOfComponents(), model.layout);
+    }
+    flushSize = Math.max(1, model.batchSize / (4 * numberOfStripes));
+    pending.set(0);
+    snapshot = model.getSnapshot();
+  }
+  
+  @Override
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("init")) {
+      throw new RuntimeException("Parameter init is not supported by mixture model " + getClass().getCanonicalName() + ", please initialize the wrapped model by setParameters instead!");
+    }
+    if (p.containsKey("model")) {
+      try {
+        Constructor<?> constructor = Class.forName(p.get("model")).getConstructor(Integer.TYPE);
+        model = (BatchBasedOnlineGMM) constructor.newInstance(model.getNumberOfComponents());
+      } catch (Exception e) {
+        throw new RuntimeException("The model " + p.get("model") + " cannot be wrapped by " + getClass().getCanonicalName() + "!", e);
+      }
+    }
+    model.parseParameters(params);
+    model.setMetrics(metrics);
+    init(p.containsKey("stripes") ? Integer.parseInt(p.get("stripes")) : stripes.length);
+    return p;
+  }
+  
+  /**
+   * It locks and returns a stripe preferring the one which belongs to the current thread.
+   * 
+   * @return locked stripe
+   */
+  private Stripe lockStripe() {
+    final int h = (int) Thread.currentThread().getId();
+    for (int s = 0; s < stripes.length; s ++) {
+      Stripe stripe = stripes[(h + s) % stripes.length];
+      if (stripe.lock.tryLock()) {
+        return stripe;
+      }
+    }
+    Stripe stripe = stripes[h % stripes.length];
+    stripe.lock.lock();
+    return stripe;
+  }
+  
+  @Override
+  public void update(double x) {
+    final EstimatorMetrics metrics = this.metrics;
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    final GMMSnapshot current = snapshot;
+    final Stripe stripe = lockStripe();
+    final double logDensity;
+    final boolean isBatchComplete;
+    try {
+      prepareStripe(stripe, current);
+      logDensity = current.computeResponsibilities(x, stripe.pcx);
+      stripe.stats.add(x, stripe.pcx);
+      stripe.count ++;
+      isBatchComplete = flushStripe(stripe);
+    } finally {
+      stripe.lock.unlock();
+    }
+    if (isBatchComplete) {
+      tryMStep();
+    }
+    if (metrics != null) {
+      metrics.recordLogDensity(logDensity);
+      metrics.recordUpdate(1, System.nanoTime() - start);
+    }
+  }
+  
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + xs.length + "!");
+    }
+    final EstimatorMetrics metrics = this.metrics;
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    final int end = offset + length;
+    while (offset < end) {
+      final GMMSnapshot current = snapshot;
+      final int n = Math.min(end - offset, SufficientStatistics.BLOCK_SIZE);
+      final Stripe stripe = lockStripe();
+      final boolean isBatchComplete;
+      try {
+        prepareStripe(stripe, current);
+        stripe.stats.addBlock(xs, offset, n, current.m, current.lw, current.ln, current.iv, stripe.block, stripe.blockSums, stripe.blockMaxs);
+        stripe.count += n;
+        isBatchComplete = flushStripe(stripe);
+        if (metrics != null) {
+          metrics.recordBlock(stripe.blockMaxs, stripe.blockSums, n);
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+      offset += n;
+      if (isBatchComplete) {
+        tryMStep();
+      }
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(length, System.nanoTime() - start);
+    }
+  }
+  
+  @Override
+  public void update(DoubleBuffer xs) {
+    double[] chunk = new double[Math.min(xs.remaining(), SufficientStatistics.BLOCK_SIZE)];
+    while (xs.hasRemaining()) {
+      int n = Math.min(xs.remaining(), chunk.length);
+      xs.get(chunk, 0, n);
+      update(chunk, 0, n);
+    }
+  }
+  
+  /**
+   * It drops the statistics of the locked stripe if they belong to other components than the given
+   * snapshot and resizes the stripe for the components of the snapshot.
+   * 
+   * @param stripe locked stripe
+   * @param current snapshot whose responsibilities are added to the stripe
+   */
+  private void prepareStripe(Stripe stripe, GMMSnapshot current) {
+    if (stripe.layout != current.layout) {
+      pending.addAndGet(-stripe.flushed);
+      stripe.resize(current.k, current.layout);
+    }
+  }
+  
+  /**
+   * It adds the samples of the locked stripe which are not counted yet to the pending samples if 
+   * there are at least flushSize of them.
+   * 
+   * @param stripe locked stripe
+   * @return whether at least batchSize samples are pending
+   */
+  private boolean flushStripe(Stripe stripe) {
+    if (stripe.count - stripe.flushed < flushSize) {
+      return false;
+    }
+    final long n = stripe.count - stripe.flushed;
+    stripe.flushed = stripe.count;
+    return pending.addAndGet(n) >= model.batchSize;
+  }
+  
+  /**
+   * It performs the M-step if at least batchSize samples are pending and no other thread
+   * is performing it.
+   */
+  private void tryMStep() {
+    while (pending.get() >= model.batchSize && isMStepRunning.compareAndSet(false, true)) {
+      try {
+        // harvest the stripes (the statistics of the previous components are dropped)
+        long collected = 0, flushed = 0;
+        model.stats.reset();
+        for (int s = 0; s < stripes.length; s ++) {
+          final Stripe stripe = stripes[s];
+          stripe.lock.lock();
+          try {
+            if (stripe.layout == model.layout) {
+              model.stats.merge(stripe.stats);
+              collected += stripe.count;
+            }
+            flushed += stripe.flushed;
+            stripe.stats.reset();
+            stripe.count = 0;
+            stripe.flushed = 0;
+          } finally {
+            stripe.lock.unlock();
+          }
+        }
+        pending.addAndGet(-flushed);
+        
+        // perform the M-step of the wrapped model and publish the results
+        model.c = (int) collected;
+        model.finishBatch();
+        snapshot = model.getSnapshot();
+      } finally {
+        isMStepRunning.set(false);
+      }
+    }
+  }
+  
+  /**
+   * It returns the last published parameters.
+   * 
+   * @return immutable snapshot of the parameters
+   */
+  public GMMSnapshot getSnapshot() {
+    return snapshot;
+  }
+  
+  @Override
+  public double computeDensityValue(double x) {
+    return snapshot.computeDensityValue(x);
+  }
+  
+  @Override
+  public double computeLogDensityValue(double x) {
+    return snapshot.computeLogDensityValue(x);
+  }
+  
+  @Override
+  public double computeCdf(double x) {
+    return snapshot.computeCdf(x);
+  }
+  
+  @Override
+  public double computeTailProbability(double x) {
+    return snapshot.computeTailProbability(x);
+  }
+  
+  /**
+   * The quantile table belongs to the published snapshot, so it is rebuilt only after the M-steps.
+   */
+  @Override
+  public double computeQuantile(double p) {
+    return snapshot.computeQuantile(p);
+  }
+  
+  @Override
+  public void computeDensityValues(double[] xs, double[] out) {
+    final GMMSnapshot current = snapshot;
+    for (int j = 0; j < xs.length; j ++) {
+      out[j] = current.computeDensityValue(xs[j]);
+    }
+  }
+  
+  @Override
+  public void computeLogDensityValues(double[] xs, double[] out) {
+    final GMMSnapshot current = snapshot;
+    for (int j = 0; j < xs.length; j ++) {
+      out[j] = current.computeLogDensityValue(xs[j]);
+    }
+  }
+  
+  @Override
+  public double sample(RandomGenerator rng) {
+    return snapshot.sample(rng);
+  }
+  
+  @Override
+  public void sample(double[] out, RandomGenerator rng) {
+    snapshot.sample(out, 0, out.length, rng);
+  }
+  
+  @Override
+  public void sample(double[] out, int offset, int length, RandomGenerator rng) {
+    snapshot.sample(out, offset, length, rng);
+  }
+  
+  /**
+   * It returns a copy of the last published component weights.
+   */
+  @Override
+  public double[] getComponentWeights() {
+    return snapshot.getComponentWeights();
+  }
+  
+  /**
+   * It returns a copy of the last published component means.
+   */
+  @Override
+  public double[] getComponentMeans() {
+    return snapshot.getComponentMeans();
+  }
+  
+  /**
+   * It returns a copy of the last published component variances.
+   */
+  @Override
+  public double[] getComponentVariances() {
+    return snapshot.getComponentVariances();
+  }
+  
+  @Override
+  public int getNumberOfComponents() {
+    return snapshot.getNumberOfComponents();
+  }
+  
+  /**
+   * It sets the parameters of the wrapped model (warm start) and publishes them. It must not be 
+   * called concurrently with the updates.
+   * 
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   */
+  public void setParameters(double[] w, double[] m, double[] v) {
+    model.setParameters(w, m, v);
+    init(stripes.length);
+  }
+  
+  /**
+   * It reinitializes the wrapped model. It must not be called concurrently with the updates.
+   */
+  @Override
+  public void setNumberOfComponents(int num) {
+    model.setNumberOfComponents(num);
+    init(stripes.length);
+  }
+  
+  /**
+   * The metrics are attached to the wrapped model as well, which reports the M-steps.
+   */
+  @Override
+  public void setMetrics(EstimatorMetrics metrics) {
+    this.metrics = metrics;
+    model.setMetrics(metrics);
+  }
+  
+  @Override
+  public EstimatorMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * This class stores the statistics of a stripe together with its lock and scratch arrays.
+   */
+  protected static class Stripe implements Serializable {
+    private static final long serialVersionUID = 6059622480219839064L;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final double[] blockSums;
+    private final double[] blockMaxs;
+    private SufficientStatistics stats;
+    private double[] pcx;
+    private double[] block;
+    private int layout;   // layout of the components of the statistics
+    private long count = 0;   // number of samples in the statistics
+    private long flushed = 0; // number of samples which are added to pending
+    
+    private Stripe(int k, int layout) {
+      blockSums = new double[SufficientStatistics.BLOCK_SIZE];
+      blockMaxs = new double[SufficientStatistics.BLOCK_SIZE];
+      resize(k, layout);
+    }
+    
+    /**
+     * It clears the stripe and reallocates its arrays for the given components.
+     */
+    private void resize(int k, int layout) {
+      stats = new SufficientStatistics(k);
+      pcx = new double[k];
+      block = new double[k * SufficientStatistics.BLOCK_SIZE];
+      this.layout = layout;
+      count = 0;
+      flushed = 0;
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package densityEstimator;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * This class implements online EM with exponentially decayed sufficient statistics (forgetting factor).
+ * The statistics are the sums of the responsibilities of all samples seen so far, where the weight
+ * of a sample halves in every halfLife samples (or halfLifeMillis milliseconds of wall time), so the
+ * model behaves like batch EM on a sliding window of about 1.44 * halfLife samples without storing
+ * any sample. The memory is O(K) and an update takes O(K) time: instead of multiplying the statistics
+ * by the forgetting factor at every sample, the weight of the new samples is increased and the
+ * statistics are rescaled only when this weight gets too large.<br/>
+ * The parameters are recomputed from the statistics after every mStepInterval samples (the first
+ * time after burnIn samples). Unlike SmoothGMM, which averages the parameters of independent batches,
+ * every M-step uses all the (decayed) information collected so far.<br/>
+ * The optional drift detector (driftThreshold greater than 0) runs a one-sided CUSUM test on the log
+ * densities of the samples, standardized by their decayed running mean and deviation. If the
+ * distribution shifts, the samples become unlikely under the current model and the test fires: the
+ * half-life is dropped to driftHalfLife and then grows back linearly to halfLife with the age of the
+ * shift, so the statistics of the old distribution are forgotten quickly and the window is extended
+ * as the new distribution is learnt. No new drift is detected during the first driftHalfLife after a
+ * detection, so a shift is counted once.<br/>
+ * Parameters: halfLife or halfLifeMillis (one of them is mandatory), mStepInterval (default 100),
+ * burnIn (default 1000), driftThreshold (default 0 i.e. no detection) and driftHalfLife (default halfLife/10,
+ * in the unit of the half-life). The model order management and the data driven initialization
+ * (see AbstractGMM) are applied as well.
+ * 
+ * @author Róbert Ormándi
+ */
+public class DecayedGMM extends AbstractGMM {
+  private static final long serialVersionUID = 2294157035391861738L;
+  private static final double MAX_GAIN = 1.0E100;
+  private static final double DRIFT_SLACK = 0.5;
+  private static final long DETECTOR_WARM_UP = 100;
+  
+  protected double halfLife = 0.0;        // half-life of the statistics in samples or milliseconds
+  protected boolean wallTime = false;     // the half-life is measured in milliseconds of wall time
+  protected int mStepInterval = 100;      // number of samples between the M-steps
+  protected long burnIn = 1000;           // number of samples before the first M-step
+  protected double driftThreshold = 0.0;  // threshold of the CUSUM statistic (0.0 means no drift detection)
+  protected double driftHalfLife = 0.0;   // half-life right after a detected drift
+  
+  protected long n = 0;                   // number of processed samples
+  protected double[] pcx;                 // numOfComps array in which the probabilities of a sample are computed
+  protected SufficientStatistics stats;   // decayed statistics multiplied by gain
+  protected double total = 0.0;           // decayed number of samples multiplied by gain
+  protected double gain = 1.0;            // weight of the next sample in the stored statistics
+  protected double decay = 1.0;           // forgetting factor of the current half-life (per sample)
+  protected double effectiveHalfLife = 0.0; // current half-life (shortened after a drift)
+  protected long lastTime = 0L;           // time of the last update in nanoseconds (wall time mode)
+  
+  // drift detection
+  protected double ll0 = 0.0;             // decayed weight of the log densities multiplied by gain
+  protected double ll1 = 0.0;             // decayed sum of the log densities multiplied by gain
+  protected double ll2 = 0.0;             // decayed sum of the squared log densities multiplied by gain
+  protected double cusum = 0.0;           // CUSUM statistic of the drop of the log density
+  protected double driftAge = Double.POSITIVE_INFINITY; // samples or milliseconds since the last drift
+  protected long drifts = 0;              // number of detected drifts
+  
+  /**
+   * This is a mandatory constructor which is used through the reflection based initalization in the simulator.
+   */
+  public DecayedGMM(int numberOfComponents) {
+    setNumberOfComponents(numberOfComponents);
+  }
+  
+  /**
+   * The statistics are initialized to the statistics of one sample of the initial parameters.
+   */
+  @Override
+  public void setNumberOfComponents(int num) {
+    super.setNumberOfComponents(num);
+    pcx = new double[num];
+    stats = new SufficientStatistics(num);
+    stats.set(w, m, v);
+    total = 1.0;
+    gain = 1.0;
+    n = 0;
+    ll0 = ll1 = ll2 = 0.0;
+    cusum = 0.0;
+    driftAge = Double.POSITIVE_INFINITY;
+  }
+  
+  @Override
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("halfLife") == p.containsKey("halfLifeMillis")) {
+      throw new RuntimeException("Exactly one of the parameters halfLife=someDouble and halfLifeMillis=someDouble is mandatory for mixture model " + getClass().getCanonicalName() + ", please specify it at the command line!");
+    }
+    wallTime = p.containsKey("halfLifeMillis");
+    halfLife = Double.parseDouble(p.get(wallTime ? "halfLifeMillis" : "halfLife"));
+    if (!(halfLife > 0.0)) {
+      throw new RuntimeException("The half-life has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+    }
+    if (p.containsKey("mStepInterval")) {
+      mStepInterval = Integer.parseInt(p.get("mStepInterval"));
+      if (mStepInterval < 1) {
+        throw new RuntimeException("Parameter mStepInterval has to be positive for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("burnIn")) {
+      burnIn = Long.parseLong(p.get("burnIn"));
+      if (burnIn < 0) {
+        throw new RuntimeException("Parameter burnIn has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("driftThreshold")) {
+      driftThreshold = Double.parseDouble(p.get("driftThreshold"));
+      if (!(driftThreshold >= 0.0)) {
+        throw new RuntimeException("Parameter driftThreshold has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    driftHalfLife = p.containsKey("driftHalfLife") ? Double.parseDouble(p.get("driftHalfLife")) : halfLife / 10.0;
+    if (!(driftHalfLife > 0.0 && driftHalfLife <= halfLife)) {
+      throw new RuntimeException("Parameter driftHalfLife has to be in (0, halfLife] for mixture model " + getClass().getCanonicalName() + "!");
+    }
+    setEffectiveHalfLife(halfLife);
+    lastTime = System.nanoTime();
+    parseOrderParameters(p);
+    parseInitParameters(p, (int) Math.min(Math.max(burnIn, 1), Integer.MAX_VALUE));
+    return p;
+  }
+  
+  /**
+   * It sets the current half-life and the forgetting factor per sample (which is 1.0 in the wall time
+   * mode, where the statistics are decayed by the elapsed time).
+   */
+  private void setEffectiveHalfLife(double h) {
+    effectiveHalfLife = h;
+    decay = wallTime ? 1.0 : Math.pow(0.5, 1.0 / h);
+  }
+  
+  @Override
+  public void update(double x) {
+    if (reservoir != null) {
+      // the sample is buffered for the initialization and processed after it
+      reserve(x);
+      return;
+    }
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    if (wallTime) {
+      advanceClock();
+    }
+    process(x);
+    if (metrics != null) {
+      metrics.recordUpdate(1, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * In the wall time mode the statistics are decayed only once per call, so the samples of a block
+   * are considered simultaneous.
+   */
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + xs.length + "!");
+    }
+    if (reservoir != null) {
+      // the first samples are buffered for the initialization and processed after it
+      final int r = reserve(xs, offset, length);
+      offset += r;
+      length -= r;
+    }
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    if (wallTime) {
+      advanceClock();
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      process(xs[j]);
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(length, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * It decays the statistics by the wall time elapsed since the last update.
+   */
+  private void advanceClock() {
+    final long now = System.nanoTime();
+    final double elapsed = 1.0E-6 * (now - lastTime);
+    lastTime = now;
+    if (elapsed > 0.0) {
+      if (driftAge < halfLife) {
+        driftAge += elapsed;
+        effectiveHalfLife = Math.min(halfLife, driftHalfLife + driftAge);
+      }
+      increaseGain(Math.pow(2.0, elapsed / effectiveHalfLife));
+    }
+  }
+  
+  /**
+   * It divides the weight of the stored statistics by the given factor i.e. it multiplies the weight
+   * of the next sample, and rescales the statistics if the weight gets too large.
+   */
+  private void increaseGain(double factor) {
+    gain *= factor;
+    if (gain > DecayedGMM.MAX_GAIN || factor == Double.POSITIVE_INFINITY) {
+      final double scale = 1.0 / gain;
+      stats.scale(scale);
+      total *= scale;
+      ll0 *= scale;
+      ll1 *= scale;
+      ll2 *= scale;
+      gain = 1.0;
+    }
+  }
+  
+  /**
+   * It performs the E-step on the sample, adds it to the decayed statistics, runs the drift detector
+   * and performs the M-step if it is due.
+   */
+  private void process(double x) {
+    // compute the P(C_i|x) values for each component in log-space
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = computeComponentLogDensity(i, x);
+      max = Math.max(max, pcx[i]);
+    }
+    max = (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+    double sumProbs = 0.0;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = Math.exp(pcx[i] - max);
+      sumProbs += pcx[i];
+    }
+    final double logDensity = (sumProbs == 0.0) ? Double.NEGATIVE_INFINITY : max + Math.log(sumProbs);
+    if (metrics != null) {
+      metrics.recordLogDensity(logDensity);
+    }
+    if (sumProbs == 0.0 || sumProbs != sumProbs) {
+      // the sample cannot be assigned to any component, so it is skipped
+      return;
+    }
+    
+    // decay the statistics and add the sample
+    n ++;
+    if (!wallTime) {
+      if (driftAge < halfLife) {
+        driftAge += 1.0;
+        setEffectiveHalfLife(Math.min(halfLife, driftHalfLife + driftAge));
+      }
+      increaseGain(1.0 / decay);
+    }
+    final double norm = gain / sumProbs;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] *= norm;
+    }
+    stats.add(x, pcx);
+    total += gain;
+    if (driftThreshold > 0.0 && n > burnIn) {
+      detectDrift(logDensity);
+    }
+    
+    // M-step
+    if (n >= burnIn && (n - burnIn) % mStepInterval == 0) {
+      final long start = (metrics == null) ? 0L : System.nanoTime();
+      stats.maximize(w, m, v, total, metrics);
+      manageComponents();
+      refreshCoefficients();
+      if (metrics != null) {
+        metrics.recordMStep(System.nanoTime() - start, w);
+      }
+    }
+  }
+  
+  /**
+   * It adds the standardized drop of the log density to the CUSUM statistic and shortens the
+   * half-life if the statistic exceeds the threshold. The test starts after DETECTOR_WARM_UP samples
+   * of reference. The log density is added to the reference after the test, so a shift does not hide itself.
+   * After a detection the reference is restarted and the test is suspended for driftHalfLife, while 
+   * the reference is collected from the new distribution, so a shift is detected once.
+   * 
+   * @param logDensity log density of the current sample under the current parameters
+   */
+  private void detectDrift(double logDensity) {
+    if (n > burnIn + DecayedGMM.DETECTOR_WARM_UP && !(driftAge < driftHalfLife) && ll0 > 0.0) {
+      final double mean = ll1 / ll0;
+      final double deviation = Math.sqrt(Math.max(ll2 / ll0 - mean * mean, SufficientStatistics.EPS));
+      cusum = Math.max(0.0, cusum + (mean - logDensity) / deviation - DecayedGMM.DRIFT_SLACK);
+      if (cusum > driftThreshold) {
+        // the reference of the test is collected again from the samples of the new distribution
+        cusum = 0.0;
+        ll0 = 0.0;
+        ll1 = 0.0;
+        ll2 = 0.0;
+        drifts ++;
+        driftAge = 0.0;
+        setEffectiveHalfLife(driftHalfLife);
+      }
+    }
+    ll0 += gain;
+    ll1 += gain * logDensity;
+    ll2 += gain * logDensity * logDensity;
+  }
+  
+  /**
+   * It returns the current half-life, which is shorter than halfLife for a while after a drift.
+   * 
+   * @return half-life in samples or milliseconds
+   */
+  public double getEffectiveHalfLife() {
+    return effectiveHalfLife;
+  }
+  
+  /**
+   * It returns the number of drifts detected so far.
+   * 
+   * @return number of drifts
+   */
+  public long getNumberOfDrifts() {
+    return drifts;
+  }
+  
+  /**
+   * It returns the decayed number of samples, which is the size of the equivalent window of samples.
+   * 
+   * @return effective number of samples
+   */
+  public double getEffectiveSampleSize() {
+    return total / gain;
+  }
+  
+  /**
+   * The statistics of the new components are their expected statistics on the current decayed
+   * number of samples, so the memory of the model is kept.
+   */
+  @Override
+  protected void componentsChanged() {
+    pcx = new double[k];
+    stats = new SufficientStatistics(k);
+    stats.set(w, m, v);
+    stats.scale(total);
+  }
+  
+  @Override
+  protected int getCheckpointSize() {
+    return super.getCheckpointSize() + ModelCheckpoint.SECTION_HEADER_SIZE + 1 + 8 + 4 + 8 + 3 * 8 + 8 + 3 * 8 * k + 7 * 8 + 8;
+  }
+  
+  @Override
+  protected void writeCheckpoint(ByteBuffer out) {
+    super.writeCheckpoint(out);
+    final int section = ModelCheckpoint.beginSection(out);
+    out.put((byte) (wallTime ? 1 : 0));
+    out.putDouble(halfLife);
+    out.putInt(mStepInterval);
+    out.putLong(burnIn);
+    out.putDouble(driftThreshold);
+    out.putDouble(driftHalfLife);
+    out.putDouble(effectiveHalfLife);
+    out.putLong(n);
+    stats.writeCheckpoint(out);
+    out.putDouble(total);
+    out.putDouble(gain);
+    out.putDouble(ll0);
+    out.putDouble(ll1);
+    out.putDouble(ll2);
+    out.putDouble(cusum);
+    out.putDouble(driftAge);
+    out.putLong(drifts);
+    ModelCheckpoint.endSection(out, section);
+  }
+  
+  /**
+   * In the wall time mode the time between the checkpoint and the restoration is not counted.
+   */
+  @Override
+  protected void readCheckpoint(ByteBuffer in) {
+    super.readCheckpoint(in);
+    final int end = ModelCheckpoint.readSection(in);
+    wallTime = in.get() != 0;
+    halfLife = in.getDouble();
+    mStepInterval = in.getInt();
+    burnIn = in.getLong();
+    driftThreshold = in.getDouble();
+    driftHalfLife = in.getDouble();
+    setEffectiveHalfLife(in.getDouble());
+    n = in.getLong();
+    stats.readCheckpoint(in);
+    total = in.getDouble();
+    gain = in.getDouble();
+    ll0 = in.getDouble();
+    ll1 = in.getDouble();
+    ll2 = in.getDouble();
+    cusum = in.getDouble();
+    driftAge = in.getDouble();
+    drifts = in.getLong();
+    ModelCheckpoint.skipSection(in, end);
+    lastTime = System.nanoTime();
+  }
+}
@@ -0,0 +1,163 @@
+package densityEstimator;
+
+/**
+ * This is a uniform grid of points on which the densities of mixtures are compared. The distances are
+ * computed by the midpoint rule, i.e. the grid points are the centers of cells of equal widths.
+ * 
+ * @author Róbert Ormándi
+ */
+public class DensityGrid {
+  protected final double lower;  // lower bound of the first cell
+  protected final double width;  // width of a cell
+  protected final double[] xs;   // centers of the cells
+  
+  /**
+   * It creates a grid of the given number of cells on the interval [lower, upper].
+   * 
+   * @param lower lower bound of the interval
+   * @param upper upper bound of the interval
+   * @param cells number of cells
+   */
+  public DensityGrid(double lower, double upper, int cells) {
+    if (!(upper > lower) || cells < 1) {
+      throw new RuntimeException("The grid needs an interval with upper > lower and a positive number of cells!");
+    }
+    this.lower = lower;
+    width = (upper - lower) / cells;
+    xs = new double[cells];
+    for (int b = 0; b < cells; b ++) {
+      xs[b] = lower + (b + 0.5) * width;
+    }
+  }
+  
+  /**
+   * It creates a grid which covers the given number of standard deviations around each component of the mixture.
+   * 
+   * @param mixture mixture to be covered
+   * @param rangeInSigmas half width of the covered range of a component in standard deviations
+   * @param cells number of cells
+   * @return grid
+   */
+  public static DensityGrid covering(GMMSnapshot mixture, double rangeInSigmas, int cells) {
+    double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < mixture.k; i ++) {
+      lower = Math.min(lower, mixture.m[i] - rangeInSigmas * mixture.v[i]);
+      upper = Math.max(upper, mixture.m[i] + rangeInSigmas * mixture.v[i]);
+    }
+    return new DensityGrid(lower, (upper > lower) ? upper : lower + 1.0, cells);
+  }
+  
+  /**
+   * It evaluates the density of the mixture at the grid points.
+   * 
+   * @param mixture mixture
+   * @return densities
+   */
+  public double[] evaluate(GMMSnapshot mixture) {
+    final double[] ret = new double[xs.length];
+    for (int b = 0; b < xs.length; b ++) {
+      ret[b] = mixture.computeDensityValue(xs[b]);
+    }
+    return ret;
+  }
+  
+  /**
+   * It evaluates the density of the model at the grid points. The model's own density is used, so it
+   * works for every component family, not only the Gaussian one.
+   * 
+   * @param model mixture model
+   * @return densities
+   */
+  public double[] evaluate(MixtureModel model) {
+    final double[] ret = new double[xs.length];
+    model.computeDensityValues(xs, ret);
+    return ret;
+  }
+  
+  /**
+   * It computes the L1 distance of two densities which were evaluated at the grid points.
+   * 
+   * @param p densities of the first mixture
+   * @param q densities of the second mixture
+   * @return approximation of the integral of |p - q| on the grid
+   */
+  public double computeL1Distance(double[] p, double[] q) {
+    double sum = 0.0;
+    for (int b = 0; b < xs.length; b ++) {
+      sum += Math.abs(p[b] - q[b]);
+    }
+    return sum * width;
+  }
+  
+  /**
+   * It computes the L1 distance of two mixtures (it is between 0 and 2 if both of them are inside of the grid).
+   * 
+   * @param p first mixture
+   * @param q second mixture
+   * @return approximation of the integral of |p - q| on the grid
+   */
+  public double computeL1Distance(GMMSnapshot p, GMMSnapshot q) {
+    return computeL1Distance(evaluate(p), evaluate(q));
+  }
+  
+  /**
+   * It computes the L1 distance of a mixture and the density of a model.
+   * 
+   * @param p mixture
+   * @param q mixture model
+   * @return approximation of the integral of |p - q| on the grid
+   */
+  public double computeL1Distance(GMMSnapshot p, MixtureModel q) {
+    return computeL1Distance(evaluate(p), evaluate(q));
+  }
+  
+  /**
+   * It computes the Kullback-Leibler divergence KL(p||q) of two mixtures. The log densities are used,
+   * so a component of q which is far from the grid points does not cause an underflow.
+   * 
+   * @param p reference (true) mixture
+   * @param q approximating (estimated) mixture
+   * @return approximation of the integral of p * log(p / q) on the grid (positive infinity if q is zero where p is not)
+   */
+  public double computeKLDivergence(GMMSnapshot p, GMMSnapshot q) {
+    double sum = 0.0;
+    for (int b = 0; b < xs.length; b ++) {
+      final double lp = p.computeLogDensityValue(xs[b]);
+      if (lp == Double.NEGATIVE_INFINITY) {
+        continue;
+      }
+      sum += Math.exp(lp) * (lp - q.computeLogDensityValue(xs[b]));
+    }
+    return sum * width;
+  }
+  
+  /**
+   * It computes the Kullback-Leibler divergence KL(p||q) of a mixture and the density of a model.
+   * 
+   * @param p reference (true) mixture
+   * @param q approximating (estimated) mixture model
+   * @return approximation of the integral of p * log(p / q) on the grid (positive infinity if q is zero where p is not)
+   */
+  public double computeKLDivergence(GMMSnapshot p, MixtureModel q) {
+    final double[] lq = new double[xs.length];
+    q.computeLogDensityValues(xs, lq);
+    double sum = 0.0;
+    for (int b = 0; b < xs.length; b ++) {
+      final double lp = p.computeLogDensityValue(xs[b]);
+      if (lp == Double.NEGATIVE_INFINITY) {
+        continue;
+      }
+      sum += Math.exp(lp) * (lp - lq[b]);
+    }
+    return sum * width;
+  }
+  
+  /**
+   * It returns the number of cells.
+   * 
+   * @return number of cells
+   */
+  public int getNumberOfCells() {
+    return xs.length;
+  }
+}
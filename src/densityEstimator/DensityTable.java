@@ -0,0 +1,112 @@
+package densityEstimator;
+
+import java.io.Serializable;
+
+/**
+ * This is a piecewise linear interpolation table of the density function of a Gaussian mixture.
+ * The table covers the effective support of the mixture (outside of it the density is smaller than
+ * the error bound) using a uniform grid whose step is chosen so that the interpolation error is
+ * at most the given bound.<br/>
+ * The error of the linear interpolation with step <i>h</i> is at most h^2/8 * max|f''|, and
+ * the second derivative of a weighted Gaussian component is bounded by w/(sqrt(2*pi)*v^3), so
+ * h = sqrt(8 * maxError / sum_i(w_i/(sqrt(2*pi)*v_i^3))) satisfies the bound.
+ * 
+ * @author Róbert Ormándi
+ */
+public class DensityTable implements Serializable {
+  private static final long serialVersionUID = -5321907711428412046L;
+  
+  /**
+   * Maximal number of grid points. If the error bound would need more points, the table cannot be built.
+   */
+  public static final int MAX_SIZE = 1 << 22;
+  
+  /**
+   * This table contains no grid points, so each lookup returns NaN.
+   */
+  public static final DensityTable EMPTY = new DensityTable(0.0, 1.0, new double[0]);
+  
+  protected final double lower;   // first grid point
+  protected final double invStep; // 1 / grid step
+  protected final double[] table; // density values at the grid points
+  
+  private DensityTable(double lower, double invStep, double[] table) {
+    this.lower = lower;
+    this.invStep = invStep;
+    this.table = table;
+  }
+  
+  /**
+   * It builds the table of the mixture which is given by its parameters and cached coefficients.
+   * 
+   * @param k number of components
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   * @param lw log weights of the components
+   * @param ln log normalisers of the components
+   * @param iv inverse variances of the components
+   * @param maxError bound of the absolute error of the interpolation
+   * @return the table or null if the table would be larger than MAX_SIZE
+   */
+  public static DensityTable build(int k, double[] w, double[] m, double[] v, double[] lw, double[] ln, double[] iv, double maxError) {
+    double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+    double maxSecondDerivative = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        // outside of m +/- r*v the weighted density of the component is below maxError/k
+        final double r2 = 2.0 * (lw[i] + ln[i] - Math.log(maxError / k));
+        final double r = (r2 > 0.0) ? Math.sqrt(r2) : 0.0;
+        lower = Math.min(lower, m[i] - r * v[i]);
+        upper = Math.max(upper, m[i] + r * v[i]);
+        maxSecondDerivative += w[i] * AbstractGMM.ONE_PER_SQRT2PI / (v[i] * v[i] * v[i]);
+      }
+    }
+    if (!(lower < upper) || !(maxSecondDerivative > 0.0)) {
+      return null;
+    }
+    final double step = Math.sqrt(8.0 * maxError / maxSecondDerivative);
+    final double size = Math.ceil((upper - lower) / step) + 1.0;
+    if (!(size <= DensityTable.MAX_SIZE)) {
+      return null;
+    }
+    
+    // evaluate the density at the grid points
+    final double[] table = new double[(int) size];
+    for (int j = 0; j < table.length; j ++) {
+      final double x = lower + j * step;
+      double density = 0.0;
+      for (int i = 0; i < k; i ++) {
+        final double d = x - m[i];
+        density += Math.exp(lw[i] + ln[i] - 0.5 * d * d * iv[i]);
+      }
+      table[j] = density;
+    }
+    return new DensityTable(lower, 1.0 / step, table);
+  }
+  
+  /**
+   * It returns the interpolated density at x or NaN if x is outside of the table.
+   * 
+   * @param x point in which the density is evaluated
+   * @return interpolated density or NaN
+   */
+  public double lookup(double x) {
+    final double pos = (x - lower) * invStep;
+    if (pos >= 0.0 && pos < table.length - 1) {
+      final int j = (int) pos;
+      final double frac = pos - j;
+      return table[j] + frac * (table[j + 1] - table[j]);
+    }
+    return Double.NaN;
+  }
+  
+  /**
+   * It returns the number of grid points.
+   * 
+   * @return size of the table
+   */
+  public int size() {
+    return table.length;
+  }
+}
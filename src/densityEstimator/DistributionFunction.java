@@ -0,0 +1,35 @@
+package densityEstimator;
+
+/**
+ * This is a general representation of a 1-dimensional distribution whose quantiles are computed by
+ * a QuantileTable.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface DistributionFunction {
+  /**
+   * It computes the cumulative distribution function at x i.e. P(X &lt;= x).
+   * 
+   * @param x point
+   * @return value of the cdf
+   */
+  public double cdf(double x);
+  
+  /**
+   * It computes the tail probability at x i.e. P(X &gt; x). It has to be computed directly (not as
+   * 1 - cdf(x)), so it keeps its relative precision in the upper tail.
+   * 
+   * @param x point
+   * @return tail probability
+   */
+  public double tail(double x);
+  
+  /**
+   * It computes the derivative of the cdf at x, which is used by the Newton steps. A discrete
+   * distribution has to return 0, so the quantiles are found by bisection.
+   * 
+   * @param x point
+   * @return value of the pdf (0 for discrete distributions)
+   */
+  public double density(double x);
+}
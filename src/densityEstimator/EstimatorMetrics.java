@@ -0,0 +1,276 @@
+package densityEstimator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the runtime metrics of an online estimator: latency histograms of the updates
+ * and the M-steps, throughput counters, the average log-likelihood of the observed samples and the
+ * events which indicate a degenerating model (samples with zero density, statistics clamped by the
+ * EPS guards of the M-step and dying or collapsing components).<br/>
+ * The instrumentation is opt-in: a model records metrics only if an instance is attached to it by
+ * setMetrics, otherwise each hook costs a single null check. The metrics are thread-safe, so more
+ * models (or the threads of a ConcurrentGMM) can share an instance. They can be pulled as an
+ * immutable MetricsSnapshot or exposed through JMX by register.
+ * 
+ * @author Róbert Ormándi
+ */
+public class EstimatorMetrics implements EstimatorMetricsMBean {
+  public static final String JMX_DOMAIN = "densityEstimator";
+  private static final int LOG_BATCH = 8;
+  
+  protected final LatencyHistogram updateLatency = new LatencyHistogram();
+  protected final LatencyHistogram mStepLatency = new LatencyHistogram();
+  protected final LongAdder samples = new LongAdder();
+  protected final LongAdder zeroDensityEvents = new LongAdder();
+  protected final LongAdder epsClampEvents = new LongAdder();
+  protected final LongAdder collapseEvents = new LongAdder();
+  protected final DoubleAdder logLikelihoodSum = new DoubleAdder(); // sum of the log densities of the samples with non-zero density
+  protected final LongAdder logLikelihoodCount = new LongAdder();   // number of the samples with non-zero density
+  protected volatile double lastBatchLogLikelihood = Double.NaN;
+  protected volatile int deadComponents = 0;
+  protected volatile long startNanos = System.nanoTime();
+  private double logLikelihoodSumAtMStep = 0.0; // totals at the last M-step (guarded by this)
+  private long logLikelihoodCountAtMStep = 0;
+  private ObjectName objectName = null;
+  
+  /**
+   * It records an update call.
+   * 
+   * @param n number of samples processed by the call
+   * @param nanos latency of the call
+   */
+  void recordUpdate(int n, long nanos) {
+    samples.add(n);
+    updateLatency.record(nanos);
+  }
+  
+  /**
+   * It records the log density of a sample. Negative infinity means that the density of every component
+   * was zero at the sample (or the sample is not finite).
+   * 
+   * @param logDensity log density of the sample
+   */
+  void recordLogDensity(double logDensity) {
+    if (logDensity == Double.NEGATIVE_INFINITY || logDensity != logDensity) {
+      zeroDensityEvents.increment();
+    } else {
+      logLikelihoodSum.add(logDensity);
+      logLikelihoodCount.increment();
+    }
+  }
+  
+  /**
+   * It records the log densities of a block which was processed by SufficientStatistics.addBlock.
+   * 
+   * @param maxs maximal log densities of the samples (the scratch array of addBlock)
+   * @param invSums reciprocal normalization factors of the samples (0 for zero density)
+   * @param n number of samples in the block
+   */
+  void recordBlock(double[] maxs, double[] invSums, int n) {
+    // the reciprocal sums are in [1/k, 1], so the products of LOG_BATCH of them do not underflow 
+    // and one logarithm is enough for each product
+    double sum = 0.0, product = 1.0;
+    int count = 0;
+    for (int j = 0; j < n; j ++) {
+      if (invSums[j] > 0.0) {
+        sum += maxs[j];
+        product *= invSums[j];
+        count ++;
+        if ((count & (EstimatorMetrics.LOG_BATCH - 1)) == 0) {
+          sum -= Math.log(product);
+          product = 1.0;
+        }
+      }
+    }
+    sum -= Math.log(product);
+    if (count < n) {
+      zeroDensityEvents.add(n - count);
+    }
+    logLikelihoodSum.add(sum);
+    logLikelihoodCount.add(count);
+  }
+  
+  /**
+   * It records the guards which fired during an M-step.
+   * 
+   * @param epsClamps number of statistics or variances clamped to EPS
+   * @param collapses number of components which died or collapsed
+   */
+  void recordClamps(int epsClamps, int collapses) {
+    epsClampEvents.add(epsClamps);
+    collapseEvents.add(collapses);
+  }
+  
+  /**
+   * It records an M-step.
+   * 
+   * @param nanos latency of the M-step
+   * @param w component weights after the M-step
+   */
+  synchronized void recordMStep(long nanos, double[] w) {
+    mStepLatency.record(nanos);
+    int dead = 0;
+    for (int i = 0; i < w.length; i ++) {
+      dead += (w[i] == 0.0) ? 1 : 0;
+    }
+    deadComponents = dead;
+    final double sum = logLikelihoodSum.sum();
+    final long count = logLikelihoodCount.sum();
+    if (count > logLikelihoodCountAtMStep) {
+      lastBatchLogLikelihood = (sum - logLikelihoodSumAtMStep) / (count - logLikelihoodCountAtMStep);
+    }
+    logLikelihoodSumAtMStep = sum;
+    logLikelihoodCountAtMStep = count;
+  }
+  
+  /**
+   * It registers the metrics into the platform MBean server with the name
+   * densityEstimator:type=EstimatorMetrics,name=<i>name</i>.
+   * 
+   * @param name name of the monitored model
+   */
+  public synchronized void register(String name) {
+    try {
+      final ObjectName objectName = new ObjectName(EstimatorMetrics.JMX_DOMAIN + ":type=EstimatorMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      this.objectName = objectName;
+    } catch (JMException e) {
+      throw new RuntimeException("The metrics cannot be registered with name " + name + "!", e);
+    }
+  }
+  
+  /**
+   * It removes the metrics from the platform MBean server if it was registered.
+   */
+  public synchronized void unregister() {
+    if (objectName != null) {
+      try {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+          server.unregisterMBean(objectName);
+        }
+      } catch (JMException e) {
+        throw new RuntimeException("The metrics " + objectName + " cannot be unregistered!", e);
+      }
+      objectName = null;
+    }
+  }
+  
+  /**
+   * It returns the current values of the metrics.
+   * 
+   * @return immutable snapshot of the metrics
+   */
+  public MetricsSnapshot getSnapshot() {
+    return new MetricsSnapshot(this);
+  }
+  
+  @Override
+  public long getSamples() {
+    return samples.sum();
+  }
+  
+  @Override
+  public long getUpdates() {
+    return updateLatency.getCount();
+  }
+  
+  @Override
+  public long getMSteps() {
+    return mStepLatency.getCount();
+  }
+  
+  @Override
+  public double getSamplesPerSecond() {
+    final long elapsed = System.nanoTime() - startNanos;
+    return (elapsed <= 0) ? 0.0 : samples.sum() * 1.0E9 / elapsed;
+  }
+  
+  @Override
+  public double getUpdateLatencyMean() {
+    return updateLatency.getMean();
+  }
+  
+  @Override
+  public long getUpdateLatencyP50() {
+    return updateLatency.getPercentile(0.5);
+  }
+  
+  @Override
+  public long getUpdateLatencyP99() {
+    return updateLatency.getPercentile(0.99);
+  }
+  
+  @Override
+  public long getUpdateLatencyMax() {
+    return updateLatency.getMax();
+  }
+  
+  @Override
+  public double getMStepLatencyMean() {
+    return mStepLatency.getMean();
+  }
+  
+  @Override
+  public long getMStepLatencyP99() {
+    return mStepLatency.getPercentile(0.99);
+  }
+  
+  @Override
+  public long getMStepLatencyMax() {
+    return mStepLatency.getMax();
+  }
+  
+  @Override
+  public double getAverageLogLikelihood() {
+    final long count = logLikelihoodCount.sum();
+    return (count == 0) ? Double.NaN : logLikelihoodSum.sum() / count;
+  }
+  
+  @Override
+  public double getLastBatchLogLikelihood() {
+    return lastBatchLogLikelihood;
+  }
+  
+  @Override
+  public long getZeroDensityEvents() {
+    return zeroDensityEvents.sum();
+  }
+  
+  @Override
+  public long getEpsClampEvents() {
+    return epsClampEvents.sum();
+  }
+  
+  @Override
+  public long getCollapseEvents() {
+    return collapseEvents.sum();
+  }
+  
+  @Override
+  public int getDeadComponents() {
+    return deadComponents;
+  }
+  
+  @Override
+  public synchronized void reset() {
+    updateLatency.reset();
+    mStepLatency.reset();
+    samples.reset();
+    zeroDensityEvents.reset();
+    epsClampEvents.reset();
+    collapseEvents.reset();
+    logLikelihoodSum.reset();
+    logLikelihoodCount.reset();
+    logLikelihoodSumAtMStep = 0.0;
+    logLikelihoodCountAtMStep = 0;
+    lastBatchLogLikelihood = Double.NaN;
+    startNanos = System.nanoTime();
+  }
+}
@@ -0,0 +1,98 @@
+package densityEstimator;
+
+/**
+ * This is the JMX management interface of EstimatorMetrics. The latencies are given in nanoseconds.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface EstimatorMetricsMBean {
+  /**
+   * @return number of processed samples
+   */
+  public long getSamples();
+  
+  /**
+   * @return number of update calls (a bulk update is one call)
+   */
+  public long getUpdates();
+  
+  /**
+   * @return number of performed M-steps
+   */
+  public long getMSteps();
+  
+  /**
+   * @return average number of processed samples per second since the creation or the last reset
+   */
+  public double getSamplesPerSecond();
+  
+  /**
+   * @return mean latency of the update calls
+   */
+  public double getUpdateLatencyMean();
+  
+  /**
+   * @return median latency of the update calls
+   */
+  public long getUpdateLatencyP50();
+  
+  /**
+   * @return 99th percentile of the latency of the update calls
+   */
+  public long getUpdateLatencyP99();
+  
+  /**
+   * @return largest latency of the update calls
+   */
+  public long getUpdateLatencyMax();
+  
+  /**
+   * @return mean latency of the M-steps
+   */
+  public double getMStepLatencyMean();
+  
+  /**
+   * @return 99th percentile of the latency of the M-steps
+   */
+  public long getMStepLatencyP99();
+  
+  /**
+   * @return largest latency of the M-steps
+   */
+  public long getMStepLatencyMax();
+  
+  /**
+   * @return average log-likelihood of the samples with non-zero density since the creation or the last reset
+   */
+  public double getAverageLogLikelihood();
+  
+  /**
+   * @return average log-likelihood of the samples with non-zero density of the last batch
+   */
+  public double getLastBatchLogLikelihood();
+  
+  /**
+   * @return number of samples in which the density of every component was zero
+   */
+  public long getZeroDensityEvents();
+  
+  /**
+   * @return number of sufficient statistics or variances which were clamped to EPS by an M-step
+   */
+  public long getEpsClampEvents();
+  
+  /**
+   * @return number of components which died (weight clamped to 0) or collapsed (variance clamped to EPS)
+   */
+  public long getCollapseEvents();
+  
+  /**
+   * @return number of components with zero weight after the last M-step
+   */
+  public int getDeadComponents();
+  
+  /**
+   * It clears every metric.
+   */
+  public void reset();
+}
@@ -0,0 +1,111 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Exponential components. Parameter: rate. Coefficients: log rate and rate. Statistics: sums of 1 
+ * and x. The support is x &gt;= 0.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class ExponentialFamily extends ComponentFamily {
+  private static final long serialVersionUID = 4029176625097913365L;
+  
+  @Override
+  public String getName() {
+    return "exponential";
+  }
+  
+  @Override
+  public int getNumberOfParameters() {
+    return 1;
+  }
+  
+  @Override
+  public int getNumberOfCoefficients() {
+    return 2;
+  }
+  
+  @Override
+  public int getNumberOfStatistics() {
+    return 2;
+  }
+  
+  @Override
+  public boolean isInSupport(double x) {
+    return x >= 0.0 && x < Double.POSITIVE_INFINITY;
+  }
+  
+  @Override
+  public void computeCoefficients(double[] params, int p, double[] coefs, int c) {
+    coefs[c] = Math.log(params[p]);
+    coefs[c + 1] = params[p];
+  }
+  
+  @Override
+  public double computeLogDensity(double[] coefs, int c, double x) {
+    return (x >= 0.0) ? coefs[c] - coefs[c + 1] * x : Double.NEGATIVE_INFINITY;
+  }
+  
+  @Override
+  public void accumulate(double[] stats, int s, double g, double x) {
+    stats[s] += g;
+    stats[s + 1] += g * x;
+  }
+  
+  @Override
+  public void maximize(double[] stats, int s, double[] params, int p) {
+    final double mean = stats[s + 1] / stats[s];
+    params[p] = 1.0 / Math.max(mean, SufficientStatistics.EPS); // numeric issue
+  }
+  
+  @Override
+  public int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats) {
+    int zeros = 0;
+    for (int j = offset; j < offset + n; j ++) {
+      final double x = xs[j];
+      if (!(x >= 0.0)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        p[i] = lw[i] + coefs[2 * i] - coefs[2 * i + 1] * x;
+      }
+      if (!ComponentFamily.normalize(p, k)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        final double g = p[i];
+        stats[2 * i] += g;
+        stats[2 * i + 1] += g * x;
+      }
+    }
+    return zeros;
+  }
+  
+  @Override
+  public double getMean(double[] params, int p) {
+    return 1.0 / params[p];
+  }
+  
+  @Override
+  public double getStandardDeviation(double[] params, int p) {
+    return 1.0 / params[p];
+  }
+  
+  @Override
+  public double computeCdf(double[] params, int p, double x) {
+    return (x > 0.0) ? - Math.expm1(- params[p] * x) : ((x == x) ? 0.0 : x);
+  }
+  
+  @Override
+  public double computeTailProbability(double[] params, int p, double x) {
+    return (x > 0.0) ? Math.exp(- params[p] * x) : ((x == x) ? 1.0 : x);
+  }
+  
+  @Override
+  public double sample(double[] params, int p, RandomGenerator rng) {
+    return rng.nextExponential() / params[p];
+  }
+}
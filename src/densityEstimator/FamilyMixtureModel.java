@@ -0,0 +1,446 @@
+package densityEstimator;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * This is a batch based online EM estimator of mixtures whose components belong to a pluggable
+ * ComponentFamily, e.g. log-normal components for heavy-tailed latencies or Poisson components for
+ * counts. The E-step of the samples is performed by the addBlock kernel of the family, which adds 
+ * the responsibilities to the sufficient statistics of the current batch, and the parameters are 
+ * re-estimated from the statistics after every batchSize samples like in BatchBasedOnlineGMM. The
+ * samples outside of the support of the family (or of zero density) are skipped, they are not counted
+ * in the batches, so the weights of the components sum to 1.<br/>
+ * Since the families have different scales and supports, the components are initialized from the
+ * first batch: its samples are sorted and split into k slices of equal sizes, the i-th component 
+ * is estimated from the i-th slice. The model is a uniform mixture of the default components of the
+ * family until then.<br/>
+ * Parameters: batchSize (mandatory) and family=gaussian|lognormal|exponential|gamma|poisson or the
+ * name of a ComponentFamily class (default gaussian). The methods getComponentMeans and 
+ * getComponentVariances return the means and the standard deviations of the components (computed 
+ * from the parameters of the family), and getComponentParameters returns the parameters themselves.
+ * 
+ * @author Róbert Ormándi
+ */
+public class FamilyMixtureModel implements MixtureModel {
+  private static final long serialVersionUID = -4496061273908374217L;
+  
+  protected ComponentFamily family = new GaussianFamily();
+  protected int k = 0;
+  protected int batchSize;
+  
+  protected double[] w = null;       // component (w)eights
+  protected double[] lw = null;      // (l)og (w)eights
+  protected double[] params = null;  // parameters of the components (k * number of parameters)
+  protected double[] coefs = null;   // cached coefficients of the components (k * number of coefficients)
+  protected double[] stats = null;   // statistics of the current batch (k * number of statistics)
+  protected double[] p = null;       // scratch array of the E-step
+  protected int c = 0;               // number of samples in the current batch
+  protected boolean initialized = false; // the components were initialized from the first batch
+  protected double[] firstBatch = null; // samples of the first batch (null after the initialization)
+  private final double[] single = new double[1]; // scratch array of update(double)
+  
+  protected transient AliasSampler aliasSampler = null; // alias table of the current weights, it is built lazily
+  protected transient QuantileTable quantileTable = null; // inverse cdf table of the current parameters, it is built lazily
+  protected transient EstimatorMetrics metrics = null;  // runtime metrics (null means that the instrumentation is off)
+  
+  /**
+   * This is a mandatory constructor which is used through the reflection based initalization in the simulator.
+   */
+  public FamilyMixtureModel(int numberOfComponents) {
+    init(numberOfComponents);
+  }
+  
+  /**
+   * It allocates the arrays of the given number of components of the current family, sets the 
+   * components to the default ones and restarts the initialization.
+   */
+  private void init(int k) {
+    this.k = k;
+    w = new double[k];
+    Arrays.fill(w, 1.0/((double)k));
+    lw = new double[k];
+    params = new double[k * family.getNumberOfParameters()];
+    for (int i = 0; i < k; i ++) {
+      // default components: the family estimated from the samples 0.5, 1.0 and 2.0
+      final double[] s = new double[family.getNumberOfStatistics()];
+      family.accumulate(s, 0, 1.0, 0.5);
+      family.accumulate(s, 0, 1.0, 1.0);
+      family.accumulate(s, 0, 1.0, 2.0);
+      family.maximize(s, 0, params, i * family.getNumberOfParameters());
+    }
+    coefs = new double[k * family.getNumberOfCoefficients()];
+    stats = new double[k * family.getNumberOfStatistics()];
+    p = new double[k];
+    c = 0;
+    initialized = false;
+    firstBatch = null;
+    refreshCoefficients();
+  }
+  
+  /**
+   * This method recomputes the cached coefficients from the current parameters.
+   */
+  protected void refreshCoefficients() {
+    for (int i = 0; i < k; i ++) {
+      lw[i] = Math.log(w[i]); // negative infinity for dead components
+      family.computeCoefficients(params, i * family.getNumberOfParameters(), coefs, i * family.getNumberOfCoefficients());
+    }
+    aliasSampler = null;
+    quantileTable = null;
+  }
+  
+  @Override
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("batchSize")) {
+      batchSize = Integer.parseInt(p.get("batchSize"));
+      if (batchSize < k) {
+        throw new RuntimeException("Parameter batchSize has to be at least the number of components for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    } else {
+      throw new RuntimeException("Parameter batchSize=someInteger is mandatory for mixture model " + getClass().getCanonicalName() + ", please specify it at the command line!");
+    }
+    if (p.containsKey("family")) {
+      family = FamilyMixtureModel.createFamily(p.get("family"));
+      init(k);
+    }
+    return p;
+  }
+  
+  /**
+   * It creates the family of the given name or class name.
+   * 
+   * @param name gaussian, lognormal, exponential, gamma, poisson or the name of a ComponentFamily class
+   * @return family
+   */
+  public static ComponentFamily createFamily(String name) {
+    if (name.equals("gaussian")) {
+      return new GaussianFamily();
+    } else if (name.equals("lognormal")) {
+      return new LogNormalFamily();
+    } else if (name.equals("exponential")) {
+      return new ExponentialFamily();
+    } else if (name.equals("gamma")) {
+      return new GammaFamily();
+    } else if (name.equals("poisson")) {
+      return new PoissonFamily();
+    }
+    try {
+      return (ComponentFamily) Class.forName(name).getConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new RuntimeException("Unknown component family " + name + ", it has to be gaussian, lognormal, exponential, gamma, poisson or a ComponentFamily class!", e);
+    }
+  }
+  
+  @Override
+  public void update(double x) {
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    if (!initialized) {
+      addToFirstBatch(x);
+    } else {
+      single[0] = x;
+      // the skipped samples (outside of the support or of zero density) are not counted in the batch
+      if (family.addBlock(single, 0, 1, k, lw, coefs, p, stats) == 0 && ++ c == batchSize) {
+        performMStep();
+      }
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(1, System.nanoTime() - start);
+    }
+  }
+  
+  @Override
+  public void update(double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + xs.length + "!");
+    }
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    final int end = offset + length;
+    while (offset < end && !initialized) {
+      addToFirstBatch(xs[offset ++]);
+    }
+    while (offset < end) {
+      final int n = Math.min(end - offset, batchSize - c);
+      final int skipped = family.addBlock(xs, offset, n, k, lw, coefs, p, stats);
+      offset += n;
+      c += n - skipped;
+      if (c == batchSize) {
+        performMStep();
+      }
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(length, System.nanoTime() - start);
+    }
+  }
+  
+  @Override
+  public void update(DoubleBuffer xs) {
+    if (xs.hasArray()) {
+      update(xs.array(), xs.arrayOffset() + xs.position(), xs.remaining());
+      xs.position(xs.limit());
+    } else {
+      double[] chunk = new double[Math.min(xs.remaining(), 4096)];
+      while (xs.hasRemaining()) {
+        int n = Math.min(xs.remaining(), chunk.length);
+        xs.get(chunk, 0, n);
+        update(chunk, 0, n);
+      }
+    }
+  }
+  
+  /**
+   * It stores the sample of the first batch and initializes the components if the batch is complete.
+   */
+  private void addToFirstBatch(double x) {
+    if (firstBatch == null) {
+      firstBatch = new double[batchSize];
+    }
+    if (family.isInSupport(x)) {
+      firstBatch[c ++] = x;
+    }
+    if (c == batchSize) {
+      initializeComponents();
+    }
+  }
+  
+  /**
+   * It estimates the i-th component from the i-th slice of the sorted first batch.
+   */
+  private void initializeComponents() {
+    Arrays.sort(firstBatch, 0, c);
+    final int numOfStats = family.getNumberOfStatistics();
+    for (int j = 0; j < c; j ++) {
+      family.accumulate(stats, (int) ((long) j * k / c) * numOfStats, 1.0, firstBatch[j]);
+    }
+    firstBatch = null;
+    initialized = true;
+    performMStep();
+  }
+  
+  /**
+   * It re-estimates the parameters from the statistics of the batch and starts a new batch. The 
+   * components which got no responsibility die (their weight is set to zero).
+   */
+  protected void performMStep() {
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    final int numOfStats = family.getNumberOfStatistics();
+    final int numOfParams = family.getNumberOfParameters();
+    for (int i = 0; i < k; i ++) {
+      final double s0 = stats[i * numOfStats];
+      w[i] = s0 / c;
+      if (w[i] < SufficientStatistics.EPS || s0 < SufficientStatistics.EPS) {
+        w[i] = 0.0; // numeric issue, the other parameters are kept
+      } else {
+        family.maximize(stats, i * numOfStats, params, i * numOfParams);
+      }
+    }
+    Arrays.fill(stats, 0.0);
+    c = 0;
+    refreshCoefficients();
+    if (metrics != null) {
+      metrics.recordMStep(System.nanoTime() - start, w);
+    }
+  }
+  
+  @Override
+  public double computeDensityValue(double x) {
+    return Math.exp(computeLogDensityValue(x));
+  }
+  
+  @Override
+  public double computeLogDensityValue(double x) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      max = Math.max(max, lw[i] + family.computeLogDensity(coefs, i * family.getNumberOfCoefficients(), x));
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      sum += Math.exp(lw[i] + family.computeLogDensity(coefs, i * family.getNumberOfCoefficients(), x) - max);
+    }
+    return max + Math.log(sum);
+  }
+  
+  @Override
+  public double computeCdf(double x) {
+    double sum = 0.0, weights = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        sum += w[i] * family.computeCdf(params, i * family.getNumberOfParameters(), x);
+        weights += w[i];
+      }
+    }
+    return sum / weights;
+  }
+  
+  @Override
+  public double computeTailProbability(double x) {
+    double sum = 0.0, weights = 0.0;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        sum += w[i] * family.computeTailProbability(params, i * family.getNumberOfParameters(), x);
+        weights += w[i];
+      }
+    }
+    return sum / weights;
+  }
+  
+  /**
+   * The quantiles of a discrete family are values of its support.
+   */
+  @Override
+  public double computeQuantile(double p) {
+    if (quantileTable == null) {
+      quantileTable = buildQuantileTable();
+    }
+    final double x = quantileTable.quantile(p);
+    return (family.isDiscrete() && Double.isFinite(x)) ? Math.floor(x) : x;
+  }
+  
+  /**
+   * It builds the quantile table of the current parameters. The search starts at the mean of the mixture.
+   */
+  private QuantileTable buildQuantileTable() {
+    double weights = 0.0, first = 0.0, second = 0.0, minDeviation = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      if (w[i] > 0.0) {
+        final double mean = family.getMean(params, i * family.getNumberOfParameters());
+        final double deviation = family.getStandardDeviation(params, i * family.getNumberOfParameters());
+        weights += w[i];
+        first += w[i] * mean;
+        second += w[i] * (deviation * deviation + mean * mean);
+        minDeviation = Math.min(minDeviation, deviation);
+      }
+    }
+    if (!(weights > 0.0)) {
+      throw new RuntimeException("The quantiles are undefined since every component is dead!");
+    }
+    final double mean = first / weights;
+    final double scale = Math.max(Math.sqrt(Math.max(second / weights - mean * mean, 0.0)), minDeviation);
+    return new QuantileTable(new DistributionFunction() {
+      @Override
+      public double cdf(double x) {
+        return computeCdf(x);
+      }
+      
+      @Override
+      public double tail(double x) {
+        return computeTailProbability(x);
+      }
+      
+      @Override
+      public double density(double x) {
+        return family.isDiscrete() ? 0.0 : computeDensityValue(x);
+      }
+    }, mean, scale);
+  }
+  
+  @Override
+  public void computeDensityValues(double[] xs, double[] out) {
+    for (int j = 0; j < xs.length; j ++) {
+      out[j] = computeDensityValue(xs[j]);
+    }
+  }
+  
+  @Override
+  public void computeLogDensityValues(double[] xs, double[] out) {
+    for (int j = 0; j < xs.length; j ++) {
+      out[j] = computeLogDensityValue(xs[j]);
+    }
+  }
+  
+  @Override
+  public double sample(RandomGenerator rng) {
+    if (aliasSampler == null) {
+      aliasSampler = new AliasSampler(k, w);
+    }
+    return family.sample(params, aliasSampler.next(rng) * family.getNumberOfParameters(), rng);
+  }
+  
+  @Override
+  public void sample(double[] out, RandomGenerator rng) {
+    sample(out, 0, out.length, rng);
+  }
+  
+  @Override
+  public void sample(double[] out, int offset, int length, RandomGenerator rng) {
+    if (offset < 0 || length < 0 || offset + length > out.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + out.length + "!");
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      out[j] = sample(rng);
+    }
+  }
+  
+  /**
+   * It returns the family of the components.
+   * 
+   * @return family
+   */
+  public ComponentFamily getFamily() {
+    return family;
+  }
+  
+  /**
+   * It returns the parameters of the components in the flat layout of the family.
+   * 
+   * @return parameters
+   */
+  public double[] getComponentParameters() {
+    return params;
+  }
+  
+  @Override
+  public double[] getComponentWeights() {
+    return w;
+  }
+  
+  /**
+   * It returns the means of the components (a new array).
+   */
+  @Override
+  public double[] getComponentMeans() {
+    final double[] ret = new double[k];
+    for (int i = 0; i < k; i ++) {
+      ret[i] = family.getMean(params, i * family.getNumberOfParameters());
+    }
+    return ret;
+  }
+  
+  /**
+   * It returns the standard deviations of the components (a new array).
+   */
+  @Override
+  public double[] getComponentVariances() {
+    final double[] ret = new double[k];
+    for (int i = 0; i < k; i ++) {
+      ret[i] = family.getStandardDeviation(params, i * family.getNumberOfParameters());
+    }
+    return ret;
+  }
+  
+  @Override
+  public int getNumberOfComponents() {
+    return k;
+  }
+  
+  @Override
+  public void setNumberOfComponents(int num) {
+    init(num);
+  }
+  
+  @Override
+  public void setMetrics(EstimatorMetrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  @Override
+  public EstimatorMetrics getMetrics() {
+    return metrics;
+  }
+}
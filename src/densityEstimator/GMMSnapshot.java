@@ -0,0 +1,227 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.random.RandomGenerator;
+
+/**
+ * This is an immutable set of parameters of a Gaussian mixture model together with the
+ * cached per-component coefficients which are needed to evaluate its density.<br/>
+ * Since a snapshot never changes after its creation, it can be shared among any number of
+ * threads without synchronization, e.g. a model can publish a new snapshot after each M-step
+ * while the readers evaluate the previous one.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class GMMSnapshot implements Serializable {
+  private static final long serialVersionUID = 4468095318627042730L;
+  
+  final int k;
+  final double[] w;  // component (w)eights
+  final double[] m;  // component (m)eans
+  final double[] v;  // component (v)ariances
+  final double[] lw; // (l)og (w)eights
+  final double[] ln; // (l)og (n)ormalisers
+  final double[] iv; // (i)nverse (v)ariances
+  final int layout;  // layout of the components in the model which produced the snapshot
+  private transient AliasSampler aliasSampler = null; // it is built by the first sampling (the race is benign)
+  private transient QuantileTable quantileTable = null; // it is built by the first quantile query (the race is benign)
+  
+  /**
+   * It creates a snapshot by copying the given parameters.
+   * 
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   */
+  public GMMSnapshot(double[] w, double[] m, double[] v) {
+    this(w, m, v, 0);
+  }
+  
+  /**
+   * It creates a snapshot by copying the given parameters of a model whose components have the given layout.
+   */
+  GMMSnapshot(double[] w, double[] m, double[] v, int layout) {
+    if (w.length != m.length || m.length != v.length) {
+      throw new RuntimeException("The number of weights, means and variances have to be equal.");
+    }
+    k = w.length;
+    this.layout = layout;
+    this.w = w.clone();
+    this.m = m.clone();
+    this.v = v.clone();
+    lw = new double[k];
+    ln = new double[k];
+    iv = new double[k];
+    AbstractGMM.computeCoefficients(k, this.w, this.v, lw, ln, iv);
+  }
+  
+  /**
+   * It computes the responsibilities P(C_i|x) of the components for the sample x.
+   * 
+   * @param x observation
+   * @param pcx output array of the responsibilities (its length has to be at least the number of components)
+   * @return log density of the mixture at x (negative infinity if the density of every component is zero)
+   */
+  public double computeResponsibilities(double x, double[] pcx) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - m[i];
+      pcx[i] = lw[i] + ln[i] - 0.5 * d * d * iv[i];
+      max = Math.max(max, pcx[i]);
+    }
+    max = (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = Math.exp(pcx[i] - max);
+      sum += pcx[i];
+    }
+    final double norm = (sum == 0.0) ? 0.0 : 1.0 / sum;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] *= norm;
+    }
+    return (sum == 0.0) ? Double.NEGATIVE_INFINITY : max + Math.log(sum);
+  }
+  
+  /**
+   * It computes the value of the probability density function at x.
+   * 
+   * @param x value in which the pdf will be evaluated
+   * @return value of the pdf
+   */
+  public double computeDensityValue(double x) {
+    return Math.exp(computeLogDensityValue(x));
+  }
+  
+  /**
+   * It computes the logarithm of the probability density function at x.
+   * 
+   * @param x value in which the log pdf will be evaluated
+   * @return log of the pdf (can be negative infinity)
+   */
+  public double computeLogDensityValue(double x) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - m[i];
+      max = Math.max(max, lw[i] + ln[i] - 0.5 * d * d * iv[i]);
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - m[i];
+      sum += Math.exp(lw[i] + ln[i] - 0.5 * d * d * iv[i] - max);
+    }
+    return max + Math.log(sum);
+  }
+  
+  /**
+   * It computes the value of the cumulative distribution function at x.
+   * 
+   * @param x value in which the cdf will be evaluated
+   * @return value of the cdf
+   */
+  public double computeCdf(double x) {
+    return AbstractGMM.computeCdf(k, w, m, v, x);
+  }
+  
+  /**
+   * It computes the tail probability at x i.e. one minus the cdf without its rounding.
+   * 
+   * @param x value in which the tail probability will be evaluated
+   * @return tail probability
+   */
+  public double computeTailProbability(double x) {
+    return AbstractGMM.computeTailProbability(k, w, m, v, x);
+  }
+  
+  /**
+   * It computes the quantile of the probability p (see MixtureModel.computeQuantile).
+   * 
+   * @param p probability in [0, 1]
+   * @return quantile
+   */
+  public double computeQuantile(double p) {
+    QuantileTable table = quantileTable;
+    if (table == null) {
+      table = AbstractGMM.buildQuantileTable(k, w, m, v, lw, ln, iv);
+      quantileTable = table;
+    }
+    return table.quantile(p);
+  }
+  
+  /**
+   * It draws a sample from the mixture.
+   * 
+   * @param rng source of randomness
+   * @return sample
+   */
+  public double sample(RandomGenerator rng) {
+    final int i = getAliasSampler().next(rng);
+    return m[i] + v[i] * rng.nextGaussian();
+  }
+  
+  /**
+   * It fills <i>length</i> consecutive elements of the array starting at index <i>offset</i> with
+   * independent samples from the mixture (see MixtureModel.sample).
+   * 
+   * @param out output array of the samples
+   * @param offset index of the first generated sample
+   * @param length number of generated samples
+   * @param rng source of randomness
+   */
+  public void sample(double[] out, int offset, int length, RandomGenerator rng) {
+    if (offset < 0 || length < 0 || offset + length > out.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for an array of size " + out.length + "!");
+    }
+    AbstractGMM.generateSamples(getAliasSampler(), m, v, out, offset, length, rng);
+  }
+  
+  /**
+   * It returns the alias table of the weights and builds it if it is necessary.
+   */
+  private AliasSampler getAliasSampler() {
+    AliasSampler sampler = aliasSampler;
+    if (sampler == null) {
+      sampler = new AliasSampler(k, w);
+      aliasSampler = sampler;
+    }
+    return sampler;
+  }
+  
+  /**
+   * It returns a copy of the component weights.
+   * 
+   * @return component weights
+   */
+  public double[] getComponentWeights() {
+    return w.clone();
+  }
+  
+  /**
+   * It returns a copy of the component means.
+   * 
+   * @return component means
+   */
+  public double[] getComponentMeans() {
+    return m.clone();
+  }
+  
+  /**
+   * It returns a copy of the component variances (sigma values).
+   * 
+   * @return component variances
+   */
+  public double[] getComponentVariances() {
+    return v.clone();
+  }
+  
+  /**
+   * It returns the number of components.
+   * 
+   * @return number of components
+   */
+  public int getNumberOfComponents() {
+    return k;
+  }
+}
@@ -0,0 +1,375 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This class stores a large number of small Gaussian mixture models with the same number of
+ * components (e.g. one model per metric key) in a packed form. Instead of a model object with
+ * about ten small arrays per model, the state of every model is a fixed size record of a single
+ * primitive array indexed by the model id:
+ * <ul>
+ *   <li>means and the two cached coefficients of the log densities (lw + ln and -iv/2),</li>
+ *   <li>the sufficient statistics of the current batch (s0, s1 and s2),</li>
+ *   <li>weights and variances,</li>
+ * </ul>
+ * so a model costs 8 * K doubles and 5 bytes (sample counter and a flag) and the fields which are
+ * touched by the E-step of a sample are adjacent. The previous parameters of the smoothing are not
+ * stored, because they are equal to the current ones after each M-step.<br/>
+ * The update semantics is the same as that of SmoothGMM (including its first M-step) if the
+ * parameter alpha is given and that of BatchBasedOnlineGMM otherwise, independently for each model.
+ * The bulk update groups the samples by model id (keeping the order of the samples of a model),
+ * so each record is loaded into the cache once per call, and gives the same result as the sample
+ * by sample update.<br/>
+ * Parameters: batchSize (mandatory) and alpha (optional).<br/>
+ * The store is not thread-safe.
+ * 
+ * @author Róbert Ormándi
+ */
+public class GMMStore implements Serializable {
+  private static final long serialVersionUID = 2859186309466284367L;
+  
+  private static final double DEFAULT_VARIANCE = 0.1;
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MIN_GROUPED_UPDATE = 64;
+  
+  protected final int k;      // number of components of each model
+  protected final int stride; // size of a record i.e. 8 * k
+  protected int batchSize;    // number of samples from which the statistics of a model are collected
+  protected double alpha = 1.0; // smoothing parameter (1.0 means no smoothing)
+  protected boolean isSmooth = false; // SmoothGMM semantics
+  protected int size = 0;     // number of models
+  protected double[] data;    // records of the models
+  protected int[] c;          // sample counters of the models
+  protected boolean[] started; // the model has performed at least one M-step
+  private transient double[] pcx = null;   // numOfComps scratch array of the E-step
+  private transient double[] prev = null;  // 3 x numOfComps scratch array of the smoothing
+  private transient long[] order = null;   // scratch array of the grouped update
+  
+  /**
+   * It creates an empty store of models with the given number of components.
+   * 
+   * @param numberOfComponents number of components of each model
+   */
+  public GMMStore(int numberOfComponents) {
+    if (numberOfComponents < 1) {
+      throw new RuntimeException("The number of components has to be positive!");
+    }
+    k = numberOfComponents;
+    stride = 8 * k;
+    data = new double[GMMStore.INITIAL_CAPACITY * stride];
+    c = new int[GMMStore.INITIAL_CAPACITY];
+    started = new boolean[GMMStore.INITIAL_CAPACITY];
+  }
+  
+  /**
+   * It parses the parameters of the models in the same format as the estimators.
+   * 
+   * @param params parameter string which contains comma separated param-value pairs in form paramName=value
+   * @return parsed parameter map
+   */
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("batchSize")) {
+      batchSize = Integer.parseInt(p.get("batchSize"));
+      if (batchSize < 1) {
+        throw new RuntimeException("Parameter batchSize has to be positive for " + getClass().getCanonicalName() + "!");
+      }
+    } else {
+      throw new RuntimeException("Parameter batchSize=someInteger is mandatory for " + getClass().getCanonicalName() + ", please specify it at the command line!");
+    }
+    isSmooth = p.containsKey("alpha");
+    alpha = isSmooth ? Double.parseDouble(p.get("alpha")) : 1.0;
+    return p;
+  }
+  
+  /**
+   * It adds a new model which is initialized like a new estimator.
+   * 
+   * @return id of the new model
+   */
+  public int addModel() {
+    return addModels(1);
+  }
+  
+  /**
+   * It adds <i>n</i> new models which are initialized like new estimators. Their ids are consecutive.
+   * 
+   * @param n number of new models
+   * @return id of the first new model
+   */
+  public int addModels(int n) {
+    if (n < 0) {
+      throw new RuntimeException("The number of new models has to be non-negative!");
+    }
+    ensureCapacity((long) size + n);
+    final int first = size;
+    for (int id = first; id < first + n; id ++) {
+      final int base = id * stride;
+      for (int i = 0; i < k; i ++) {
+        data[base + 6 * k + i] = 1.0 / ((double) k);
+        data[base + i] = ((double) i) - ((double) k) / 2.0;
+        data[base + 7 * k + i] = GMMStore.DEFAULT_VARIANCE;
+      }
+      refreshCoefficients(base);
+    }
+    size += n;
+    return first;
+  }
+  
+  /**
+   * It grows the arrays (by doubling) so that they can hold the given number of models.
+   */
+  private void ensureCapacity(long capacity) {
+    if (capacity * stride > Integer.MAX_VALUE - 8) {
+      throw new RuntimeException("The store cannot hold " + capacity + " models of " + k + " components!");
+    }
+    if (capacity > c.length) {
+      final int newCapacity = (int) Math.min(Math.max(capacity, 2L * c.length), (Integer.MAX_VALUE - 8) / stride);
+      data = Arrays.copyOf(data, newCapacity * stride);
+      c = Arrays.copyOf(c, newCapacity);
+      started = Arrays.copyOf(started, newCapacity);
+    }
+  }
+  
+  /**
+   * It recomputes the cached coefficients of the record which starts at base.
+   */
+  private void refreshCoefficients(int base) {
+    for (int i = 0; i < k; i ++) {
+      final double sigma = data[base + 7 * k + i];
+      data[base + k + i] = Math.log(data[base + 6 * k + i]) - Math.log(sigma) - AbstractGMM.LOG_SQRT2PI;
+      data[base + 2 * k + i] = -0.5 / (sigma * sigma);
+    }
+  }
+  
+  private void checkId(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("Bad model id " + id + " for a store of " + size + " models!");
+    }
+  }
+  
+  /**
+   * It updates the model <i>id</i> by the sample x.
+   * 
+   * @param id id of the model
+   * @param x observation
+   */
+  public void update(int id, double x) {
+    checkId(id);
+    if (pcx == null) {
+      pcx = new double[k];
+    }
+    updateModel(id, x);
+  }
+  
+  /**
+   * It updates the models ids[j] by the samples xs[j] for j in [offset, offset + length).
+   * 
+   * @param ids ids of the models
+   * @param xs observations
+   * @param offset index of the first sample
+   * @param length number of samples
+   */
+  public void update(int[] ids, double[] xs, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > xs.length || offset + length > ids.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for arrays of size " + ids.length + " and " + xs.length + "!");
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      checkId(ids[j]);
+    }
+    if (pcx == null) {
+      pcx = new double[k];
+    }
+    if (length < GMMStore.MIN_GROUPED_UPDATE) {
+      for (int j = offset; j < offset + length; j ++) {
+        updateModel(ids[j], xs[j]);
+      }
+      return;
+    }
+    // group the samples by model id, the index of the sample keeps the order within a model
+    if (order == null || order.length < length) {
+      order = new long[length];
+    }
+    for (int j = 0; j < length; j ++) {
+      order[j] = ((long) ids[offset + j] << 32) | j;
+    }
+    Arrays.sort(order, 0, length);
+    for (int j = 0; j < length; j ++) {
+      updateModel((int) (order[j] >>> 32), xs[offset + (int) order[j]]);
+    }
+  }
+  
+  /**
+   * It performs the E-step of the sample x on the model <i>id</i> and the M-step if its batch is full.
+   */
+  private void updateModel(int id, double x) {
+    final int base = id * stride;
+    // compute the P(C_i|x) values in log-space
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - data[base + i];
+      pcx[i] = data[base + k + i] + data[base + 2 * k + i] * d * d;
+      max = Math.max(max, pcx[i]);
+    }
+    max = (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+    double sumProbs = 0.0;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = Math.exp(pcx[i] - max);
+      sumProbs += pcx[i];
+    }
+    final double norm = (sumProbs == 0.0) ? 0.0 : 1.0 / sumProbs;
+    final double x2 = x * x;
+    for (int i = 0; i < k; i ++) {
+      final double p = pcx[i] * norm;
+      data[base + 3 * k + i] += p;
+      data[base + 4 * k + i] += p * x;
+      data[base + 5 * k + i] += p * x2;
+    }
+    if (++ c[id] == batchSize) {
+      performMStep(id);
+    }
+  }
+  
+  /**
+   * It performs the M-step of the model <i>id</i> (see SufficientStatistics.maximize and
+   * SmoothGMM.performMStep) and clears its statistics.
+   */
+  private void performMStep(int id) {
+    final int base = id * stride;
+    final double eps = SufficientStatistics.EPS;
+    if (isSmooth) {
+      if (prev == null) {
+        prev = new double[3 * k];
+      }
+      for (int i = 0; i < k; i ++) {
+        // before the first M-step SmoothGMM smooths with zero weights and variances
+        prev[i] = started[id] ? data[base + 6 * k + i] : 0.0;
+        prev[k + i] = data[base + i];
+        prev[2 * k + i] = started[id] ? data[base + 7 * k + i] : 0.0;
+      }
+    }
+    for (int i = 0; i < k; i ++) {
+      final double s0 = data[base + 3 * k + i], s1 = data[base + 4 * k + i], s2 = data[base + 5 * k + i];
+      final double sum0 = (s0 < eps) ? eps : s0; // numeric issues
+      final double sum2 = (s2 < eps) ? eps : s2; // numeric issues
+      double m = s1 / sum0;
+      double v = Math.sqrt(sum2 / sum0 - m * m);
+      v = (v < eps || Double.isNaN(v)) ? eps : v; // numeric issue
+      double w = s0 / c[id];
+      w = (w < eps) ? 0.0 : w; // numeric issue
+      if (isSmooth) {
+        w = (1.0 - alpha) * prev[i] + alpha * w;
+        m = (1.0 - alpha) * prev[k + i] + alpha * m;
+        v = (1.0 - alpha) * prev[2 * k + i] + alpha * v;
+      }
+      data[base + i] = m;
+      data[base + 6 * k + i] = w;
+      data[base + 7 * k + i] = v;
+      data[base + 3 * k + i] = 0.0;
+      data[base + 4 * k + i] = 0.0;
+      data[base + 5 * k + i] = 0.0;
+    }
+    refreshCoefficients(base);
+    c[id] = 0;
+    started[id] = true;
+  }
+  
+  /**
+   * It computes the logarithm of the density of the model <i>id</i> at x.
+   * 
+   * @param id id of the model
+   * @param x point in which the log density is evaluated
+   * @return log density (negative infinity if the density of every component is zero)
+   */
+  public double score(int id, double x) {
+    checkId(id);
+    return computeLogDensity(id * stride, x);
+  }
+  
+  /**
+   * It computes the logarithms of the densities of the models ids[j] at the points xs[j].
+   * 
+   * @param ids ids of the models
+   * @param xs points in which the log densities are evaluated
+   * @param out output array of the log densities (its length has to be at least the length of xs)
+   */
+  public void score(int[] ids, double[] xs, double[] out) {
+    if (ids.length < xs.length || out.length < xs.length) {
+      throw new IndexOutOfBoundsException("The id array (" + ids.length + ") or the output array (" + out.length + ") is shorter than the input (" + xs.length + ")!");
+    }
+    score(ids, xs, 0, xs.length, out);
+  }
+  
+  /**
+   * It computes the logarithms of the densities of the models ids[j] at the points xs[j] into out[j] 
+   * for j in [offset, offset + length), so a slice of a block can be scored without copying it.
+   * 
+   * @param ids ids of the models
+   * @param xs points in which the log densities are evaluated
+   * @param offset index of the first sample
+   * @param length number of samples
+   * @param out output array of the log densities
+   */
+  public void score(int[] ids, double[] xs, int offset, int length, double[] out) {
+    if (offset < 0 || length < 0 || offset + length > xs.length || offset + length > ids.length || offset + length > out.length) {
+      throw new IndexOutOfBoundsException("Bad offset (" + offset + ") or length (" + length + ") for arrays of size " + ids.length + ", " + xs.length + " and " + out.length + "!");
+    }
+    for (int j = offset; j < offset + length; j ++) {
+      checkId(ids[j]);
+      out[j] = computeLogDensity(ids[j] * stride, xs[j]);
+    }
+  }
+  
+  /**
+   * It computes the log density of the record which starts at base (log-sum-exp).
+   */
+  private double computeLogDensity(int base, double x) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - data[base + i];
+      max = Math.max(max, data[base + k + i] + data[base + 2 * k + i] * d * d);
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0.0;
+    for (int i = 0; i < k; i ++) {
+      final double d = x - data[base + i];
+      sum += Math.exp(data[base + k + i] + data[base + 2 * k + i] * d * d - max);
+    }
+    return max + Math.log(sum);
+  }
+  
+  /**
+   * It returns an immutable copy of the parameters of the model <i>id</i>.
+   * 
+   * @param id id of the model
+   * @return snapshot of the parameters
+   */
+  public GMMSnapshot getSnapshot(int id) {
+    checkId(id);
+    final int base = id * stride;
+    return new GMMSnapshot(Arrays.copyOfRange(data, base + 6 * k, base + 7 * k), Arrays.copyOfRange(data, base, base + k),
+        Arrays.copyOfRange(data, base + 7 * k, base + 8 * k));
+  }
+  
+  /**
+   * It returns the number of models.
+   * 
+   * @return number of models
+   */
+  public int getNumberOfModels() {
+    return size;
+  }
+  
+  /**
+   * It returns the number of components of the models.
+   * 
+   * @return number of components
+   */
+  public int getNumberOfComponents() {
+    return k;
+  }
+}
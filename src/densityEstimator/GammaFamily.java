@@ -0,0 +1,147 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Gamma components. Parameters: shape and rate. Coefficients: shape*log(rate) - logGamma(shape),
+ * shape - 1 and rate. Statistics: sums of 1, x and log(x). The M-step of the shape has no closed form,
+ * it is computed by Newton iterations on log(shape) - digamma(shape) = log(mean(x)) - mean(log(x)) 
+ * started from the approximation of Minka. The support is x &gt; 0.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class GammaFamily extends ComponentFamily {
+  private static final long serialVersionUID = 8820315497312862907L;
+  
+  private static final int NEWTON_ITERATIONS = 5;
+  
+  @Override
+  public String getName() {
+    return "gamma";
+  }
+  
+  @Override
+  public int getNumberOfParameters() {
+    return 2;
+  }
+  
+  @Override
+  public int getNumberOfCoefficients() {
+    return 3;
+  }
+  
+  @Override
+  public int getNumberOfStatistics() {
+    return 3;
+  }
+  
+  @Override
+  public boolean isInSupport(double x) {
+    return x > 0.0 && x < Double.POSITIVE_INFINITY;
+  }
+  
+  @Override
+  public void computeCoefficients(double[] params, int p, double[] coefs, int c) {
+    coefs[c] = params[p] * Math.log(params[p + 1]) - ComponentFamily.logGamma(params[p]);
+    coefs[c + 1] = params[p] - 1.0;
+    coefs[c + 2] = params[p + 1];
+  }
+  
+  @Override
+  public double computeLogDensity(double[] coefs, int c, double x) {
+    return (x > 0.0) ? coefs[c] + coefs[c + 1] * Math.log(x) - coefs[c + 2] * x : Double.NEGATIVE_INFINITY;
+  }
+  
+  @Override
+  public void accumulate(double[] stats, int s, double g, double x) {
+    stats[s] += g;
+    stats[s + 1] += g * x;
+    stats[s + 2] += g * Math.log(x);
+  }
+  
+  @Override
+  public void maximize(double[] stats, int s, double[] params, int p) {
+    final double mean = Math.max(stats[s + 1] / stats[s], SufficientStatistics.EPS);
+    // the gap is non-negative by Jensen's inequality, it is 0 only if the component has a single distinct sample
+    final double gap = Math.max(Math.log(mean) - stats[s + 2] / stats[s], SufficientStatistics.EPS);
+    double shape = (3.0 - gap + Math.sqrt((gap - 3.0) * (gap - 3.0) + 24.0 * gap)) / (12.0 * gap);
+    for (int t = 0; t < GammaFamily.NEWTON_ITERATIONS; t ++) {
+      final double next = shape - (Math.log(shape) - ComponentFamily.digamma(shape) - gap) / (1.0 / shape - ComponentFamily.trigamma(shape));
+      shape = (next > 0.0) ? next : 0.5 * shape;
+    }
+    params[p] = shape;
+    params[p + 1] = shape / mean;
+  }
+  
+  @Override
+  public int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats) {
+    int zeros = 0;
+    for (int j = offset; j < offset + n; j ++) {
+      final double x = xs[j];
+      if (!(x > 0.0)) {
+        zeros ++;
+        continue;
+      }
+      // the log is computed once per sample
+      final double y = Math.log(x);
+      for (int i = 0; i < k; i ++) {
+        p[i] = lw[i] + coefs[3 * i] + coefs[3 * i + 1] * y - coefs[3 * i + 2] * x;
+      }
+      if (!ComponentFamily.normalize(p, k)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        final double g = p[i];
+        stats[3 * i] += g;
+        stats[3 * i + 1] += g * x;
+        stats[3 * i + 2] += g * y;
+      }
+    }
+    return zeros;
+  }
+  
+  @Override
+  public double getMean(double[] params, int p) {
+    return params[p] / params[p + 1];
+  }
+  
+  @Override
+  public double getStandardDeviation(double[] params, int p) {
+    return Math.sqrt(params[p]) / params[p + 1];
+  }
+  
+  @Override
+  public double computeCdf(double[] params, int p, double x) {
+    return ComponentFamily.regularizedGammaP(params[p], params[p + 1] * x);
+  }
+  
+  @Override
+  public double computeTailProbability(double[] params, int p, double x) {
+    return ComponentFamily.regularizedGammaQ(params[p], params[p + 1] * x);
+  }
+  
+  /**
+   * It draws a sample by the method of Marsaglia and Tsang.
+   */
+  @Override
+  public double sample(double[] params, int p, RandomGenerator rng) {
+    final double shape = params[p];
+    // a shape below 1 is boosted by shape + 1 and scaled back by U^(1/shape)
+    final double boost = (shape < 1.0) ? Math.pow(rng.nextDouble(), 1.0 / shape) : 1.0;
+    final double d = ((shape < 1.0) ? shape + 1.0 : shape) - 1.0 / 3.0;
+    final double c = 1.0 / Math.sqrt(9.0 * d);
+    while (true) {
+      final double x = rng.nextGaussian();
+      double v = 1.0 + c * x;
+      if (v <= 0.0) {
+        continue;
+      }
+      v = v * v * v;
+      final double u = rng.nextDouble();
+      if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+        return boost * d * v / params[p + 1];
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Gaussian components. Parameters: mean and standard deviation. Coefficients: mean, log normaliser
+ * and -1/(2*sigma^2). Statistics: sums of 1, x and x^2.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class GaussianFamily extends ComponentFamily {
+  private static final long serialVersionUID = 6172093860517385174L;
+  
+  @Override
+  public String getName() {
+    return "gaussian";
+  }
+  
+  @Override
+  public int getNumberOfParameters() {
+    return 2;
+  }
+  
+  @Override
+  public int getNumberOfCoefficients() {
+    return 3;
+  }
+  
+  @Override
+  public int getNumberOfStatistics() {
+    return 3;
+  }
+  
+  @Override
+  public boolean isInSupport(double x) {
+    return !Double.isNaN(x) && !Double.isInfinite(x);
+  }
+  
+  @Override
+  public void computeCoefficients(double[] params, int p, double[] coefs, int c) {
+    coefs[c] = params[p];
+    coefs[c + 1] = - Math.log(params[p + 1]) - AbstractGMM.LOG_SQRT2PI;
+    coefs[c + 2] = -0.5 / (params[p + 1] * params[p + 1]);
+  }
+  
+  @Override
+  public double computeLogDensity(double[] coefs, int c, double x) {
+    final double d = x - coefs[c];
+    return coefs[c + 1] + coefs[c + 2] * d * d;
+  }
+  
+  @Override
+  public void accumulate(double[] stats, int s, double g, double x) {
+    stats[s] += g;
+    stats[s + 1] += g * x;
+    stats[s + 2] += g * x * x;
+  }
+  
+  @Override
+  public void maximize(double[] stats, int s, double[] params, int p) {
+    final double mean = stats[s + 1] / stats[s];
+    final double sigma = Math.sqrt(stats[s + 2] / stats[s] - mean * mean);
+    params[p] = mean;
+    params[p + 1] = (sigma < SufficientStatistics.EPS || Double.isNaN(sigma)) ? SufficientStatistics.EPS : sigma; // numeric issue
+  }
+  
+  @Override
+  public int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats) {
+    int zeros = 0;
+    for (int j = offset; j < offset + n; j ++) {
+      final double x = xs[j];
+      for (int i = 0; i < k; i ++) {
+        final double d = x - coefs[3 * i];
+        p[i] = lw[i] + coefs[3 * i + 1] + coefs[3 * i + 2] * d * d;
+      }
+      if (!ComponentFamily.normalize(p, k)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        final double g = p[i];
+        stats[3 * i] += g;
+        stats[3 * i + 1] += g * x;
+        stats[3 * i + 2] += g * x * x;
+      }
+    }
+    return zeros;
+  }
+  
+  @Override
+  public double getMean(double[] params, int p) {
+    return params[p];
+  }
+  
+  @Override
+  public double getStandardDeviation(double[] params, int p) {
+    return params[p + 1];
+  }
+  
+  @Override
+  public double computeCdf(double[] params, int p, double x) {
+    return QuantileTable.normalCdf((x - params[p]) / params[p + 1]);
+  }
+  
+  @Override
+  public double computeTailProbability(double[] params, int p, double x) {
+    return QuantileTable.normalTail((x - params[p]) / params[p + 1]);
+  }
+  
+  @Override
+  public double sample(double[] params, int p, RandomGenerator rng) {
+    return params[p] + params[p + 1] * rng.nextGaussian();
+  }
+}
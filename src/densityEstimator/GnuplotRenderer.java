@@ -0,0 +1,185 @@
+package densityEstimator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+
+/**
+ * This renderer writes a histogram file and a gnuplot script into a temporary directory at every
+ * snapshot, and when it is closed, it runs gnuplot for each script and stitches the pictures together
+ * by the convert command of imagemagick.<br/>
+ * It needs bash, gnuplot and convert installed on the target machine!
+ * 
+ * @author Róbert Ormándi
+ */
+public class GnuplotRenderer implements SnapshotRenderer {
+  private static final String GENERATOR_SCRIPT_NAME = "generateFig.sh";
+  private static final String GENERATOR_SCRIPT =
+    "#!/bin/bash\n\n" +
+    "echo `pwd`;\n" +
+    "for f in `ls *.gpt`; do ./${f} 2>/dev/null; done;\n" +
+    "convert -delay 10 -loop 0 `ls *.png` ";
+  
+  private final File outputFile;
+  private final File tmpDir;
+  private final int snapshotStepSize;
+  private final String gptTemplate;
+  private final boolean isClear = true;
+  
+  /**
+   * It creates the renderer and the temporary directory.
+   * 
+   * @param outputFile output gif file
+   * @param tmpDir temporary directory (it must not exist)
+   * @param snapshotStepSize number of samples between the snapshots
+   * @param precision number of histogram bins per unit
+   * @param expW weights of the expected mixture
+   * @param expNu means of the expected mixture
+   * @param expSigma variances (sigma values) of the expected mixture
+   */
+  public GnuplotRenderer(File outputFile, File tmpDir, int snapshotStepSize, double precision, double[] expW, double[] expNu, double[] expSigma) {
+    this.outputFile = outputFile;
+    this.tmpDir = tmpDir;
+    this.snapshotStepSize = snapshotStepSize;
+    
+    // init tmp directory
+    if (isClear) {
+      if (tmpDir.exists()) {
+        throw new RuntimeException("The given temporary directory (" + tmpDir + ") exists! Please, give another one.");
+      } else if (!tmpDir.mkdir()) {
+        throw new RuntimeException("Temporary directory cannot be created (" + tmpDir + ")!");
+      }
+    }
+    
+    gptTemplate =
+      "#!/usr/bin/gnuplot\n\n" +
+      "set term png large nocrop enhanced font \"/usr/share/fonts/truetype/arial.ttf\" 14 size 800,600\n" +
+      "set output \"${picture_file}\"\n" +
+      "set title \"GMM Simulation, Iteration=${i}\"\n" +
+      "set xrange [-4:6]\n" +
+      "set yrange [0:1]\n\n" +
+      "${component_functions}" +
+      "${pdf_current}\n" +
+      GnuplotRenderer.asGnuplotFunction("pdf_expected(x)", expW, expNu, expSigma) +
+      "\n\nplot \\\n  '${data_file}' using 1:($2 * " + precision + ") w l title 'generated data'," +
+      "\\\n  pdf_current(x) lw 2 title 'current pdf'," +
+      "${component_function_calls}" +
+      "\\\n  pdf_expected(x) title 'expected pdf';\n";
+  }
+  
+  private static String asGnuplotFunction(String name, double[] w, double[] nu, double[] sigma) {
+    StringBuffer ret = new StringBuffer().append(name);
+    
+    for (int i = 0; i < w.length && i < nu.length && i < sigma.length; i ++) {
+      if (i == 0) {
+        ret.append(" = ");
+      } else {
+        ret.append(" + ");
+      }
+      ret.append(w[i]).append(" * 1/sqrt(2*pi*").append(sigma[i]).append("**2) * ");
+      ret.append("exp(-(x-(").append(nu[i]).append("))**2 / ( 2*").append(sigma[i]).append("**2))");
+    }
+    return ret.toString();
+  }
+  
+  @Override
+  public void render(int i, GMMSnapshot current, Histogram histogram) throws IOException {
+    // create simulation snapshot
+    String baseName = String.format("out_%08d", i/snapshotStepSize);
+    File txtFile = new File(tmpDir, baseName + ".txt");
+    PrintWriter fileOut = new PrintWriter(new BufferedWriter(new FileWriter(txtFile)));
+    for (int b = 0; b < histogram.getNumberOfBins(); b ++){
+      if (histogram.getBinCount(b) > 0) {
+        fileOut.println(histogram.getBinLowerBound(b) + "\t" + (histogram.getBinCount(b) / (double)i));
+      }
+    }
+    fileOut.close();
+    
+    // create gnuplot script for the snapshot
+    File pngFile = new File(baseName + ".png");
+    File gptFile = new File(tmpDir, baseName + ".gpt");
+    fileOut = new PrintWriter(new BufferedWriter(new FileWriter(gptFile)));
+    String gptScript = gptTemplate.replaceFirst("\\$\\{picture_file\\}", pngFile.getName());
+    gptScript = gptScript.replaceFirst("\\$\\{data_file\\}", txtFile.getName());
+    gptScript = gptScript.replaceFirst("\\$\\{i\\}", Integer.toString(i));
+    
+    // get current values from the GMM model
+    double[] currentW = current.getComponentWeights();
+    double[] currentNu = current.getComponentMeans();
+    double[] currentSigma = current.getComponentVariances();
+    //
+    StringBuffer componentFunctions = new StringBuffer();
+    StringBuffer componentFunctionCalls = new StringBuffer();
+    for (int componentId = 0; componentId < currentW.length; componentId ++) {
+      componentFunctions.append(GnuplotRenderer.asGnuplotFunction("pdf_current_component_" + componentId + "(x)", new double[]{currentW[componentId]}, new double[]{currentNu[componentId]}, new double[]{currentSigma[componentId]})).append("\n");
+      componentFunctionCalls.append("\\\\\n  pdf_current_component_" + componentId + "(x) title 'component " + componentId + " pdf',");
+    }
+    gptScript = gptScript.replaceFirst("\\$\\{component_functions\\}", componentFunctions.toString());
+    gptScript = gptScript.replaceFirst("\\$\\{component_function_calls\\}", componentFunctionCalls.toString());
+    //
+    gptScript = gptScript.replaceFirst("\\$\\{pdf_current\\}", GnuplotRenderer.asGnuplotFunction("pdf_current(x)", currentW, currentNu, currentSigma));
+    fileOut.println(gptScript);
+    
+    // make gpt file runnable
+    gptFile.setExecutable(true);
+    
+    // close gpt file
+    fileOut.close();
+  }
+  
+  @Override
+  public void close() throws IOException {
+    // writing generator script
+    File scriptFile = new File(tmpDir, GnuplotRenderer.GENERATOR_SCRIPT_NAME);
+    PrintWriter fileOut = new PrintWriter(new BufferedWriter(new FileWriter(scriptFile)));
+    fileOut.println(GnuplotRenderer.GENERATOR_SCRIPT + outputFile.getName());
+    scriptFile.setExecutable(true);
+    fileOut.close();
+    // calling generator script and showing its error stream
+    ProcessBuilder pb = new ProcessBuilder(scriptFile.getCanonicalPath());
+    pb.directory(tmpDir);
+    Process p = pb.start();
+    try {
+      p.waitFor();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the generator script!", e);
+    }
+    BufferedReader generatorError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+    String line = generatorError.readLine();
+    while (line != null) {
+      System.err.println(line);
+      line = generatorError.readLine();
+    }
+    
+    // remove temporary files
+    if (isClear) {
+      File[] files = tmpDir.listFiles();
+      boolean isSuccess = true;
+      for (int fIdx = 0; fIdx < files.length; fIdx ++) {
+        if (files[fIdx].getName().equals(outputFile.getName())) {
+          // move the output file out of the temp directory
+          isSuccess &= files[fIdx].renameTo(outputFile);
+        } else {
+          // delete temp file
+          isSuccess &= files[fIdx].delete();
+        }
+        if (!isSuccess) {
+          // error while trying to remove file => stop
+          break;
+        }
+      }
+      if (isSuccess) {
+        // remove temporary directory as well (which should be empty)
+        isSuccess &= tmpDir.delete();
+      }
+      if (!isSuccess) {
+        System.err.println("\nErrors occured during deleting/moving files! Unneccessary files can be remained in the temporary directory! They have to be removed manually.");
+      }
+    }
+  }
+}
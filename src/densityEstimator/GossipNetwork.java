@@ -0,0 +1,177 @@
+package densityEstimator;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This is a simulated network of nodes which learn a mixture model in a decentralized manner. Each
+ * node has its own model and its own shard of the stream, and the nodes periodically exchange their
+ * models with random peers through a GossipTransport instead of shipping the samples to a central 
+ * learner. In each exchange the nodes are paired randomly, the members of each pair send their
+ * current models to each other (push-pull) and merge the received models into their own ones by the
+ * MergeRule. The local updates and the merges of the nodes run in parallel on a pool of threads.<br/>
+ * The merged model replaces the components of the node like the component management does, i.e. 
+ * the partial batch of a batch based node is dropped, so the number of samples of a node between
+ * two exchanges should be a multiple of its batch size.
+ * 
+ * @author Róbert Ormándi
+ */
+public class GossipNetwork implements Closeable {
+  protected final AbstractGMM[] nodes;      // models of the nodes
+  protected final GossipTransport transport; // channel of the messages
+  protected final MergeRule rule;           // merges the received models
+  protected final SplittableRandom random;  // chooses the peers
+  private final ForkJoinPool pool;          // runs the nodes
+  
+  /**
+   * It creates a network of the given nodes.
+   * 
+   * @param nodes models of the nodes
+   * @param transport channel between the nodes
+   * @param rule rule which merges the received models
+   * @param threads number of threads which run the nodes
+   * @param seed seed of the random choice of the peers
+   */
+  public GossipNetwork(AbstractGMM[] nodes, GossipTransport transport, MergeRule rule, int threads, long seed) {
+    if (nodes.length < 2) {
+      throw new RuntimeException("A gossip network needs at least two nodes!");
+    }
+    this.nodes = nodes.clone();
+    this.transport = transport;
+    this.rule = rule;
+    random = new SplittableRandom(seed);
+    pool = new ForkJoinPool(Math.max(1, Math.min(threads, nodes.length)));
+  }
+  
+  /**
+   * It updates the nodes by the given samples. The samples are split into consecutive shards of
+   * (almost) equal sizes, the j-th shard is processed by the j-th node.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation which is used
+   * @param length number of observations which are used
+   */
+  public void update(final double[] xs, final int offset, final int length) {
+    final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nodes.length);
+    for (int j = 0; j < nodes.length; j ++) {
+      final AbstractGMM node = nodes[j];
+      final int from = offset + (int) ((long) length * j / nodes.length);
+      final int to = offset + (int) ((long) length * (j + 1) / nodes.length);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          node.update(xs, from, to - from);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+  
+  /**
+   * It performs one round of exchanges. The nodes are paired randomly (one node is left out if 
+   * their number is odd), the nodes of each pair send their models to each other, then every node 
+   * merges the received models into its own one.
+   */
+  public void exchange() {
+    // random pairing by a Fisher-Yates shuffle
+    final int[] order = new int[nodes.length];
+    for (int j = 0; j < nodes.length; j ++) {
+      order[j] = j;
+    }
+    for (int j = nodes.length - 1; j > 0; j --) {
+      final int r = random.nextInt(j + 1);
+      final int tmp = order[j];
+      order[j] = order[r];
+      order[r] = tmp;
+    }
+    // every message is sent before the first merge, so each of them is a model of the previous round
+    for (int j = 0; j + 1 < nodes.length; j += 2) {
+      final int a = order[j], b = order[j + 1];
+      transport.send(a, b, nodes[a].getSnapshot());
+      transport.send(b, a, nodes[b].getSnapshot());
+    }
+    final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nodes.length);
+    for (int j = 0; j < nodes.length; j ++) {
+      final int node = j;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          merge(node);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+  
+  /**
+   * It merges the received messages of the node into its model.
+   */
+  private void merge(int j) {
+    final List<GMMSnapshot> messages = transport.receive(j);
+    if (messages.isEmpty()) {
+      return;
+    }
+    GMMSnapshot merged = nodes[j].getSnapshot();
+    for (GMMSnapshot message : messages) {
+      merged = rule.merge(merged, message);
+    }
+    nodes[j].setComponents(merged.getNumberOfComponents(), merged.getComponentWeights(), merged.getComponentMeans(), merged.getComponentVariances());
+  }
+  
+  /**
+   * It runs the tasks on the pool and waits for them.
+   */
+  private void invokeAll(List<Callable<Void>> tasks) {
+    try {
+      for (Future<Void> f : pool.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the nodes!", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("A node of the gossip network failed!", e.getCause());
+    }
+  }
+  
+  /**
+   * It returns the model of the given node.
+   * 
+   * @param j index of the node
+   * @return model of the node
+   */
+  public AbstractGMM getNode(int j) {
+    return nodes[j];
+  }
+  
+  /**
+   * It returns the number of nodes.
+   * 
+   * @return number of nodes
+   */
+  public int getNumberOfNodes() {
+    return nodes.length;
+  }
+  
+  /**
+   * It returns the transport of the network.
+   * 
+   * @return transport
+   */
+  public GossipTransport getTransport() {
+    return transport;
+  }
+  
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
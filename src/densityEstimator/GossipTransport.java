@@ -0,0 +1,42 @@
+package densityEstimator;
+
+import java.util.List;
+
+/**
+ * This is a general representation of the channel through which the nodes of a GossipNetwork send
+ * their models to each other. The sends of different nodes can be concurrent.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface GossipTransport {
+  /**
+   * It sends the model to the given node.
+   * 
+   * @param from index of the sender node
+   * @param to index of the receiver node
+   * @param message model which is sent
+   */
+  public void send(int from, int to, GMMSnapshot message);
+  
+  /**
+   * It returns the messages which were delivered to the node since the previous call and removes them.
+   * 
+   * @param node index of the receiver node
+   * @return messages in the order of their arrival (it can be empty)
+   */
+  public List<GMMSnapshot> receive(int node);
+  
+  /**
+   * It returns the number of messages which were sent so far.
+   * 
+   * @return number of messages
+   */
+  public long getNumberOfMessages();
+  
+  /**
+   * It returns the number of bytes which were sent so far (the parameters of the models).
+   * 
+   * @return number of bytes
+   */
+  public long getNumberOfBytes();
+}
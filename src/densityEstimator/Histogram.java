@@ -0,0 +1,143 @@
+package densityEstimator;
+
+/**
+ * This is a fixed-range histogram which stores its bins in a primitive array, so adding
+ * a sample never allocates. The samples which fall outside of the range are counted
+ * by the underflow and overflow counters.
+ * 
+ * @author Róbert Ormándi
+ */
+public class Histogram {
+  protected final double lower;    // lower bound of the first bin (inclusive)
+  protected final double binWidth; // width of the bins
+  protected final long[] bins;     // counters of the bins
+  protected long underflow = 0;    // number of samples below the range
+  protected long overflow = 0;     // number of samples above the range (or NaN)
+  protected long total = 0;        // number of all samples
+  
+  /**
+   * It creates a histogram which covers [lower, upper) with bins of the given width.
+   * 
+   * @param lower lower bound of the range (inclusive)
+   * @param upper upper bound of the range (exclusive)
+   * @param binWidth width of the bins
+   */
+  public Histogram(double lower, double upper, double binWidth) {
+    if (!(lower < upper) || !(binWidth > 0.0)) {
+      throw new RuntimeException("Bad histogram range [" + lower + ", " + upper + ") or bin width " + binWidth + "!");
+    }
+    this.lower = lower;
+    this.binWidth = binWidth;
+    bins = new long[(int) Math.ceil((upper - lower) / binWidth)];
+  }
+  
+  /**
+   * It adds a sample to the histogram.
+   * 
+   * @param x sample
+   */
+  public void add(double x) {
+    final double pos = (x - lower) / binWidth;
+    if (pos < 0.0) {
+      underflow ++;
+    } else if (pos < bins.length) {
+      bins[(int) pos] ++;
+    } else {
+      overflow ++;
+    }
+    total ++;
+  }
+  
+  /**
+   * It adds the samples xs[offset..offset+length) to the histogram.
+   * 
+   * @param xs array of samples
+   * @param offset index of the first sample
+   * @param length number of samples
+   */
+  public void add(double[] xs, int offset, int length) {
+    for (int j = offset; j < offset + length; j ++) {
+      add(xs[j]);
+    }
+  }
+  
+  /**
+   * It returns the number of bins.
+   * 
+   * @return number of bins
+   */
+  public int getNumberOfBins() {
+    return bins.length;
+  }
+  
+  /**
+   * It returns the lower bound of the <i>i</i>th bin.
+   * 
+   * @param i index of the bin
+   * @return lower bound of the bin
+   */
+  public double getBinLowerBound(int i) {
+    return lower + i * binWidth;
+  }
+  
+  /**
+   * It returns the number of samples in the <i>i</i>th bin.
+   * 
+   * @param i index of the bin
+   * @return counter of the bin
+   */
+  public long getBinCount(int i) {
+    return bins[i];
+  }
+  
+  /**
+   * It returns the normalized counters of the bins (count / (total * binWidth)), i.e. the
+   * histogram as an estimate of the density function. The returned array is a copy.
+   * 
+   * @return density estimate of each bin
+   */
+  public double[] getDensities() {
+    final double[] densities = new double[bins.length];
+    final double norm = (total == 0) ? 0.0 : 1.0 / (total * binWidth);
+    for (int i = 0; i < bins.length; i ++) {
+      densities[i] = bins[i] * norm;
+    }
+    return densities;
+  }
+  
+  /**
+   * It returns the width of the bins.
+   * 
+   * @return bin width
+   */
+  public double getBinWidth() {
+    return binWidth;
+  }
+  
+  /**
+   * It returns the number of samples which were below the range.
+   * 
+   * @return underflow counter
+   */
+  public long getUnderflow() {
+    return underflow;
+  }
+  
+  /**
+   * It returns the number of samples which were above the range.
+   * 
+   * @return overflow counter
+   */
+  public long getOverflow() {
+    return overflow;
+  }
+  
+  /**
+   * It returns the number of all samples.
+   * 
+   * @return number of samples
+   */
+  public long getTotal() {
+    return total;
+  }
+}
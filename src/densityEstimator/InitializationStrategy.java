@@ -0,0 +1,98 @@
+package densityEstimator;
+
+import java.io.Serializable;
+
+/**
+ * This is the abstract base class of the data driven initializations of the Gaussian mixture models.
+ * A strategy computes the initial components from the first samples of the stream (a reservoir which
+ * is collected by the model before its first M-step), so the components start at the scale of the
+ * data instead of the default means around zero. The samples of the reservoir are not discarded, the
+ * model processes them after the initialization.<br/>
+ * The strategies are stateless, so an instance can be shared by many models.
+ * 
+ * @author Róbert Ormándi
+ */
+public abstract class InitializationStrategy implements Serializable {
+  private static final long serialVersionUID = -2716634925371160449L;
+  
+  /**
+   * It returns the name of the strategy, which can be passed to create.
+   * 
+   * @return name of the strategy
+   */
+  public abstract String getName();
+  
+  /**
+   * It computes the initial components from the samples. The weights have to be normalized and
+   * the variances have to be positive.
+   * 
+   * @param xs finite samples (the array must not be modified)
+   * @param n number of samples (at least 1)
+   * @param k number of components
+   * @param w output array of the component weights
+   * @param m output array of the component means
+   * @param v output array of the component variances (sigma values)
+   */
+  public abstract void initialize(double[] xs, int n, int k, double[] w, double[] m, double[] v);
+  
+  /**
+   * It creates the strategy of the given name or class name.
+   * 
+   * @param name quantile, kmeans++ or the name of an InitializationStrategy class
+   * @return strategy
+   */
+  public static InitializationStrategy create(String name) {
+    if (name.equals("quantile")) {
+      return new QuantileInitialization();
+    } else if (name.equals("kmeans++")) {
+      return new KMeansPlusPlusInitialization();
+    }
+    try {
+      return (InitializationStrategy) Class.forName(name).getConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new RuntimeException("Unknown initialization " + name + ", it has to be quantile, kmeans++ or an InitializationStrategy class!", e);
+    }
+  }
+  
+  /**
+   * It estimates the components from a hard assignment of the samples. The weights are smoothed by
+   * one pseudo sample per component, so a component without samples keeps its mean with a small
+   * weight and gets the standard deviation of all samples. The variances are bounded from below by a
+   * thousandth of the standard deviation of all samples (or EPS), so the components of tied samples
+   * do not collapse.
+   * 
+   * @param xs samples
+   * @param n number of samples
+   * @param assignment component of each sample
+   * @param k number of components
+   * @param w output array of the component weights
+   * @param m component means of the empty components, output array of the component means
+   * @param v output array of the component variances (sigma values)
+   */
+  protected static void estimate(double[] xs, int n, int[] assignment, int k, double[] w, double[] m, double[] v) {
+    // the means are computed first and the variances from the deviations, so data far from zero is not an issue
+    final double[] s0 = new double[k], s1 = new double[k], s2 = new double[k];
+    double sum = 0.0;
+    for (int j = 0; j < n; j ++) {
+      s0[assignment[j]] += 1.0;
+      s1[assignment[j]] += xs[j];
+      sum += xs[j];
+    }
+    final double mean = sum / n;
+    for (int i = 0; i < k; i ++) {
+      m[i] = (s0[i] > 0.0) ? s1[i] / s0[i] : m[i];
+    }
+    double squares = 0.0;
+    for (int j = 0; j < n; j ++) {
+      final double d = xs[j] - m[assignment[j]];
+      s2[assignment[j]] += d * d;
+      squares += (xs[j] - mean) * (xs[j] - mean);
+    }
+    final double deviation = Math.sqrt(squares / n);
+    final double floor = Math.max(SufficientStatistics.EPS, 1.0E-3 * deviation);
+    for (int i = 0; i < k; i ++) {
+      w[i] = (s0[i] + 1.0) / (n + k);
+      v[i] = Math.max((s0[i] > 0.0) ? Math.sqrt(s2[i] / s0[i]) : deviation, floor);
+    }
+  }
+}
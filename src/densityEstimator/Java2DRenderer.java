@@ -0,0 +1,406 @@
+package densityEstimator;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * This renderer draws the snapshots in-process by Java2D and writes them as the frames of an animated
+ * GIF through ImageIO, so it has no external dependencies and needs no temporary files.<br/>
+ * The frames are drawn on a pool of background threads from immutable snapshots of the parameters
+ * and a copy of the histogram, while the simulation goes on. A single writer thread appends the
+ * frames to the GIF in the order of the snapshots. The number of frames in flight is bounded, so
+ * the simulation waits only if the renderers cannot keep up with it.
+ * 
+ * @author Róbert Ormándi
+ */
+public class Java2DRenderer implements SnapshotRenderer {
+  public static final int WIDTH = 800;
+  public static final int HEIGHT = 600;
+  private static final int FRAME_DELAY = 10;          // delay between the frames in 1/100 seconds
+  private static final double RANGE_IN_SIGMAS = 4.0;  // the x range covers the expected components +/- this many sigmas
+  private static final int MARGIN_LEFT = 70;
+  private static final int MARGIN_RIGHT = 20;
+  private static final int MARGIN_TOP = 40;
+  private static final int MARGIN_BOTTOM = 50;
+  private static final Color HISTOGRAM_COLOR = new Color(160, 160, 160);
+  private static final Color CURRENT_COLOR = new Color(0, 64, 200);
+  private static final Color EXPECTED_COLOR = Color.BLACK;
+  private static final Color[] COMPONENT_COLORS = {new Color(220, 50, 47), new Color(38, 139, 30), new Color(211, 130, 0),
+    new Color(108, 61, 196), new Color(42, 161, 152), new Color(200, 40, 140)};
+  
+  private final GMMSnapshot expected;
+  private final double xMin;
+  private final double xMax;
+  private final double yMax;
+  private final double[] expectedCurve;    // expected pdf at the pixel columns (it is the same in every frame)
+  
+  private final ExecutorService renderers; // draws the frames
+  private final ExecutorService writer;    // writes the frames in order
+  private final Semaphore inFlight;        // bounds the number of frames which are not written yet
+  private final ImageOutputStream output;
+  private final ImageWriter gifWriter;
+  private final IIOMetadata firstFrameMetadata; // the first frame carries the looping extension as well
+  private final IIOMetadata frameMetadata;
+  private boolean isFirstFrame = true;         // it is used only by the writer thread
+  private volatile IOException error = null;
+  
+  /**
+   * It creates the renderer and opens the output file. The range of the axes is given by the
+   * expected mixture, so it is the same in every frame.
+   * 
+   * @param outputFile output gif file
+   * @param expW weights of the expected mixture
+   * @param expNu means of the expected mixture
+   * @param expSigma variances (sigma values) of the expected mixture
+   * @param threads number of rendering threads
+   */
+  public Java2DRenderer(File outputFile, double[] expW, double[] expNu, double[] expSigma, int threads) throws IOException {
+    expected = new GMMSnapshot(expW, expNu, expSigma);
+    double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < expW.length; i ++) {
+      lower = Math.min(lower, expNu[i] - Java2DRenderer.RANGE_IN_SIGMAS * expSigma[i]);
+      upper = Math.max(upper, expNu[i] + Java2DRenderer.RANGE_IN_SIGMAS * expSigma[i]);
+    }
+    xMin = Math.floor(lower);
+    xMax = (Math.ceil(upper) > xMin) ? Math.ceil(upper) : xMin + 1.0;
+    expectedCurve = new double[Java2DRenderer.WIDTH - Java2DRenderer.MARGIN_LEFT - Java2DRenderer.MARGIN_RIGHT];
+    double max = 0.0;
+    for (int px = 0; px < expectedCurve.length; px ++) {
+      expectedCurve[px] = expected.computeDensityValue(toX(px));
+      max = Math.max(max, expectedCurve[px]);
+    }
+    yMax = (max > 0.0) ? 1.25 * max : 1.0;
+    
+    // open the gif sequence
+    gifWriter = ImageIO.getImageWritersByFormatName("gif").next();
+    output = ImageIO.createImageOutputStream(outputFile);
+    if (output == null) {
+      throw new IOException("The output file " + outputFile + " cannot be opened!");
+    }
+    gifWriter.setOutput(output);
+    gifWriter.prepareWriteSequence(null);
+    firstFrameMetadata = createFrameMetadata(true);
+    frameMetadata = createFrameMetadata(false);
+    
+    renderers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("snapshot-renderer"));
+    writer = Executors.newSingleThreadExecutor(new DaemonThreadFactory("snapshot-writer"));
+    inFlight = new Semaphore(2 * threads + 1);
+  }
+  
+  /**
+   * It creates the metadata of a frame: frame delay and optionally infinite looping (NETSCAPE2.0 extension).
+   */
+  private IIOMetadata createFrameMetadata(boolean isLooping) throws IOException {
+    final ImageTypeSpecifier type = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_INDEXED);
+    final IIOMetadata metadata = gifWriter.getDefaultImageMetadata(type, gifWriter.getDefaultWriteParam());
+    final String format = metadata.getNativeMetadataFormatName();
+    final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+    
+    final IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+    control.setAttribute("disposalMethod", "none");
+    control.setAttribute("userInputFlag", "FALSE");
+    control.setAttribute("transparentColorFlag", "FALSE");
+    control.setAttribute("delayTime", Integer.toString(Java2DRenderer.FRAME_DELAY));
+    control.setAttribute("transparentColorIndex", "0");
+    root.appendChild(control);
+    if (!isLooping) {
+      metadata.setFromTree(format, root);
+      return metadata;
+    }
+    
+    final IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+    final IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+    loop.setAttribute("applicationID", "NETSCAPE");
+    loop.setAttribute("authenticationCode", "2.0");
+    loop.setUserObject(new byte[]{1, 0, 0});
+    extensions.appendChild(loop);
+    root.appendChild(extensions);
+    
+    metadata.setFromTree(format, root);
+    return metadata;
+  }
+  
+  @Override
+  public void render(final int iteration, final GMMSnapshot current, Histogram histogram) throws IOException {
+    checkError();
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the renderers!", e);
+    }
+    // the histogram is modified by the simulation, so it is copied
+    final double[] densities = histogram.getDensities();
+    final double histogramLower = histogram.getBinLowerBound(0);
+    final double binWidth = histogram.getBinWidth();
+    final Future<BufferedImage> frame = renderers.submit(new Callable<BufferedImage>() {
+      @Override
+      public BufferedImage call() {
+        return drawFrame(iteration, current, densities, histogramLower, binWidth);
+      }
+    });
+    writer.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (error == null) {
+            gifWriter.writeToSequence(new IIOImage(frame.get(), null, isFirstFrame ? firstFrameMetadata : frameMetadata), null);
+            isFirstFrame = false;
+          }
+        } catch (IOException e) {
+          error = e;
+        } catch (ExecutionException e) {
+          error = new IOException("The frame of iteration " + iteration + " cannot be rendered!", e.getCause());
+        } catch (InterruptedException e) {
+          error = new IOException("Interrupted while writing the frame of iteration " + iteration + "!", e);
+        } finally {
+          inFlight.release();
+        }
+      }
+    });
+  }
+  
+  /**
+   * It rethrows the first error of the background threads.
+   */
+  private void checkError() throws IOException {
+    if (error != null) {
+      throw error;
+    }
+  }
+  
+  private double toX(int px) {
+    return xMin + (xMax - xMin) * px / (expectedCurve.length - 1);
+  }
+  
+  private double toPx(double x) {
+    return Java2DRenderer.MARGIN_LEFT + (x - xMin) / (xMax - xMin) * (expectedCurve.length - 1);
+  }
+  
+  private double toPy(double y) {
+    final int plotHeight = Java2DRenderer.HEIGHT - Java2DRenderer.MARGIN_TOP - Java2DRenderer.MARGIN_BOTTOM;
+    return Java2DRenderer.MARGIN_TOP + plotHeight * (1.0 - Math.min(y, yMax * 1.05) / yMax);
+  }
+  
+  /**
+   * It draws a frame. The frame is drawn on a true color canvas with antialiasing, then it is converted
+   * into the indexed image which is written into the GIF (so the conversion also runs on the renderer
+   * threads).
+   */
+  private BufferedImage drawFrame(int iteration, GMMSnapshot current, double[] densities, double histogramLower, double binWidth) {
+    final BufferedImage canvas = new BufferedImage(Java2DRenderer.WIDTH, Java2DRenderer.HEIGHT, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D g = canvas.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, Java2DRenderer.WIDTH, Java2DRenderer.HEIGHT);
+    drawAxes(g, iteration);
+    
+    final int plotRight = Java2DRenderer.WIDTH - Java2DRenderer.MARGIN_RIGHT;
+    final int plotBottom = Java2DRenderer.HEIGHT - Java2DRenderer.MARGIN_BOTTOM;
+    g.clipRect(Java2DRenderer.MARGIN_LEFT, Java2DRenderer.MARGIN_TOP, plotRight - Java2DRenderer.MARGIN_LEFT + 1, plotBottom - Java2DRenderer.MARGIN_TOP + 1);
+    
+    // generated data
+    final Path2D.Double data = new Path2D.Double();
+    boolean isFirst = true;
+    for (int b = 0; b < densities.length; b ++) {
+      final double x = histogramLower + b * binWidth;
+      if (x >= xMin && x <= xMax) {
+        if (isFirst) {
+          data.moveTo(toPx(x), toPy(densities[b]));
+          isFirst = false;
+        } else {
+          data.lineTo(toPx(x), toPy(densities[b]));
+        }
+      }
+    }
+    g.setColor(Java2DRenderer.HISTOGRAM_COLOR);
+    g.setStroke(new BasicStroke(1.0f));
+    g.draw(data);
+    
+    // current pdf
+    final double[] curve = new double[expectedCurve.length];
+    for (int px = 0; px < curve.length; px ++) {
+      curve[px] = current.computeDensityValue(toX(px));
+    }
+    g.setColor(Java2DRenderer.CURRENT_COLOR);
+    g.setStroke(new BasicStroke(2.5f));
+    g.draw(toPath(curve));
+    
+    // components of the current pdf
+    g.setStroke(new BasicStroke(1.0f));
+    for (int i = 0; i < current.k; i ++) {
+      for (int px = 0; px < curve.length; px ++) {
+        final double d = toX(px) - current.m[i];
+        curve[px] = Math.exp(current.lw[i] + current.ln[i] - 0.5 * d * d * current.iv[i]);
+      }
+      g.setColor(Java2DRenderer.COMPONENT_COLORS[i % Java2DRenderer.COMPONENT_COLORS.length]);
+      g.draw(toPath(curve));
+    }
+    
+    // expected pdf
+    g.setColor(Java2DRenderer.EXPECTED_COLOR);
+    g.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1.0f, new float[]{6.0f, 4.0f}, 0.0f));
+    g.draw(toPath(expectedCurve));
+    
+    g.setClip(null);
+    drawLegend(g, current.k);
+    g.dispose();
+    
+    // convert the frame to the default 256 color palette
+    final BufferedImage frame = new BufferedImage(Java2DRenderer.WIDTH, Java2DRenderer.HEIGHT, BufferedImage.TYPE_BYTE_INDEXED);
+    final Graphics2D fg = frame.createGraphics();
+    fg.drawImage(canvas, 0, 0, null);
+    fg.dispose();
+    return frame;
+  }
+  
+  private Path2D.Double toPath(double[] curve) {
+    final Path2D.Double path = new Path2D.Double();
+    path.moveTo(toPx(toX(0)), toPy(curve[0]));
+    for (int px = 1; px < curve.length; px ++) {
+      path.lineTo(toPx(toX(px)), toPy(curve[px]));
+    }
+    return path;
+  }
+  
+  /**
+   * It draws the frame of the plot, the ticks, their labels and the title.
+   */
+  private void drawAxes(Graphics2D g, int iteration) {
+    final int plotRight = Java2DRenderer.WIDTH - Java2DRenderer.MARGIN_RIGHT;
+    final int plotBottom = Java2DRenderer.HEIGHT - Java2DRenderer.MARGIN_BOTTOM;
+    g.setColor(Color.BLACK);
+    g.setStroke(new BasicStroke(1.0f));
+    g.drawRect(Java2DRenderer.MARGIN_LEFT, Java2DRenderer.MARGIN_TOP, plotRight - Java2DRenderer.MARGIN_LEFT, plotBottom - Java2DRenderer.MARGIN_TOP);
+    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+    
+    // x ticks
+    final double xStep = Java2DRenderer.niceStep(xMax - xMin, 10);
+    for (double x = Math.ceil(xMin / xStep) * xStep; x <= xMax + 1e-9; x += xStep) {
+      final int px = (int) Math.round(toPx(x));
+      g.drawLine(px, plotBottom, px, plotBottom - 5);
+      final String label = Java2DRenderer.formatTick(x, xStep);
+      g.drawString(label, px - g.getFontMetrics().stringWidth(label) / 2, plotBottom + 18);
+    }
+    
+    // y ticks
+    final double yStep = Java2DRenderer.niceStep(yMax, 8);
+    for (double y = 0.0; y <= yMax + 1e-12; y += yStep) {
+      final int py = (int) Math.round(toPy(y));
+      g.drawLine(Java2DRenderer.MARGIN_LEFT, py, Java2DRenderer.MARGIN_LEFT + 5, py);
+      final String label = Java2DRenderer.formatTick(y, yStep);
+      g.drawString(label, Java2DRenderer.MARGIN_LEFT - 8 - g.getFontMetrics().stringWidth(label), py + 4);
+    }
+    
+    // title
+    g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
+    final String title = "GMM Simulation, Iteration=" + iteration;
+    g.drawString(title, (Java2DRenderer.WIDTH - g.getFontMetrics().stringWidth(title)) / 2, Java2DRenderer.MARGIN_TOP - 14);
+  }
+  
+  /**
+   * It draws the legend into the upper right corner of the plot.
+   */
+  private void drawLegend(Graphics2D g, int k) {
+    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+    final int lineHeight = 16;
+    final int right = Java2DRenderer.WIDTH - Java2DRenderer.MARGIN_RIGHT - 10;
+    int y = Java2DRenderer.MARGIN_TOP + 18;
+    y = drawLegendEntry(g, "generated data", Java2DRenderer.HISTOGRAM_COLOR, new BasicStroke(1.0f), right, y) + lineHeight;
+    y = drawLegendEntry(g, "current pdf", Java2DRenderer.CURRENT_COLOR, new BasicStroke(2.5f), right, y) + lineHeight;
+    for (int i = 0; i < k; i ++) {
+      y = drawLegendEntry(g, "component " + i + " pdf", Java2DRenderer.COMPONENT_COLORS[i % Java2DRenderer.COMPONENT_COLORS.length], new BasicStroke(1.0f), right, y) + lineHeight;
+    }
+    drawLegendEntry(g, "expected pdf", Java2DRenderer.EXPECTED_COLOR, new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1.0f, new float[]{6.0f, 4.0f}, 0.0f), right, y);
+  }
+  
+  private int drawLegendEntry(Graphics2D g, String label, Color color, Stroke stroke, int right, int y) {
+    g.setColor(color);
+    g.setStroke(stroke);
+    g.drawLine(right - 30, y - 4, right, y - 4);
+    g.setColor(Color.BLACK);
+    g.drawString(label, right - 38 - g.getFontMetrics().stringWidth(label), y);
+    return y;
+  }
+  
+  /**
+   * It returns a round (1, 2 or 5 times a power of ten) step which divides the range into at most maxTicks parts.
+   */
+  private static double niceStep(double range, int maxTicks) {
+    final double raw = range / maxTicks;
+    final double magnitude = Math.pow(10.0, Math.floor(Math.log10(raw)));
+    final double normalized = raw / magnitude;
+    return ((normalized <= 1.0) ? 1.0 : (normalized <= 2.0) ? 2.0 : (normalized <= 5.0) ? 5.0 : 10.0) * magnitude;
+  }
+  
+  private static String formatTick(double value, double step) {
+    final int decimals = Math.max(0, (int) -Math.floor(Math.log10(step)));
+    return String.format("%." + decimals + "f", (Math.abs(value) < step * 1e-6) ? 0.0 : value);
+  }
+  
+  /**
+   * This factory creates named daemon threads, so the pending frames do not keep the JVM alive.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    
+    DaemonThreadFactory(String name) {
+      this.name = name;
+    }
+    
+    @Override
+    public Thread newThread(Runnable r) {
+      final Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    renderers.shutdown();
+    writer.shutdown();
+    try {
+      while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+        // waiting for the pending frames
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the pending frames!", e);
+    } finally {
+      renderers.shutdownNow();
+    }
+    try {
+      checkError();
+      gifWriter.endWriteSequence();
+    } finally {
+      gifWriter.dispose();
+      output.close();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package densityEstimator;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * This strategy seeds k centers by k-means++ (each center is drawn with probability proportional to
+ * the squared distance from the nearest center drawn so far), refines them by at most MAX_ITERATIONS
+ * Lloyd iterations and estimates each component from the samples of its cluster. Unlike the quantile
+ * slices, the clusters follow the gaps of the data, so small, well separated groups of samples get
+ * their own components. The generator is seeded by a constant, so the result depends only on the samples.
+ * 
+ * @author Róbert Ormándi
+ */
+public class KMeansPlusPlusInitialization extends InitializationStrategy {
+  private static final long serialVersionUID = -4893016260637912371L;
+  private static final int MAX_ITERATIONS = 20;
+  private static final long SEED = 0x6B6D65616E73L;
+  
+  @Override
+  public String getName() {
+    return "kmeans++";
+  }
+  
+  @Override
+  public void initialize(double[] xs, int n, int k, double[] w, double[] m, double[] v) {
+    final SplittableRandom rng = new SplittableRandom(KMeansPlusPlusInitialization.SEED);
+    
+    // seeding
+    final double[] centers = new double[k];
+    final double[] distances = new double[n];
+    centers[0] = xs[rng.nextInt(n)];
+    double total = 0.0;
+    for (int j = 0; j < n; j ++) {
+      final double d = xs[j] - centers[0];
+      distances[j] = d * d;
+      total += distances[j];
+    }
+    for (int i = 1; i < k; i ++) {
+      int chosen = n - 1;
+      if (total > 0.0) {
+        double r = rng.nextDouble() * total;
+        for (int j = 0; j < n; j ++) {
+          r -= distances[j];
+          if (r < 0.0) {
+            chosen = j;
+            break;
+          }
+        }
+      } else {
+        chosen = rng.nextInt(n); // every sample is a center already
+      }
+      centers[i] = xs[chosen];
+      total = 0.0;
+      for (int j = 0; j < n; j ++) {
+        final double d = xs[j] - centers[i];
+        distances[j] = Math.min(distances[j], d * d);
+        total += distances[j];
+      }
+    }
+    
+    // Lloyd iterations (in one dimension the nearest center is found by binary search in the sorted centers)
+    final int[] assignment = new int[n];
+    final double[] sums = new double[k];
+    final int[] counts = new int[k];
+    for (int iteration = 0; iteration < KMeansPlusPlusInitialization.MAX_ITERATIONS; iteration ++) {
+      Arrays.sort(centers);
+      boolean changed = false;
+      Arrays.fill(sums, 0.0);
+      Arrays.fill(counts, 0);
+      for (int j = 0; j < n; j ++) {
+        final int i = KMeansPlusPlusInitialization.nearest(centers, xs[j]);
+        changed |= (i != assignment[j]) || iteration == 0;
+        assignment[j] = i;
+        sums[i] += xs[j];
+        counts[i] ++;
+      }
+      if (!changed) {
+        break;
+      }
+      for (int i = 0; i < k; i ++) {
+        if (counts[i] > 0) {
+          centers[i] = sums[i] / counts[i];
+        }
+      }
+    }
+    System.arraycopy(centers, 0, m, 0, k);
+    InitializationStrategy.estimate(xs, n, assignment, k, w, m, v);
+  }
+  
+  /**
+   * It returns the index of the center which is the nearest to x.
+   */
+  private static int nearest(double[] centers, double x) {
+    int lo = 0, hi = centers.length - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (x - centers[mid] > centers[mid + 1] - x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
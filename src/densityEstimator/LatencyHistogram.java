@@ -0,0 +1,128 @@
+package densityEstimator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a thread-safe histogram of latencies (in nanoseconds) with log-linear buckets: the values
+ * below 16 have their own bucket, the larger ones are put into 4 buckets per power of two, so the
+ * relative error of the percentiles is at most 25% over the whole range of long values while the
+ * histogram has a fixed size of 256 counters. Recording a value never allocates.
+ * 
+ * @author Róbert Ormándi
+ */
+public class LatencyHistogram {
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int NUMBER_OF_BUCKETS = LatencyHistogram.LINEAR_BUCKETS + (63 - 4) * (1 << LatencyHistogram.SUB_BUCKET_BITS) + (1 << LatencyHistogram.SUB_BUCKET_BITS);
+  
+  protected final AtomicLongArray buckets = new AtomicLongArray(LatencyHistogram.NUMBER_OF_BUCKETS);
+  protected final LongAdder count = new LongAdder(); // number of recorded values
+  protected final LongAdder sum = new LongAdder();   // sum of the recorded values
+  protected final AtomicLong max = new AtomicLong(0); // largest recorded value
+  
+  /**
+   * It records a latency.
+   * 
+   * @param nanos latency in nanoseconds (the negative values are recorded as 0)
+   */
+  public void record(long nanos) {
+    final long value = Math.max(nanos, 0L);
+    buckets.incrementAndGet(LatencyHistogram.bucketOf(value));
+    count.increment();
+    sum.add(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+  
+  /**
+   * It returns the index of the bucket of the given non-negative value.
+   */
+  private static int bucketOf(long value) {
+    if (value < LatencyHistogram.LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value); // at least 4
+    final int sub = (int) (value >>> (exponent - LatencyHistogram.SUB_BUCKET_BITS)) & ((1 << LatencyHistogram.SUB_BUCKET_BITS) - 1);
+    return LatencyHistogram.LINEAR_BUCKETS + ((exponent - 4) << LatencyHistogram.SUB_BUCKET_BITS) + sub;
+  }
+  
+  /**
+   * It returns the largest value which belongs to the given bucket.
+   */
+  private static long upperBoundOf(int bucket) {
+    if (bucket < LatencyHistogram.LINEAR_BUCKETS) {
+      return bucket;
+    }
+    final int exponent = ((bucket - LatencyHistogram.LINEAR_BUCKETS) >> LatencyHistogram.SUB_BUCKET_BITS) + 4;
+    final long sub = (bucket - LatencyHistogram.LINEAR_BUCKETS) & ((1 << LatencyHistogram.SUB_BUCKET_BITS) - 1);
+    final long lower = (1L << exponent) + (sub << (exponent - LatencyHistogram.SUB_BUCKET_BITS));
+    return lower + (1L << (exponent - LatencyHistogram.SUB_BUCKET_BITS)) - 1;
+  }
+  
+  /**
+   * It returns an upper estimate of the <i>q</i> quantile of the recorded values i.e. the upper
+   * bound of the bucket which contains it.
+   * 
+   * @param q quantile between 0 and 1 (e.g. 0.99)
+   * @return quantile in nanoseconds or 0 if there is no recorded value
+   */
+  public long getPercentile(double q) {
+    final long total = count.sum();
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(q * total));
+    long seen = 0;
+    for (int b = 0; b < LatencyHistogram.NUMBER_OF_BUCKETS; b ++) {
+      seen += buckets.get(b);
+      if (seen >= rank) {
+        return Math.min(LatencyHistogram.upperBoundOf(b), max.get());
+      }
+    }
+    return max.get();
+  }
+  
+  /**
+   * It returns the number of recorded values.
+   * 
+   * @return number of values
+   */
+  public long getCount() {
+    return count.sum();
+  }
+  
+  /**
+   * It returns the mean of the recorded values.
+   * 
+   * @return mean in nanoseconds or 0 if there is no recorded value
+   */
+  public double getMean() {
+    final long n = count.sum();
+    return (n == 0) ? 0.0 : sum.sum() / (double) n;
+  }
+  
+  /**
+   * It returns the largest recorded value.
+   * 
+   * @return maximum in nanoseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+  
+  /**
+   * It clears the histogram. The values which are recorded concurrently with the reset may be lost.
+   */
+  public void reset() {
+    for (int b = 0; b < LatencyHistogram.NUMBER_OF_BUCKETS; b ++) {
+      buckets.set(b, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+}
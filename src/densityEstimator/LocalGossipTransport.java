@@ -0,0 +1,60 @@
+package densityEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is an in-process transport of a GossipNetwork which delivers the messages into a mailbox of
+ * each node immediately. A message is counted as 4 + 3 * 8 * k bytes (the number of components 
+ * and the parameters).
+ * 
+ * @author Róbert Ormándi
+ */
+public class LocalGossipTransport implements GossipTransport {
+  private final List<List<GMMSnapshot>> mailboxes; // delivered messages of each node
+  private final AtomicLong messages = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  
+  /**
+   * It creates a transport between the given number of nodes.
+   * 
+   * @param numberOfNodes number of nodes
+   */
+  public LocalGossipTransport(int numberOfNodes) {
+    mailboxes = new ArrayList<List<GMMSnapshot>>(numberOfNodes);
+    for (int i = 0; i < numberOfNodes; i ++) {
+      mailboxes.add(new ArrayList<GMMSnapshot>());
+    }
+  }
+  
+  @Override
+  public void send(int from, int to, GMMSnapshot message) {
+    final List<GMMSnapshot> mailbox = mailboxes.get(to);
+    synchronized (mailbox) {
+      mailbox.add(message);
+    }
+    messages.incrementAndGet();
+    bytes.addAndGet(4 + 3 * 8 * message.getNumberOfComponents());
+  }
+  
+  @Override
+  public List<GMMSnapshot> receive(int node) {
+    final List<GMMSnapshot> mailbox = mailboxes.get(node);
+    synchronized (mailbox) {
+      final List<GMMSnapshot> ret = new ArrayList<GMMSnapshot>(mailbox);
+      mailbox.clear();
+      return ret;
+    }
+  }
+  
+  @Override
+  public long getNumberOfMessages() {
+    return messages.get();
+  }
+  
+  @Override
+  public long getNumberOfBytes() {
+    return bytes.get();
+  }
+}
@@ -0,0 +1,127 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Log-normal components, i.e. the logarithms of the samples are Gaussian. It fits positive heavy-tailed
+ * data (e.g. latencies) with far fewer components than Gaussians. Parameters: mean and standard deviation
+ * of log(x). Coefficients: the same as for GaussianFamily on log(x). Statistics: sums of 1, log(x) and 
+ * log(x)^2. The support is x &gt; 0.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class LogNormalFamily extends ComponentFamily {
+  private static final long serialVersionUID = -2391762209574521936L;
+  
+  @Override
+  public String getName() {
+    return "lognormal";
+  }
+  
+  @Override
+  public int getNumberOfParameters() {
+    return 2;
+  }
+  
+  @Override
+  public int getNumberOfCoefficients() {
+    return 3;
+  }
+  
+  @Override
+  public int getNumberOfStatistics() {
+    return 3;
+  }
+  
+  @Override
+  public boolean isInSupport(double x) {
+    return x > 0.0 && x < Double.POSITIVE_INFINITY;
+  }
+  
+  @Override
+  public void computeCoefficients(double[] params, int p, double[] coefs, int c) {
+    coefs[c] = params[p];
+    coefs[c + 1] = - Math.log(params[p + 1]) - AbstractGMM.LOG_SQRT2PI;
+    coefs[c + 2] = -0.5 / (params[p + 1] * params[p + 1]);
+  }
+  
+  @Override
+  public double computeLogDensity(double[] coefs, int c, double x) {
+    if (!(x > 0.0)) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    final double y = Math.log(x);
+    final double d = y - coefs[c];
+    return coefs[c + 1] + coefs[c + 2] * d * d - y;
+  }
+  
+  @Override
+  public void accumulate(double[] stats, int s, double g, double x) {
+    final double y = Math.log(x);
+    stats[s] += g;
+    stats[s + 1] += g * y;
+    stats[s + 2] += g * y * y;
+  }
+  
+  @Override
+  public void maximize(double[] stats, int s, double[] params, int p) {
+    final double mean = stats[s + 1] / stats[s];
+    final double sigma = Math.sqrt(stats[s + 2] / stats[s] - mean * mean);
+    params[p] = mean;
+    params[p + 1] = (sigma < SufficientStatistics.EPS || Double.isNaN(sigma)) ? SufficientStatistics.EPS : sigma; // numeric issue
+  }
+  
+  @Override
+  public int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats) {
+    int zeros = 0;
+    for (int j = offset; j < offset + n; j ++) {
+      if (!(xs[j] > 0.0)) {
+        zeros ++;
+        continue;
+      }
+      // the log is computed once per sample
+      final double y = Math.log(xs[j]);
+      for (int i = 0; i < k; i ++) {
+        final double d = y - coefs[3 * i];
+        p[i] = lw[i] + coefs[3 * i + 1] + coefs[3 * i + 2] * d * d;
+      }
+      if (!ComponentFamily.normalize(p, k)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        final double g = p[i];
+        stats[3 * i] += g;
+        stats[3 * i + 1] += g * y;
+        stats[3 * i + 2] += g * y * y;
+      }
+    }
+    return zeros;
+  }
+  
+  @Override
+  public double getMean(double[] params, int p) {
+    return Math.exp(params[p] + 0.5 * params[p + 1] * params[p + 1]);
+  }
+  
+  @Override
+  public double getStandardDeviation(double[] params, int p) {
+    final double s2 = params[p + 1] * params[p + 1];
+    return Math.sqrt(Math.expm1(s2)) * Math.exp(params[p] + 0.5 * s2);
+  }
+  
+  @Override
+  public double computeCdf(double[] params, int p, double x) {
+    return (x > 0.0) ? QuantileTable.normalCdf((Math.log(x) - params[p]) / params[p + 1]) : ((x == x) ? 0.0 : x);
+  }
+  
+  @Override
+  public double computeTailProbability(double[] params, int p, double x) {
+    return (x > 0.0) ? QuantileTable.normalTail((Math.log(x) - params[p]) / params[p + 1]) : ((x == x) ? 1.0 : x);
+  }
+  
+  @Override
+  public double sample(double[] params, int p, RandomGenerator rng) {
+    return Math.exp(params[p] + params[p + 1] * rng.nextGaussian());
+  }
+}
@@ -0,0 +1,19 @@
+package densityEstimator;
+
+/**
+ * This is a general representation of the rule which is used by the nodes of a GossipNetwork to
+ * merge the model received from a peer into their own model.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface MergeRule {
+  /**
+   * It merges the two models into a new one. Both models are received as immutable snapshots, so
+   * the method can be called concurrently by several nodes.
+   * 
+   * @param local current model of the node
+   * @param remote model received from the peer
+   * @return merged model
+   */
+  public GMMSnapshot merge(GMMSnapshot local, GMMSnapshot remote);
+}
@@ -0,0 +1,130 @@
+package densityEstimator;
+
+import java.io.Serializable;
+
+/**
+ * This is an immutable copy of the values of EstimatorMetrics at a point of time. The values
+ * are read one by one, so a snapshot which is taken during updates is not atomic, but each
+ * value is consistent on its own. The latencies are given in nanoseconds.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class MetricsSnapshot implements Serializable {
+  private static final long serialVersionUID = 6230741885121369508L;
+  
+  private final long samples;
+  private final long updates;
+  private final long mSteps;
+  private final double samplesPerSecond;
+  private final double updateLatencyMean;
+  private final long updateLatencyP50;
+  private final long updateLatencyP99;
+  private final long updateLatencyMax;
+  private final double mStepLatencyMean;
+  private final long mStepLatencyP99;
+  private final long mStepLatencyMax;
+  private final double averageLogLikelihood;
+  private final double lastBatchLogLikelihood;
+  private final long zeroDensityEvents;
+  private final long epsClampEvents;
+  private final long collapseEvents;
+  private final int deadComponents;
+  
+  MetricsSnapshot(EstimatorMetrics metrics) {
+    samples = metrics.getSamples();
+    updates = metrics.getUpdates();
+    mSteps = metrics.getMSteps();
+    samplesPerSecond = metrics.getSamplesPerSecond();
+    updateLatencyMean = metrics.getUpdateLatencyMean();
+    updateLatencyP50 = metrics.getUpdateLatencyP50();
+    updateLatencyP99 = metrics.getUpdateLatencyP99();
+    updateLatencyMax = metrics.getUpdateLatencyMax();
+    mStepLatencyMean = metrics.getMStepLatencyMean();
+    mStepLatencyP99 = metrics.getMStepLatencyP99();
+    mStepLatencyMax = metrics.getMStepLatencyMax();
+    averageLogLikelihood = metrics.getAverageLogLikelihood();
+    lastBatchLogLikelihood = metrics.getLastBatchLogLikelihood();
+    zeroDensityEvents = metrics.getZeroDensityEvents();
+    epsClampEvents = metrics.getEpsClampEvents();
+    collapseEvents = metrics.getCollapseEvents();
+    deadComponents = metrics.getDeadComponents();
+  }
+  
+  public long getSamples() {
+    return samples;
+  }
+  
+  public long getUpdates() {
+    return updates;
+  }
+  
+  public long getMSteps() {
+    return mSteps;
+  }
+  
+  public double getSamplesPerSecond() {
+    return samplesPerSecond;
+  }
+  
+  public double getUpdateLatencyMean() {
+    return updateLatencyMean;
+  }
+  
+  public long getUpdateLatencyP50() {
+    return updateLatencyP50;
+  }
+  
+  public long getUpdateLatencyP99() {
+    return updateLatencyP99;
+  }
+  
+  public long getUpdateLatencyMax() {
+    return updateLatencyMax;
+  }
+  
+  public double getMStepLatencyMean() {
+    return mStepLatencyMean;
+  }
+  
+  public long getMStepLatencyP99() {
+    return mStepLatencyP99;
+  }
+  
+  public long getMStepLatencyMax() {
+    return mStepLatencyMax;
+  }
+  
+  public double getAverageLogLikelihood() {
+    return averageLogLikelihood;
+  }
+  
+  public double getLastBatchLogLikelihood() {
+    return lastBatchLogLikelihood;
+  }
+  
+  public long getZeroDensityEvents() {
+    return zeroDensityEvents;
+  }
+  
+  public long getEpsClampEvents() {
+    return epsClampEvents;
+  }
+  
+  public long getCollapseEvents() {
+    return collapseEvents;
+  }
+  
+  public int getDeadComponents() {
+    return deadComponents;
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("samples=%d, updates=%d, mSteps=%d, samples/sec=%.1f, " +
+        "update latency (mean/p50/p99/max)=%.1f/%d/%d/%d ns, M-step latency (mean/p99/max)=%.1f/%d/%d ns, " +
+        "log-likelihood (average/last batch)=%.4f/%.4f, zero density=%d, EPS clamps=%d, collapses=%d, dead components=%d",
+        samples, updates, mSteps, samplesPerSecond, updateLatencyMean, updateLatencyP50, updateLatencyP99, updateLatencyMax,
+        mStepLatencyMean, mStepLatencyP99, mStepLatencyMax, averageLogLikelihood, lastBatchLogLikelihood,
+        zeroDensityEvents, epsClampEvents, collapseEvents, deadComponents);
+  }
+}
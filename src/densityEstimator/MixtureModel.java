@@ -1,7 +1,9 @@
 package densityEstimator;
 
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
 import java.util.Map;
+import java.util.random.RandomGenerator;
 
 /**
  * This is a general representation of any mixture model
@@ -25,6 +27,26 @@ public interface MixtureModel extends Serializable {
    */
   public void update(double x);
   
+  /**
+   * It updates the model based on <i>length</i> consecutive samples of the array xs starting at
+   * index <i>offset</i>. The result has to be the same as calling update(double) for each
+   * sample in order (up to floating-point rounding), but implementations are free to process the 
+   * samples in blocks.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation which is used
+   * @param length number of observations which are used
+   */
+  public void update(double[] xs, int offset, int length);
+  
+  /**
+   * It updates the model based on the remaining samples of the buffer. After the call the
+   * position of the buffer is equal to its limit.
+   * 
+   * @param xs buffer of observations
+   */
+  public void update(DoubleBuffer xs);
+  
   /**
    * The method computes the value of probability density function (pdf) at x
    * based on the current parameter values.
@@ -35,6 +57,92 @@ public interface MixtureModel extends Serializable {
    */
   public double computeDensityValue(double x);
   
+  /**
+   * The method computes the natural logarithm of the probability density function (pdf) at x
+   * based on the current parameter values. It does not underflow for points which are far from
+   * every component, i.e. it can be used where computeDensityValue would return 0.
+   * 
+   * @param x value in which the log pdf function will be evaluated
+   * @return log of the pdf defined by the current parameter values (can be negative infinity)
+   */
+  public double computeLogDensityValue(double x);
+  
+  /**
+   * The method computes the values of the probability density function at each point of xs.
+   * It is equivalent to calling computeDensityValue for each point, but it can be implemented 
+   * more efficiently.
+   * 
+   * @param xs points in which the pdf will be evaluated
+   * @param out output array of the pdf values (its length has to be at least the length of xs)
+   */
+  public void computeDensityValues(double[] xs, double[] out);
+  
+  /**
+   * The method computes the logarithm of the probability density function at each point of xs.
+   * 
+   * @param xs points in which the log pdf will be evaluated
+   * @param out output array of the log pdf values (its length has to be at least the length of xs)
+   */
+  public void computeLogDensityValues(double[] xs, double[] out);
+  
+  /**
+   * The method computes the value of the cumulative distribution function (cdf) at x i.e. the
+   * probability of the samples which are not greater than x, based on the current parameter values.
+   * 
+   * @param x value in which the cdf will be evaluated
+   * @return value of the cdf in [0, 1]
+   */
+  public double computeCdf(double x);
+  
+  /**
+   * The method computes the tail probability at x i.e. the probability of the samples which are 
+   * greater than x. It is computed directly instead of 1 - computeCdf(x), so it keeps its relative
+   * precision far in the upper tail (e.g. for alerting thresholds of 1e-9).
+   * 
+   * @param x value in which the tail probability will be evaluated
+   * @return tail probability in [0, 1]
+   */
+  public double computeTailProbability(double x);
+  
+  /**
+   * The method computes the quantile of the probability p i.e. the smallest x for which the cdf is 
+   * at least p (e.g. p = 0.99 gives the p99 of the distribution). The implementations answer it from 
+   * a table of the inverse cdf which is rebuilt only when the parameters change.
+   * 
+   * @param p probability in [0, 1]
+   * @return quantile (negative infinity for 0 and positive infinity for 1)
+   */
+  public double computeQuantile(double p);
+  
+  /**
+   * It draws a sample from the mixture defined by the current parameter values.
+   * 
+   * @param rng source of randomness
+   * @return sample
+   */
+  public double sample(RandomGenerator rng);
+  
+  /**
+   * It fills the array with independent samples from the mixture defined by the current parameter values.
+   * 
+   * @param out output array of the samples
+   * @param rng source of randomness
+   */
+  public void sample(double[] out, RandomGenerator rng);
+  
+  /**
+   * It fills <i>length</i> consecutive elements of the array starting at index <i>offset</i> with
+   * independent samples from the mixture. If the generator is a SplittableGenerator, large requests
+   * can be generated in parallel from generators split off the given one; the result depends only 
+   * on the state of the generator and not on the number of threads.
+   * 
+   * @param out output array of the samples
+   * @param offset index of the first generated sample
+   * @param length number of generated samples
+   * @param rng source of randomness
+   */
+  public void sample(double[] out, int offset, int length, RandomGenerator rng);
+  
   /**
    * It returns the component weights of the model as a double array.
    * 
@@ -74,6 +182,21 @@ public interface MixtureModel extends Serializable {
    */
   public void setNumberOfComponents(int num);
   
+  /**
+   * It attaches the metrics to the model, which records its runtime metrics from now on. The
+   * instrumentation is turned off by null, which is the default.
+   * 
+   * @param metrics metrics to which the model reports or null
+   */
+  public void setMetrics(EstimatorMetrics metrics);
+  
+  /**
+   * It returns the attached metrics.
+   * 
+   * @return attached metrics or null
+   */
+  public EstimatorMetrics getMetrics();
+  
   /**
    * This method parses and sets the parameters of the Mixture Model from a string which contains comma separeted 
    * param, value pairs in form parmName=value.
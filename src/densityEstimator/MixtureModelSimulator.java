@@ -1,14 +1,14 @@
 package densityEstimator;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.FileInputStream;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
 
 
@@ -17,55 +17,537 @@ import java.util.TreeMap;
  * it generates samples from the MM and tries to estimate the parameteres of the given MM. During the
  * simulation in every <i>snapshot</i>th iteration it takes a picture about the current state of the
  * simulation. Finally it stitches together the pictures to a move.<br/>
- * This is a demo implementation, it is not optimized and has a lot of prerequirements like having bash,
- * gnuplot, convert commands installed on the target machine!
+ * By default the pictures are drawn in-process by Java2DRenderer on background threads and written
+ * into an animated GIF. The option -renderer=gnuplot selects the original GnuplotRenderer which
+ * has a lot of prerequirements like having bash, gnuplot, convert commands installed on the target 
+ * machine (only this renderer uses the temporary directory).<br/>
+ * When the first argument is -headless, the simulator does not render anything, it only measures
+ * the throughput and the update latency of the estimator, so it can be used as a regression harness
+ * for long runs. With the option -metrics[=name] the runtime metrics of the estimator are collected,
+ * exposed through JMX (densityEstimator:type=EstimatorMetrics,name=...) and printed at the end.<br/>
+ * The option -input=source replaces the generated samples with an external stream, where source is
+ * one of binary:fileName (little-endian doubles), text:fileName[:column] (CSV or whitespace separated 
+ * columns) or stdin[:column]. The external streams are read on a dedicated thread.<br/>
+ * With the option -gossip=numberOfNodes the simulator runs a headless decentralized simulation: the 
+ * stream is sharded among the models of a GossipNetwork, which exchange their models with random peers 
+ * after every -gossipPeriod samples per node (-mergeRule selects the MergeRule). At every snapshot it 
+ * reports the traffic and the L1 distances of the nodes from the expected mixture and from each other.<br/>
+ * With the option -sweep[=resultFile] the simulator trains every candidate of a ParameterSweep grid on
+ * the same stream in parallel and writes a table of their final parameters, errors and throughputs.
  * 
  * @author Róbert Ormándi
  */
 public class MixtureModelSimulator {
+  private static final int HEADLESS_BLOCK_SIZE = 4096;
+  private static final double HISTOGRAM_RANGE_IN_SIGMAS = 8.0;
+  private static final int INPUT_BLOCK_SIZE = 1 << 16;
+  private static final int INPUT_BLOCKS = 4;
+  private static final int DEFAULT_GOSSIP_PERIOD = 1000;
+  private static final String DEFAULT_MERGE_RULE = "densityEstimator.MomentMatchingRule";
+  private static final double DEFAULT_GOSSIP_TOLERANCE = 0.05;
+  private static final int SWEEP_BLOCK_SIZE = 1 << 16;
+  private static final int SWEEP_HELD_OUT_SAMPLES = 10000;
   
-  private static double generateNextDouble(double[] expW, double[] expNu, double[] expSigma, Random r){
-    double rand = r.nextDouble();
-    int index = 0;
-    double lower = 0.0, upper = 0.0;
-    for (int i = 0; i < expW.length && rand != 0.0; i++){
-      upper += expW[i];
-      if (lower < rand && rand <= upper){
-        index = i;
+  private static double[] parseArray(String sArray) {
+    String[] parts = sArray.split(",");
+    double[] ret = new double[parts.length];
+    for (int i = 0; i < parts.length; i ++) {
+      ret[i] = Double.parseDouble(parts[i]);
+    }
+    return ret;
+  }
+  
+  /**
+   * It parses the leading options (arguments in form -name or -name=value) of the command line.
+   * 
+   * @param args command line arguments
+   * @param options output map of the parsed options
+   * @return the remaining (positional) arguments
+   */
+  private static String[] parseOptions(String[] args, Map<String,String> options) {
+    int idx = 0;
+    while (idx < args.length && args[idx].length() > 1 && args[idx].charAt(0) == '-' && Character.isLetter(args[idx].charAt(1))) {
+      String[] nameValuePair = args[idx].substring(1).split("=", 2);
+      options.put(nameValuePair[0], (nameValuePair.length == 2) ? nameValuePair[1] : "true");
+      idx ++;
+    }
+    return Arrays.copyOfRange(args, idx, args.length);
+  }
+  
+  /**
+   * It creates a histogram which covers the expected mixture with bins of width 1/precision.
+   * 
+   * @return empty histogram
+   */
+  private static Histogram createHistogram(double[] expW, double[] expNu, double[] expSigma, double precision) {
+    double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < expW.length; i ++) {
+      lower = Math.min(lower, expNu[i] - MixtureModelSimulator.HISTOGRAM_RANGE_IN_SIGMAS * expSigma[i]);
+      upper = Math.max(upper, expNu[i] + MixtureModelSimulator.HISTOGRAM_RANGE_IN_SIGMAS * expSigma[i]);
+    }
+    lower = Math.floor(lower * precision) / precision;
+    upper = Math.ceil(upper * precision) / precision;
+    return new Histogram(lower, (upper > lower) ? upper : lower + 1.0, 1.0 / precision);
+  }
+  
+  /**
+   * It creates a histogram with bins of width 1/precision whose range is three times wider than 
+   * the range of the given samples. It is used when the expected mixture is unknown.
+   * 
+   * @return empty histogram
+   */
+  private static Histogram createHistogram(double[] xs, int n, double precision) {
+    double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+    for (int j = 0; j < n; j ++) {
+      lower = Math.min(lower, xs[j]);
+      upper = Math.max(upper, xs[j]);
+    }
+    final double width = Math.max(upper - lower, 1.0);
+    lower = Math.floor((lower - width) * precision) / precision;
+    upper = Math.ceil((upper + width) * precision) / precision;
+    return new Histogram(lower, upper, 1.0 / precision);
+  }
+  
+  /**
+   * It opens the source of the samples. If no input is specified, the samples are generated from the
+   * expected mixture, otherwise the external stream is read through a PipelinedSampleSource.
+   * 
+   * @param input specification of the input (binary:fileName, text:fileName[:column], stdin[:column]) or null
+   * @return source of the samples
+   */
+  private static SampleSource openInput(String input, double[] expW, double[] expNu, double[] expSigma, long seed) throws Exception {
+    if (input == null) {
+      return new MixtureSampleSource(expW, expNu, expSigma, new SplittableRandom(seed));
+    }
+    // the optional column index is the last :number part
+    int column = 0;
+    String name = input;
+    int colon = input.lastIndexOf(':');
+    if (colon > 0 && colon < input.length() - 1 && input.substring(colon + 1).matches("\\d+") && !input.startsWith("binary:")) {
+      column = Integer.parseInt(input.substring(colon + 1));
+      name = input.substring(0, colon);
+    }
+    SampleSource source;
+    if (name.equals("stdin")) {
+      source = new TextSampleSource(System.in, column);
+    } else if (name.startsWith("text:")) {
+      source = new TextSampleSource(new FileInputStream(name.substring(5)), column);
+    } else if (name.startsWith("binary:")) {
+      source = new BinarySampleSource(new File(name.substring(7)));
+    } else {
+      throw new RuntimeException("Unknown input " + input + ", it has to be binary:fileName, text:fileName[:column] or stdin[:column]!");
+    }
+    return new PipelinedSampleSource(source, MixtureModelSimulator.INPUT_BLOCK_SIZE, MixtureModelSimulator.INPUT_BLOCKS);
+  }
+  
+  public static void main(String[] args) throws Exception{
+    Map<String,String> options = new TreeMap<String,String>();
+    args = parseOptions(args, options);
+    if (options.containsKey("gossip")) {
+      simulateGossip(args, options);
+    } else if (options.containsKey("sweep")) {
+      simulateSweep(args, options);
+    } else if (options.containsKey("headless")) {
+      simulateHeadless(args, options);
+    } else {
+      simulate(args, options);
+    }
+  }
+  
+  /**
+   * This method runs the simulation without rendering. It reports the throughput and the update latency at 
+   * every snapshot, and the final parameters at the end. In case of an external input the expected mixture
+   * can be given as - - - and the number of samples as 0, which means the whole stream.
+   * 
+   * @param args positional command line arguments
+   * @param options command line options
+   */
+  private static void simulateHeadless(String[] args, Map<String,String> options) throws Exception {
+    if (args.length != 8 && args.length != 9) {
+      System.err.println("Usage: java -jar gmmtest.jar -headless [-input=source] [-metrics[=name]] w1,w2,...,wn m1,m2,...,mn v1,v2,...,vn snapshotStepSize numberOfGeneratedSamples mixtureModelClassName numberOfComponents mixtureModelParams [seed]");
+      return;
+    }
+    final String input = options.get("input");
+    final boolean isExpectedKnown = input == null || !args[0].equals("-");
+    final double[] expW = isExpectedKnown ? parseArray(args[0]) : new double[0];
+    final double[] expNu = isExpectedKnown ? parseArray(args[1]) : new double[0];
+    final double[] expSigma = isExpectedKnown ? parseArray(args[2]) : new double[0];
+    if (expW.length != expNu.length || expNu.length != expSigma.length || expSigma.length != expW.length) {
+      throw new RuntimeException("The number of components, means and variances have to be equal.");
+    }
+    final long snapshotStepSize = Long.parseLong(args[3]);
+    final long numOfGeneratedSamples = (Long.parseLong(args[4]) > 0) ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+    final String mmName = args[5];
+    final int mmCompnents = Integer.parseInt(args[6]);
+    final String mmParams = args[7];
+    final long seed = (args.length == 9) ? Long.parseLong(args[8]) : System.currentTimeMillis();
+    
+    // create gmm
+    final Constructor<?> gmmConstructor = Class.forName(mmName).getConstructor(Integer.TYPE);    
+    final MixtureModel gmm = (MixtureModel) gmmConstructor.newInstance(mmCompnents);
+    gmm.parseParameters(mmParams);
+    EstimatorMetrics metrics = null;
+    if (options.containsKey("metrics")) {
+      metrics = new EstimatorMetrics();
+      metrics.register(options.get("metrics").equals("true") ? mmName : options.get("metrics"));
+      gmm.setMetrics(metrics);
+    }
+    
+    // perform simulation
+    final SampleSource source = openInput(input, expW, expNu, expSigma, seed);
+    Histogram histogram = isExpectedKnown ? createHistogram(expW, expNu, expSigma, 100.0) : null;
+    final double[] buffer = new double[MixtureModelSimulator.HEADLESS_BLOCK_SIZE];
+    long updateNanos = 0, windowUpdateNanos = 0;
+    double maxLatency = 0.0; // the largest average update time of a block (ns/sample)
+    final long start = System.nanoTime();
+    long windowStart = start;
+    long i = 0, windowStartIdx = 0;
+    while (i < numOfGeneratedSamples) {
+      final long nextSnapshot = (i / snapshotStepSize + 1) * snapshotStepSize;
+      final int n = source.read(buffer, 0, (int) Math.min(buffer.length, Math.min(numOfGeneratedSamples, nextSnapshot) - i));
+      if (n < 0) {
+        break;
+      }
+      
+      // update histogram (its range is given by the first block if the expected mixture is unknown)
+      if (histogram == null) {
+        histogram = createHistogram(buffer, n, 100.0);
+      }
+      histogram.add(buffer, 0, n);
+      
+      // update gmm
+      final long t = System.nanoTime();
+      gmm.update(buffer, 0, n);
+      final long dt = System.nanoTime() - t;
+      updateNanos += dt;
+      windowUpdateNanos += dt;
+      maxLatency = Math.max(maxLatency, dt / (double) n);
+      i += n;
+      
+      if (i % snapshotStepSize == 0 || i == numOfGeneratedSamples) {
+        // report the snapshot
+        final long now = System.nanoTime();
+        System.out.println(String.format("Snapshot %d: samples=%d, samples/sec=%.1f, update=%.2f ns/sample", 
+            (i - 1) / snapshotStepSize + 1, i, (i - windowStartIdx) * 1.0E9 / (now - windowStart), windowUpdateNanos / (double) (i - windowStartIdx)));
+        windowStart = now;
+        windowStartIdx = i;
+        windowUpdateNanos = 0;
+      }
+    }
+    final long elapsed = System.nanoTime() - start;
+    source.close();
+    
+    // show statistics and final parameter set
+    System.out.println("Statistics: ");
+    System.out.println("  Samples:           " + i);
+    System.out.println("  Elapsed time:      " + String.format("%.3f s", elapsed / 1.0E9));
+    System.out.println("  Samples/sec:       " + String.format("%.1f", i * 1.0E9 / elapsed));
+    System.out.println("  Update latency:    " + String.format("%.2f ns/sample (average), %.2f ns/sample (worst block)", updateNanos / (double) Math.max(i, 1), maxLatency));
+    if (histogram != null) {
+      System.out.println("  Histogram:         " + histogram.getUnderflow() + " underflow, " + histogram.getOverflow() + " overflow");
+    }
+    System.out.println("Final parameters: ");
+    printParameters(gmm);
+    if (metrics != null) {
+      System.out.println("Metrics: " + metrics.getSnapshot());
+      metrics.unregister();
+    }
+  }
+  
+  /**
+   * It prints the parameters of the model. The means and the variances of a FamilyMixtureModel are the 
+   * moments of its components, so the parameters of its family are printed as well.
+   */
+  private static void printParameters(MixtureModel gmm) {
+    System.out.println("  Component weights: " + Arrays.toString(gmm.getComponentWeights()));
+    System.out.println("  Means:             " + Arrays.toString(gmm.getComponentMeans()));
+    System.out.println("  Variances:         " + Arrays.toString(gmm.getComponentVariances()));
+    if (gmm instanceof FamilyMixtureModel) {
+      final FamilyMixtureModel model = (FamilyMixtureModel) gmm;
+      System.out.println("  Parameters:        " + model.getFamily().getName() + " " + Arrays.toString(model.getComponentParameters()));
+    }
+  }
+  
+  /**
+   * It reads samples into the buffer until it is full or the end of the stream is reached.
+   * 
+   * @return number of samples read (less than length only at the end of the stream)
+   */
+  private static int readFully(SampleSource source, double[] buffer, int length) throws Exception {
+    int n = 0;
+    while (n < length) {
+      final int r = source.read(buffer, n, length - n);
+      if (r < 0) {
         break;
       }
-      lower += expW[i];
+      n += r;
     }
-    return r.nextGaussian()*expSigma[index] + expNu[index];
+    return n;
+  }
+  
+  /**
+   * It creates a grid whose points are the centers of the bins of the histogram.
+   */
+  private static DensityGrid createGrid(Histogram histogram) {
+    final double lower = histogram.getBinLowerBound(0);
+    return new DensityGrid(lower, lower + histogram.getNumberOfBins() * histogram.getBinWidth(), histogram.getNumberOfBins());
   }
   
-  private static String asGnuplotFunction(String name, double[] w, double[] nu, double[] sigma) {
-    StringBuffer ret = new StringBuffer().append(name);
+  /**
+   * This method runs the decentralized simulation. The positional arguments are the same as in the 
+   * headless mode, the number of components and the parameters apply to every node. The samples are
+   * read in rounds of numberOfNodes * gossipPeriod samples, each round is followed by an exchange.
+   * At every snapshot the simulator reports the sent messages and bytes, the largest and the average 
+   * L1 distance of the nodes from the expected mixture (if it is known) and the largest L1 distance of
+   * the nodes from their consensus (the average of their densities).
+   * 
+   * @param args positional command line arguments
+   * @param options command line options
+   */
+  private static void simulateGossip(String[] args, Map<String,String> options) throws Exception {
+    if (args.length != 8 && args.length != 9) {
+      System.err.println("Usage: java -jar gmmtest.jar -gossip=numberOfNodes [-gossipPeriod=samplesPerNode] [-mergeRule=className] [-gossipTolerance=l1Distance] [-threads=n] [-input=source] w1,w2,...,wn m1,m2,...,mn v1,v2,...,vn snapshotStepSize numberOfGeneratedSamples mixtureModelClassName numberOfComponents mixtureModelParams [seed]");
+      return;
+    }
+    final String input = options.get("input");
+    final boolean isExpectedKnown = input == null || !args[0].equals("-");
+    final double[] expW = isExpectedKnown ? parseArray(args[0]) : new double[0];
+    final double[] expNu = isExpectedKnown ? parseArray(args[1]) : new double[0];
+    final double[] expSigma = isExpectedKnown ? parseArray(args[2]) : new double[0];
+    if (expW.length != expNu.length || expNu.length != expSigma.length || expSigma.length != expW.length) {
+      throw new RuntimeException("The number of components, means and variances have to be equal.");
+    }
+    final long snapshotStepSize = Long.parseLong(args[3]);
+    final long numOfGeneratedSamples = (Long.parseLong(args[4]) > 0) ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+    final String mmName = args[5];
+    final int mmCompnents = Integer.parseInt(args[6]);
+    final String mmParams = args[7];
+    final long seed = (args.length == 9) ? Long.parseLong(args[8]) : System.currentTimeMillis();
+    final int numberOfNodes = Integer.parseInt(options.get("gossip"));
+    final int period = options.containsKey("gossipPeriod") ? Integer.parseInt(options.get("gossipPeriod")) : MixtureModelSimulator.DEFAULT_GOSSIP_PERIOD;
+    final String ruleName = options.containsKey("mergeRule") ? options.get("mergeRule") : MixtureModelSimulator.DEFAULT_MERGE_RULE;
+    final double tolerance = options.containsKey("gossipTolerance") ? Double.parseDouble(options.get("gossipTolerance")) : MixtureModelSimulator.DEFAULT_GOSSIP_TOLERANCE;
+    final int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+    if (numberOfNodes < 2 || period < 1 || (long) numberOfNodes * period > Integer.MAX_VALUE) {
+      throw new RuntimeException("The number of nodes has to be at least 2 and the gossip period has to be positive!");
+    }
     
-    for (int i = 0; i < w.length && i < nu.length && i < sigma.length; i ++) {
-      if (i == 0) {
-        ret.append(" = ");
-      } else {
-        ret.append(" + ");
+    // create the nodes
+    final Constructor<?> gmmConstructor = Class.forName(mmName).getConstructor(Integer.TYPE);
+    final AbstractGMM[] nodes = new AbstractGMM[numberOfNodes];
+    for (int j = 0; j < numberOfNodes; j ++) {
+      final Object gmm = gmmConstructor.newInstance(mmCompnents);
+      if (!(gmm instanceof AbstractGMM)) {
+        throw new RuntimeException("The nodes of a gossip network have to be AbstractGMM instances, " + mmName + " is not!");
+      }
+      nodes[j] = (AbstractGMM) gmm;
+      nodes[j].parseParameters(mmParams);
+    }
+    final MergeRule rule = (MergeRule) Class.forName(ruleName).getConstructor().newInstance();
+    final GossipNetwork network = new GossipNetwork(nodes, new LocalGossipTransport(numberOfNodes), rule, threads, seed + 1);
+    
+    // perform simulation (the source and the network are closed even if it fails)
+    final GMMSnapshot expected = isExpectedKnown ? new GMMSnapshot(expW, expNu, expSigma) : null;
+    final double[] buffer = new double[numberOfNodes * period];
+    DensityGrid grid = isExpectedKnown ? createGrid(createHistogram(expW, expNu, expSigma, 100.0)) : null;
+    final double[] expectedDensity = isExpectedKnown ? grid.evaluate(expected) : null;
+    long convergedAt = -1;
+    long i = 0;
+    final long start = System.nanoTime();
+    try {
+      final SampleSource source = openInput(input, expW, expNu, expSigma, seed);
+      try {
+        while (i < numOfGeneratedSamples) {
+          final int n = readFully(source, buffer, (int) Math.min(buffer.length, numOfGeneratedSamples - i));
+          if (n == 0) {
+            break;
+          }
+          if (grid == null) {
+            grid = createGrid(createHistogram(buffer, n, 100.0));
+          }
+          network.update(buffer, 0, n);
+          network.exchange();
+          final long previous = i;
+          i += n;
+          
+          if (i / snapshotStepSize != previous / snapshotStepSize || n < buffer.length || i == numOfGeneratedSamples) {
+            // report the distances
+            final double[][] densities = new double[numberOfNodes][];
+            final double[] consensus = new double[grid.getNumberOfCells()];
+            double maxError = 0.0, sumError = 0.0;
+            for (int j = 0; j < numberOfNodes; j ++) {
+              densities[j] = grid.evaluate(network.getNode(j).getSnapshot());
+              for (int b = 0; b < consensus.length; b ++) {
+                consensus[b] += densities[j][b] / numberOfNodes;
+              }
+              if (expectedDensity != null) {
+                final double error = grid.computeL1Distance(densities[j], expectedDensity);
+                maxError = Math.max(maxError, error);
+                sumError += error;
+              }
+            }
+            double disagreement = 0.0;
+            for (int j = 0; j < numberOfNodes; j ++) {
+              disagreement = Math.max(disagreement, grid.computeL1Distance(densities[j], consensus));
+            }
+            final GossipTransport transport = network.getTransport();
+            System.out.println(String.format("Snapshot %d: samples=%d, samples/node=%d, messages=%d, bytes=%d, " + 
+                ((expectedDensity != null) ? String.format("L1 to expected=%.4f (max) %.4f (avg), ", maxError, sumError / numberOfNodes) : "") + "L1 to consensus=%.4f (max)",
+                (i - 1) / snapshotStepSize + 1, i, i / numberOfNodes, transport.getNumberOfMessages(), transport.getNumberOfBytes(), disagreement));
+            if (convergedAt < 0 && ((expectedDensity != null) ? maxError : disagreement) <= tolerance) {
+              convergedAt = i;
+            }
+          }
+        }
+      } finally {
+        source.close();
       }
-      ret.append(w[i]).append(" * 1/sqrt(2*pi*").append(sigma[i]).append("**2) * ");
-      ret.append("exp(-(x-(").append(nu[i]).append("))**2 / ( 2*").append(sigma[i]).append("**2))");
+    } finally {
+      network.close();
     }
-    return ret.toString();
+    final long elapsed = System.nanoTime() - start;
+    
+    // show statistics and final parameter set of the first node
+    System.out.println("Statistics: ");
+    System.out.println("  Nodes:             " + numberOfNodes + " (exchange after every " + period + " samples per node, " + ruleName + ")");
+    System.out.println("  Samples:           " + i);
+    System.out.println("  Elapsed time:      " + String.format("%.3f s", elapsed / 1.0E9));
+    System.out.println("  Samples/sec:       " + String.format("%.1f", i * 1.0E9 / elapsed));
+    System.out.println("  Messages:          " + network.getTransport().getNumberOfMessages() + " (" + network.getTransport().getNumberOfBytes() + " bytes)");
+    System.out.println("  Converged:         " + ((convergedAt < 0) ? "no" : "after " + convergedAt + " samples (" + (convergedAt / numberOfNodes) + " per node), L1 " + 
+        ((expectedDensity != null) ? "to expected" : "to consensus") + " <= " + tolerance + " for every node"));
+    System.out.println("Final parameters of node 0: ");
+    System.out.println("  Component weights: " + Arrays.toString(network.getNode(0).getComponentWeights()));
+    System.out.println("  Means:             " + Arrays.toString(network.getNode(0).getComponentMeans()));
+    System.out.println("  Variances:         " + Arrays.toString(network.getNode(0).getComponentVariances()));
   }
   
-  private static double[] parseArray(String sArray) {
-    String[] parts = sArray.split(",");
-    double[] ret = new double[parts.length];
-    for (int i = 0; i < parts.length; i ++) {
-      ret[i] = Double.parseDouble(parts[i]);
+  /**
+   * It formats the array as a space separated list.
+   */
+  private static String formatArray(double[] values) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < values.length; i ++) {
+      sb.append((i == 0) ? "" : " ").append(values[i]);
     }
-    return ret;
+    return sb.toString();
   }
   
-  public static void main(String[] args) throws Exception{
+  /**
+   * This method runs the parameter sweep. The positional arguments are the same as in the headless
+   * mode, but the class name, the number of components and the parameters describe a grid of candidates
+   * (see ParameterSweep). The first samples of the stream are held out for the evaluation, the rest of
+   * the stream is read once in large blocks and fanned out to every candidate. At the end a table of 
+   * the candidates is printed with their throughputs (samples per second of their own update time), 
+   * the L1 distances of their densities from the expected mixture (if it is known), the average log 
+   * likelihood of the held out samples and their final parameters. With -sweep=resultFile the table is
+   * written into the file in CSV format as well.
+   * 
+   * @param args positional command line arguments
+   * @param options command line options
+   */
+  private static void simulateSweep(String[] args, Map<String,String> options) throws Exception {
+    if (args.length != 8 && args.length != 9) {
+      System.err.println("Usage: java -jar gmmtest.jar -sweep[=resultFile] [-threads=n] [-input=source] w1,w2,...,wn m1,m2,...,mn v1,v2,...,vn snapshotStepSize numberOfGeneratedSamples className1,className2,... numberOfComponents1,numberOfComponents2,... params1;params2;... [seed]");
+      System.err.println("  where the values of the parameters can be alternatives like batchSize=100|1000,alpha=0.1|0.2");
+      return;
+    }
+    final String input = options.get("input");
+    final boolean isExpectedKnown = input == null || !args[0].equals("-");
+    final double[] expW = isExpectedKnown ? parseArray(args[0]) : new double[0];
+    final double[] expNu = isExpectedKnown ? parseArray(args[1]) : new double[0];
+    final double[] expSigma = isExpectedKnown ? parseArray(args[2]) : new double[0];
+    if (expW.length != expNu.length || expNu.length != expSigma.length || expSigma.length != expW.length) {
+      throw new RuntimeException("The number of components, means and variances have to be equal.");
+    }
+    final long snapshotStepSize = Long.parseLong(args[3]);
+    final long numOfGeneratedSamples = (Long.parseLong(args[4]) > 0) ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+    final long seed = (args.length == 9) ? Long.parseLong(args[8]) : System.currentTimeMillis();
+    final int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+    final String resultFile = options.get("sweep").equals("true") ? null : options.get("sweep");
+    
+    // create the candidates
+    final ParameterSweep sweep = new ParameterSweep(args[5], args[6], args[7], threads);
+    for (String failure : sweep.getFailures()) {
+      System.err.println("Skipped candidate " + failure);
+    }
+    System.out.println("Candidates: " + sweep.getNumberOfCandidates());
+    
+    // hold out the first samples
+    final SampleSource source = openInput(input, expW, expNu, expSigma, seed);
+    final double[] heldOut = new double[MixtureModelSimulator.SWEEP_HELD_OUT_SAMPLES];
+    final int numOfHeldOut = readFully(source, heldOut, heldOut.length);
+    
+    // perform simulation
+    final double[] buffer = new double[MixtureModelSimulator.SWEEP_BLOCK_SIZE];
+    final long start = System.nanoTime();
+    long windowStart = start;
+    long i = 0, windowStartIdx = 0;
+    while (i < numOfGeneratedSamples) {
+      final long nextSnapshot = (i / snapshotStepSize + 1) * snapshotStepSize;
+      final int n = readFully(source, buffer, (int) Math.min(buffer.length, Math.min(numOfGeneratedSamples, nextSnapshot) - i));
+      if (n == 0) {
+        break;
+      }
+      sweep.update(buffer, 0, n);
+      i += n;
+      if (i % snapshotStepSize == 0 || i == numOfGeneratedSamples) {
+        final long now = System.nanoTime();
+        System.out.println(String.format("Snapshot %d: samples=%d, samples/sec=%.1f (for every candidate)", 
+            (i - 1) / snapshotStepSize + 1, i, (i - windowStartIdx) * 1.0E9 / (now - windowStart)));
+        windowStart = now;
+        windowStartIdx = i;
+      }
+    }
+    final long elapsed = System.nanoTime() - start;
+    source.close();
+    sweep.close();
+    
+    // evaluate the candidates
+    final DensityGrid grid = isExpectedKnown ? createGrid(createHistogram(expW, expNu, expSigma, 100.0)) : null;
+    final double[] expectedDensity = isExpectedKnown ? grid.evaluate(new GMMSnapshot(expW, expNu, expSigma)) : null;
+    final double[] logDensities = new double[numOfHeldOut];
+    final StringBuilder csv = new StringBuilder("class,components,params,samplesPerSec,l1ToExpected,heldOutLogLikelihood,weights,means,variances\n");
+    System.out.println("Statistics: ");
+    System.out.println("  Samples:           " + i + " (+" + numOfHeldOut + " held out)");
+    System.out.println("  Elapsed time:      " + String.format("%.3f s", elapsed / 1.0E9));
+    System.out.println("  Samples/sec:       " + String.format("%.1f (for every candidate)", i * 1.0E9 / elapsed));
+    System.out.println("Results: ");
+    System.out.println(String.format("  %-40s %4s %-40s %14s %10s %12s", "class", "k", "params", "samples/sec", "L1", "held out LL"));
+    for (int c = 0; c < sweep.getNumberOfCandidates(); c ++) {
+      final MixtureModel model = sweep.getModel(c);
+      final double throughput = i * 1.0E9 / Math.max(sweep.getUpdateNanos(c), 1L);
+      final double l1 = (expectedDensity != null) ? grid.computeL1Distance(grid.evaluate(model), expectedDensity) : Double.NaN;
+      double logLikelihood = 0.0;
+      if (numOfHeldOut > 0) {
+        model.computeLogDensityValues(Arrays.copyOf(heldOut, numOfHeldOut), logDensities);
+        for (int j = 0; j < numOfHeldOut; j ++) {
+          logLikelihood += logDensities[j];
+        }
+        logLikelihood /= numOfHeldOut;
+      } else {
+        logLikelihood = Double.NaN;
+      }
+      System.out.println(String.format("  %-40s %4d %-40s %14.1f %10.4f %12.5f", sweep.getName(c), sweep.getInitialNumberOfComponents(c), sweep.getSetting(c), throughput, l1, logLikelihood));
+      csv.append(sweep.getName(c)).append(',').append(sweep.getInitialNumberOfComponents(c)).append(",\"").append(sweep.getSetting(c)).append("\",")
+        .append(throughput).append(',').append(l1).append(',').append(logLikelihood).append(",\"").append(formatArray(model.getComponentWeights()))
+        .append("\",\"").append(formatArray(model.getComponentMeans())).append("\",\"").append(formatArray(model.getComponentVariances())).append("\"\n");
+    }
+    if (resultFile != null) {
+      Files.write(Paths.get(resultFile), csv.toString().getBytes(StandardCharsets.UTF_8));
+      System.out.println("The results are written into " + resultFile);
+    }
+  }
+  
+  /**
+   * This method runs the simulation which renders the snapshots and stitches them together.
+   * 
+   * @param args positional command line arguments
+   * @param options command line options
+   */
+  private static void simulate(String[] args, Map<String,String> options) throws Exception {
     if (args.length != 10 && args.length != 11) {
-      System.err.println("Usage: java -jar gmmtest.jar w1,w2,...,wn m1,m2,...,mn v1,v2,...,vn outputFile tmpDir snapshotStepSize numberOfGeneratedSamples mixtureModelClassName numberOfComponents mixtureModelParams [seed]");
+      System.err.println("Usage: java -jar gmmtest.jar [-input=source] [-renderer=java2d|gnuplot] w1,w2,...,wn m1,m2,...,mn v1,v2,...,vn outputFile tmpDir snapshotStepSize numberOfGeneratedSamples mixtureModelClassName numberOfComponents mixtureModelParams [seed]");
       return;
     }
     final double[] expW = parseArray(args[0]);
@@ -82,55 +564,34 @@ public class MixtureModelSimulator {
     final int mmCompnents = Integer.parseInt(args[8]);
     final String mmParams = args[9];
     final long seed = (args.length == 11) ? Long.parseLong(args[10]) : System.currentTimeMillis();
-    final boolean isClear = true;
     
     // create gmm
     final Constructor<?> gmmConstructor = Class.forName(mmName).getConstructor(Integer.TYPE);    
     final MixtureModel gmm = (MixtureModel) gmmConstructor.newInstance(mmCompnents);
     gmm.parseParameters(mmParams);
-    
-    // init tmp directory
-    File tmpDir = new File(tmpDirName);
-    if (isClear) {
-      if (tmpDir.exists()) {
-        System.err.println("The given temporary directory (" + tmpDirName + ") exists! Please, give another one.");
-        return;
-      } else {
-        if (!tmpDir.mkdir()) {
-          System.err.println("Temporary directory cannot be created (" + tmpDirName + ")!");
-          return;
-        }
-      }
+    if (gmm instanceof FamilyMixtureModel && !(((FamilyMixtureModel) gmm).getFamily() instanceof GaussianFamily)) {
+      // the renderers draw Gaussian components
+      throw new RuntimeException("The rendered simulation supports only Gaussian components, use -headless or -sweep for the family " + ((FamilyMixtureModel) gmm).getFamily().getName() + "!");
     }
     
-    // define some other variables and script templates
+    // create renderer (Java2D by default, gnuplot on demand)
     final double precision = 100.0;
-    final Random r = new Random(seed);
-    final String gptTemplate = 
-      "#!/usr/bin/gnuplot\n\n" +
-      "set term png large nocrop enhanced font \"/usr/share/fonts/truetype/arial.ttf\" 14 size 800,600\n" +
-      "set output \"${picture_file}\"\n" + 
-      "set title \"GMM Simulation, Iteration=${i}\"\n" +
-      "set xrange [-4:6]\n" + 
-      "set yrange [0:1]\n\n" +
-      "${component_functions}" + 
-      "${pdf_current}\n" +
-      MixtureModelSimulator.asGnuplotFunction("pdf_expected(x)", expW, expNu, expSigma) +
-      "\n\nplot \\\n  '${data_file}' using 1:($2 * " + precision + ") w l title 'generated data'," + 
-      "\\\n  pdf_current(x) lw 2 title 'current pdf'," +
-      "${component_function_calls}" + 
-      "\\\n  pdf_expected(x) title 'expected pdf';\n";
-    final String generatorScriptName = "generateFig.sh";
-    final String generatorScript = 
-      "#!/bin/bash\n\n" +
-      "echo `pwd`;\n" +
-      "for f in `ls *.gpt`; do ./${f} 2>/dev/null; done;\n" + 
-      "convert -delay 10 -loop 0 `ls *.png` ";
-    PrintWriter fileOut = null;
+    final String rendererName = options.containsKey("renderer") ? options.get("renderer") : "java2d";
+    final SnapshotRenderer renderer;
+    if (rendererName.equals("gnuplot")) {
+      renderer = new GnuplotRenderer(new File(outputFileName), new File(tmpDirName), snapshotStepSize, precision, expW, expNu, expSigma);
+    } else if (rendererName.equals("java2d")) {
+      renderer = new Java2DRenderer(new File(outputFileName), expW, expNu, expSigma, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    } else {
+      throw new RuntimeException("Unknown renderer " + rendererName + ", it has to be java2d or gnuplot!");
+    }
+    final SampleSource source = openInput(options.get("input"), expW, expNu, expSigma, seed);
+    final double[] buffer = new double[MixtureModelSimulator.HEADLESS_BLOCK_SIZE];
+    int bufferSize = 0, bufferPos = 0;
     
     // perform simulation
     String out = "";
-    TreeMap<Double, Integer> histogram = new TreeMap<Double, Integer>();
+    final Histogram histogram = createHistogram(expW, expNu, expSigma, precision);
     for (int i = 0; i < numOfGeneratedSamples + 1; i++){
       if ((i % snapshotStepSize == 0 && i != 0) || i == 1){
         if (out.length() > 0) {
@@ -141,117 +602,38 @@ public class MixtureModelSimulator {
         out = "Generating snapshot " + (i/snapshotStepSize) + " out of " + (numOfGeneratedSamples/snapshotStepSize);
         System.out.print(out);
         
-        // create simulation snapshot
-        String baseName = String.format("out_%08d", i/snapshotStepSize);
-        File txtFile = new File(tmpDir, baseName + ".txt");
-        fileOut = new PrintWriter(new BufferedWriter(new FileWriter(txtFile)));
-        for (double k : histogram.keySet()){
-          fileOut.println(k + "\t" + (histogram.get(k) / (double)i));
-        }
-        fileOut.close();
-        
-        // create gnuplot script for the snapshot
-        File pngFile = new File(baseName + ".png");
-        File gptFile = new File(tmpDir, baseName + ".gpt");
-        fileOut = new PrintWriter(new BufferedWriter(new FileWriter(gptFile)));
-        String gptScript = gptTemplate.replaceFirst("\\$\\{picture_file\\}", pngFile.getName());
-        gptScript = gptScript.replaceFirst("\\$\\{data_file\\}", txtFile.getName());
-        gptScript = gptScript.replaceFirst("\\$\\{i\\}", new Integer(i).toString());
-        
-        // get current values from the GMM model
-        double[] currentW = gmm.getComponentWeights();
-        double[] currentNu = gmm.getComponentMeans();
-        double[] currentSigma = gmm.getComponentVariances();
-        //
-        StringBuffer componentFunctions = new StringBuffer();
-        StringBuffer componentFunctionCalls = new StringBuffer();
-        for (int componentId = 0; componentId < currentW.length; componentId ++) {
-          componentFunctions.append(MixtureModelSimulator.asGnuplotFunction("pdf_current_component_" + componentId + "(x)", new double[]{currentW[componentId]}, new double[]{currentNu[componentId]}, new double[]{currentSigma[componentId]})).append("\n");
-          componentFunctionCalls.append("\\\\\n  pdf_current_component_" + componentId + "(x) title 'component " + componentId + " pdf',");
-        }
-        gptScript = gptScript.replaceFirst("\\$\\{component_functions\\}", componentFunctions.toString());
-        gptScript = gptScript.replaceFirst("\\$\\{component_function_calls\\}", componentFunctionCalls.toString());
-        //
-        gptScript = gptScript.replaceFirst("\\$\\{pdf_current\\}", MixtureModelSimulator.asGnuplotFunction("pdf_current(x)", currentW, currentNu, currentSigma));
-        fileOut.println(gptScript);
-        
-        // make gpt file runnable
-        gptFile.setExecutable(true);
-        
-        // close gpt file
-        fileOut.close();
-        fileOut = null;
+        // render simulation snapshot
+        final GMMSnapshot current = (gmm instanceof AbstractGMM) ? ((AbstractGMM) gmm).getSnapshot() : 
+          new GMMSnapshot(gmm.getComponentWeights(), gmm.getComponentMeans(), gmm.getComponentVariances());
+        renderer.render(i, current, histogram);
       }
       
       // generate the next sample
-      double x = generateNextDouble(expW, expNu, expSigma, r);
+      if (bufferPos == bufferSize) {
+        bufferSize = source.read(buffer, 0, buffer.length);
+        bufferPos = 0;
+        if (bufferSize < 0) {
+          // end of the input
+          break;
+        }
+      }
+      double x = buffer[bufferPos ++];
       
       // update histogram
-      double h = Math.floor(x * precision) / precision;
-      if (histogram.containsKey(h)){
-        histogram.put(h, histogram.get(h) + 1);
-      } else {
-        histogram.put(h, 1);
-      }
+      histogram.add(x);
       
       // update gmm
       gmm.update(x);
     }
+    source.close();
     System.out.println(". Done!");
     
     System.out.print("Generating final result");
-    // create generator script and final output
-    File outputFile = new File(outputFileName);
-    // writing generator script
-    File scriptFile = new File(tmpDir, generatorScriptName);
-    fileOut = new PrintWriter(new BufferedWriter(new FileWriter(scriptFile)));
-    fileOut.println(generatorScript + outputFile.getName());
-    scriptFile.setExecutable(true);
-    fileOut.close();    
-    // calling generator script and showing its error stream
-    ProcessBuilder pb = new ProcessBuilder(scriptFile.getCanonicalPath());
-    pb.directory(tmpDir);
-    Process p = pb.start();
-    p.waitFor();
-    BufferedReader generatorError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-    String line = generatorError.readLine();
-    while (line != null) {
-      System.err.println(line);
-      line = generatorError.readLine();
-    }
-    
-    
-    // remove temporary files
-    if (isClear) {
-      File[] files = tmpDir.listFiles();
-      boolean isSuccess = true;
-      for (int fIdx = 0; fIdx < files.length; fIdx ++) {
-        if (files[fIdx].getName().equals(outputFile.getName())) {
-          // move the output file out of the temp directory
-          isSuccess &= files[fIdx].renameTo(outputFile);
-        } else {
-          // delete temp file
-          isSuccess &= files[fIdx].delete();
-        }
-        if (!isSuccess) {
-          // error while trying to remove file => stop
-          break;
-        }
-      }
-      if (isSuccess) {
-        // remove temporary directory as well (which should be empty)
-        isSuccess &= tmpDir.delete();
-      }
-      if (!isSuccess) {
-        System.err.println("\nErrors occured during deleting/moving files! Unneccessary files can be remained in the temporary directory! They have to be removed manually.");
-      }
-    }
+    renderer.close();
     System.out.println(". Done!");
     
     // show final parameter set
     System.out.println("Final parameters: ");
-    System.out.println("  Component weights: " + Arrays.toString(gmm.getComponentWeights()));
-    System.out.println("  Means:             " + Arrays.toString(gmm.getComponentMeans()));
-    System.out.println("  Variances:         " + Arrays.toString(gmm.getComponentVariances()));
+    printParameters(gmm);
   }
 }
@@ -0,0 +1,48 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * This is an endless stream of samples which are generated from a Gaussian mixture. The components
+ * are selected by an alias table, so the cost of a sample does not depend on the number of components.
+ * The stream of a seed differs from the one of the earlier versions of this class, which selected the 
+ * components by a scan of the cumulative weights using a java.util.Random.
+ * 
+ * @author Róbert Ormándi
+ */
+public class MixtureSampleSource implements SampleSource {
+  private final GMMSnapshot mixture;
+  private final RandomGenerator r;
+  
+  /**
+   * It creates a source which generates samples from the given mixture.
+   * 
+   * @param expW component weights
+   * @param expNu component means
+   * @param expSigma component variances (sigma values)
+   * @param r pseudo random number generator (a splittable one makes the generation of large blocks parallel)
+   */
+  public MixtureSampleSource(double[] expW, double[] expNu, double[] expSigma, RandomGenerator r) {
+    this.mixture = new GMMSnapshot(expW, expNu, expSigma);
+    this.r = r;
+  }
+  
+  /**
+   * It generates the next sample.
+   * 
+   * @return sample
+   */
+  public double next() {
+    return mixture.sample(r);
+  }
+  
+  @Override
+  public int read(double[] buffer, int offset, int length) {
+    mixture.sample(buffer, offset, length, r);
+    return length;
+  }
+  
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,251 @@
+package densityEstimator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class saves and loads many models in a compact, versioned binary format using memory-mapped
+ * files. Unlike Java serialization, the format contains only the class name and the state of each
+ * model (parameters, collected statistics, sample counter and hyper-parameters), so it is small,
+ * fast to read back and does not depend on the class metadata.<br/>
+ * The layout of a file (all numbers are little-endian):
+ * <ul>
+ *   <li>header: magic number (int), format version (int), number of models <i>n</i> (int)</li>
+ *   <li>offset table: <i>n</i> ints, the offset of each model record from the beginning of the file</li>
+ *   <li>model records: length of the class name (short), class name (UTF-8 bytes), state of the
+ *   model as written by AbstractGMM.writeCheckpoint</li>
+ * </ul>
+ * The offset table makes it possible to load a single model without reading the others.<br/>
+ * The state of a model consists of one section per class of its hierarchy (AbstractGMM first), 
+ * which starts with its length in bytes (int). A class appends its new fields to the end of its own 
+ * section and reads them only if the section is long enough (see hasMore), otherwise they keep the 
+ * values of a newly created model. The fields which are unknown to the reader are skipped at the end 
+ * of the section. So adding fields does not change the version, which is changed only by incompatible
+ * changes of the format.
+ * 
+ * @author Róbert Ormándi
+ */
+public class ModelCheckpoint {
+  public static final int MAGIC = 0x474D4D43; // "GMMC"
+  public static final int VERSION = 6;
+  public static final int SECTION_HEADER_SIZE = 4;
+  private static final int HEADER_SIZE = 3 * 4;
+  
+  /**
+   * It writes the models into the file. An existing file is overwritten.
+   * 
+   * @param file output file
+   * @param models models to save
+   */
+  public static void save(File file, AbstractGMM[] models) throws IOException {
+    // compute the layout of the file
+    final byte[][] names = new byte[models.length][];
+    final int[] offsets = new int[models.length];
+    long size = ModelCheckpoint.HEADER_SIZE + 4L * models.length;
+    for (int i = 0; i < models.length; i ++) {
+      names[i] = models[i].getClass().getName().getBytes(StandardCharsets.UTF_8);
+      if (size > Integer.MAX_VALUE) {
+        break;
+      }
+      offsets[i] = (int) size;
+      size += 2 + names[i].length + models[i].getCheckpointSize();
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The checkpoint of " + models.length + " models is too large for one file (" + size + " bytes), please split it!");
+    }
+    
+    // write the models through a memory mapping
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(size);
+      MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      out.order(ByteOrder.LITTLE_ENDIAN);
+      out.putInt(ModelCheckpoint.MAGIC);
+      out.putInt(ModelCheckpoint.VERSION);
+      out.putInt(models.length);
+      for (int i = 0; i < models.length; i ++) {
+        out.putInt(offsets[i]);
+      }
+      for (int i = 0; i < models.length; i ++) {
+        out.putShort((short) names[i].length);
+        out.put(names[i]);
+        models[i].writeCheckpoint(out);
+        if (i + 1 < models.length && out.position() != offsets[i + 1]) {
+          throw new IOException("The checkpoint size of model " + i + " (" + names[i] + ") is inconsistent!");
+        }
+      }
+      out.force();
+    } finally {
+      raf.close();
+    }
+  }
+  
+  /**
+   * It loads all of the models from the file.
+   * 
+   * @param file checkpoint file
+   * @return loaded models in the order they were saved
+   */
+  public static AbstractGMM[] load(File file) throws IOException {
+    final ByteBuffer in = ModelCheckpoint.map(file);
+    final int n = in.getInt(8);
+    final AbstractGMM[] models = new AbstractGMM[n];
+    final Map<String,Constructor<?>> constructors = new HashMap<String,Constructor<?>>();
+    in.position(ModelCheckpoint.HEADER_SIZE + 4 * n);
+    for (int i = 0; i < n; i ++) {
+      models[i] = ModelCheckpoint.readModel(in, constructors);
+    }
+    return models;
+  }
+  
+  /**
+   * It loads the <i>index</i>th model from the file without reading the other models.
+   * 
+   * @param file checkpoint file
+   * @param index index of the model
+   * @return loaded model
+   */
+  public static AbstractGMM load(File file, int index) throws IOException {
+    final ByteBuffer in = ModelCheckpoint.map(file);
+    final int n = in.getInt(8);
+    if (index < 0 || index >= n) {
+      throw new IndexOutOfBoundsException("The checkpoint contains " + n + " models, there is no model " + index + "!");
+    }
+    in.position(in.getInt(ModelCheckpoint.HEADER_SIZE + 4 * index));
+    return ModelCheckpoint.readModel(in, new HashMap<String,Constructor<?>>());
+  }
+  
+  /**
+   * It maps the file and checks its header.
+   */
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      in.order(ByteOrder.LITTLE_ENDIAN);
+      if (in.limit() < ModelCheckpoint.HEADER_SIZE || in.getInt(0) != ModelCheckpoint.MAGIC) {
+        throw new IOException("The file " + file + " is not a model checkpoint!");
+      }
+      if (in.getInt(4) != ModelCheckpoint.VERSION) {
+        throw new IOException("Unsupported checkpoint version " + in.getInt(4) + " in file " + file + "!");
+      }
+      return in;
+    } finally {
+      raf.close();
+    }
+  }
+  
+  /**
+   * It reads the model record which starts at the current position of the buffer.
+   */
+  private static AbstractGMM readModel(ByteBuffer in, Map<String,Constructor<?>> constructors) throws IOException {
+    final byte[] name = new byte[in.getShort()];
+    in.get(name);
+    final String className = new String(name, StandardCharsets.UTF_8);
+    try {
+      Constructor<?> constructor = constructors.get(className);
+      if (constructor == null) {
+        constructor = Class.forName(className).getConstructor(Integer.TYPE);
+        constructors.put(className, constructor);
+      }
+      AbstractGMM model = (AbstractGMM) constructor.newInstance(1);
+      model.readCheckpoint(in);
+      return model;
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("The model class " + className + " cannot be instantiated!", e);
+    }
+  }
+  
+  /**
+   * It starts the section of a class in the buffer. The length of the section is written by 
+   * endSection after the fields of the class.
+   * 
+   * @param out output buffer
+   * @return position of the section
+   */
+  static int beginSection(ByteBuffer out) {
+    final int section = out.position();
+    out.putInt(0);
+    return section;
+  }
+  
+  /**
+   * It closes the section which was started by beginSection.
+   * 
+   * @param out output buffer
+   * @param section position of the section
+   */
+  static void endSection(ByteBuffer out, int section) {
+    out.putInt(section, out.position() - section - ModelCheckpoint.SECTION_HEADER_SIZE);
+  }
+  
+  /**
+   * It reads the length of the section which starts at the current position of the buffer.
+   * 
+   * @param in input buffer
+   * @return end of the section
+   */
+  static int readSection(ByteBuffer in) {
+    final int length = in.getInt();
+    if (length < 0 || length > in.remaining()) {
+      throw new RuntimeException("Corrupted checkpoint, a section of " + length + " bytes at " + (in.position() - ModelCheckpoint.SECTION_HEADER_SIZE) + " exceeds the record!");
+    }
+    return in.position() + length;
+  }
+  
+  /**
+   * It tells whether the section contains more fields i.e. the fields which were appended to the 
+   * section later have to be read only if it returns true.
+   * 
+   * @param in input buffer
+   * @param end end of the section (see readSection)
+   * @return whether the current position is before the end of the section
+   */
+  static boolean hasMore(ByteBuffer in, int end) {
+    return in.position() < end;
+  }
+  
+  /**
+   * It finishes the reading of a section by skipping its fields which are unknown to the reader.
+   * 
+   * @param in input buffer
+   * @param end end of the section (see readSection)
+   */
+  static void skipSection(ByteBuffer in, int end) {
+    if (in.position() > end) {
+      throw new RuntimeException("Corrupted checkpoint, the fields overrun their section by " + (in.position() - end) + " bytes!");
+    }
+    in.position(end);
+  }
+  
+  /**
+   * It writes the array into the buffer.
+   * 
+   * @param out output buffer
+   * @param values array to write
+   */
+  static void putDoubles(ByteBuffer out, double[] values) {
+    out.asDoubleBuffer().put(values);
+    out.position(out.position() + 8 * values.length);
+  }
+  
+  /**
+   * It fills the array from the buffer.
+   * 
+   * @param in input buffer
+   * @param values array to fill
+   */
+  static void getDoubles(ByteBuffer in, double[] values) {
+    in.asDoubleBuffer().get(values);
+    in.position(in.position() + 8 * values.length);
+  }
+}
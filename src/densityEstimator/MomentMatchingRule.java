@@ -0,0 +1,30 @@
+package densityEstimator;
+
+/**
+ * This merge rule averages the normalized sufficient statistics (w, w * m, w * (v^2 + m^2)) of the
+ * paired components, i.e. the merged component has the weight, the mean and the variance of the 
+ * equally weighted mixture of the pair. Unlike the parameter averaging, a component which is rare 
+ * on one of the nodes has a small effect on the merged mean.
+ * 
+ * @author Róbert Ormándi
+ */
+public class MomentMatchingRule extends AbstractMergeRule {
+  
+  @Override
+  protected void combine(double wa, double ma, double va, double wb, double mb, double vb, double[] out) {
+    final double s0 = 0.5 * (wa + wb);
+    if (s0 <= 0.0) {
+      out[0] = 0.0;
+      out[1] = 0.5 * (ma + mb);
+      out[2] = 0.5 * (va + vb);
+      return;
+    }
+    final double s1 = 0.5 * (wa * ma + wb * mb);
+    final double s2 = 0.5 * (wa * (va * va + ma * ma) + wb * (vb * vb + mb * mb));
+    final double mean = s1 / s0;
+    out[0] = s0;
+    out[1] = mean;
+    // the variance of the pair is at least the smaller variance, the bound only guards against rounding
+    out[2] = Math.max(Math.sqrt(Math.max(s2 / s0 - mean * mean, 0.0)), Math.min(va, vb));
+  }
+}
@@ -0,0 +1,113 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * This is the d-dimensional counterpart of MixtureModel i.e. a general representation of any
+ * mixture model over vectors which can be learnt online. The observations are given as arrays of
+ * length d, or as flat arrays which contain several observations one after the other (the j-th
+ * observation is at the indices j*d, ..., j*d+d-1).<br/>
+ * The parameters are returned in flat arrays as well: the means of the components one after the
+ * other (k*d values) and their covariance matrices one after the other in row-major order (k*d*d 
+ * values) or only their diagonals (k*d values) in case of diagonal covariances.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface MultivariateMixtureModel extends Serializable {
+  /**
+   * It updates the parameters of the current model based on the observation x.
+   * 
+   * @param x next observation (its length has to be the dimension of the model)
+   */
+  public void update(double[] x);
+  
+  /**
+   * It updates the model based on <i>length</i> consecutive observations of the flat array xs starting
+   * at the observation <i>offset</i> (i.e. at index offset*d). The result has to be the same as calling
+   * update(double[]) for each observation in order.
+   * 
+   * @param xs flat array of observations
+   * @param offset index of the first observation which is used
+   * @param length number of observations which are used
+   */
+  public void update(double[] xs, int offset, int length);
+  
+  /**
+   * The method computes the value of the probability density function at x based on the current parameter values.
+   * 
+   * @param x point in which the pdf will be evaluated (its length has to be the dimension of the model)
+   * @return value of the pdf
+   */
+  public double computeDensityValue(double[] x);
+  
+  /**
+   * The method computes the natural logarithm of the probability density function at x based on the
+   * current parameter values. It does not underflow for points which are far from every component.
+   * 
+   * @param x point in which the log pdf will be evaluated (its length has to be the dimension of the model)
+   * @return log of the pdf (can be negative infinity)
+   */
+  public double computeLogDensityValue(double[] x);
+  
+  /**
+   * It returns the dimension of the observations.
+   * 
+   * @return dimension
+   */
+  public int getDimension();
+  
+  /**
+   * It returns the component weights of the model.
+   * 
+   * @return component weights
+   */
+  public double[] getComponentWeights();
+  
+  /**
+   * It returns the means of the components in a flat array (k*d values).
+   * 
+   * @return mean vectors
+   */
+  public double[] getComponentMeans();
+  
+  /**
+   * It returns the covariance matrices of the components in a flat array: k*d*d values in row-major
+   * order or k*d values (the diagonals) if the model has diagonal covariances. Unlike the 1-dimensional 
+   * models, these are variances and not standard deviations.
+   * 
+   * @return covariance matrices
+   */
+  public double[] getComponentCovariances();
+  
+  /**
+   * It tells whether the covariance matrices of the components are diagonal.
+   * 
+   * @return true iff. the model has diagonal covariances
+   */
+  public boolean isDiagonal();
+  
+  /**
+   * It returns the number of components.
+   * 
+   * @return the number of components in the current mixture model
+   */
+  public int getNumberOfComponents();
+  
+  /**
+   * This method sets the number of components and initializes the model.<br/>
+   * Take into account that this method will erase the current model parameters!!!
+   * 
+   * @param num new component number
+   */
+  public void setNumberOfComponents(int num);
+  
+  /**
+   * This method parses and sets the parameters of the mixture model from a string which contains comma 
+   * separated param, value pairs in form parmName=value. This should be called before the first update!
+   * 
+   * @param params parameter string
+   * @return the parsed parameterName-value pairs
+   */
+  public Map<String,String> parseParameters(String params);
+}
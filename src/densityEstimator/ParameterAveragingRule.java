@@ -0,0 +1,17 @@
+package densityEstimator;
+
+/**
+ * This merge rule averages the parameters (weight, mean and sigma) of the paired components with
+ * equal weights, which is the classical gossip averaging of the parameter vectors.
+ * 
+ * @author Róbert Ormándi
+ */
+public class ParameterAveragingRule extends AbstractMergeRule {
+  
+  @Override
+  protected void combine(double wa, double ma, double va, double wb, double mb, double vb, double[] out) {
+    out[0] = 0.5 * (wa + wb);
+    out[1] = 0.5 * (ma + mb);
+    out[2] = 0.5 * (va + vb);
+  }
+}
@@ -0,0 +1,206 @@
+package densityEstimator;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class trains a set of candidate models (estimator classes, numbers of components and parameter
+ * settings) on the same stream of samples. Each block of the stream is fanned out to every candidate,
+ * and the candidates process it in parallel on a pool of threads, so the stream is generated or read 
+ * only once. The update time of each candidate is measured separately.<br/>
+ * The candidates are given as a grid: the comma separated lists of class names and numbers of components
+ * and a list of parameter settings separated by ';', where each value can be a list of alternatives 
+ * separated by '|', e.g. "batchSize=100|1000,alpha=0.1|0.2;batchSize=1000" means five settings. Every 
+ * combination of a class, a number of components and a setting is a candidate.
+ * 
+ * @author Róbert Ormándi
+ */
+public class ParameterSweep {
+  protected final List<MixtureModel> models = new ArrayList<MixtureModel>(); // candidates
+  protected final List<String> names = new ArrayList<String>();              // class names of the candidates
+  protected final List<Integer> components = new ArrayList<Integer>();       // initial numbers of components of the candidates
+  protected final List<String> settings = new ArrayList<String>();           // parameter settings of the candidates
+  protected final List<String> failures = new ArrayList<String>();           // candidates which could not be created
+  protected long[] updateNanos;                                              // update time of each candidate
+  private final ForkJoinPool pool;                                           // runs the candidates
+  
+  /**
+   * It creates the candidates of the grid. The combinations whose parameters are rejected by the
+   * estimator are not created, they are listed by getFailures.
+   * 
+   * @param classNames comma separated list of the class names of the estimators
+   * @param numbersOfComponents comma separated list of the numbers of components
+   * @param params list of the parameter settings (see the class description)
+   * @param threads number of threads which run the candidates
+   */
+  public ParameterSweep(String classNames, String numbersOfComponents, String params, int threads) throws Exception {
+    final List<String> expanded = ParameterSweep.expandParameters(params);
+    for (String name : classNames.split(",")) {
+      final Constructor<?> constructor = Class.forName(name).getConstructor(Integer.TYPE);
+      for (String k : numbersOfComponents.split(",")) {
+        for (String setting : expanded) {
+          final MixtureModel model = (MixtureModel) constructor.newInstance(Integer.parseInt(k));
+          try {
+            model.parseParameters(setting);
+          } catch (RuntimeException e) {
+            failures.add(name + " " + k + " " + setting + ": " + e.getMessage());
+            continue;
+          }
+          models.add(model);
+          names.add(name);
+          components.add(Integer.parseInt(k));
+          settings.add(setting);
+        }
+      }
+    }
+    if (models.isEmpty()) {
+      throw new RuntimeException("There is no valid candidate in the sweep!");
+    }
+    updateNanos = new long[models.size()];
+    pool = new ForkJoinPool(Math.max(1, Math.min(threads, models.size())));
+  }
+  
+  /**
+   * It expands the list of parameter settings, i.e. the ';' separated settings and the '|' separated
+   * alternatives of their values.
+   * 
+   * @param params list of the parameter settings
+   * @return every parameter setting (in form name=value,name=value,...)
+   */
+  public static List<String> expandParameters(String params) {
+    final List<String> ret = new ArrayList<String>();
+    for (String setting : params.split(";")) {
+      List<String> partial = new ArrayList<String>();
+      partial.add("");
+      for (String pair : setting.split(",")) {
+        if (pair.trim().isEmpty()) {
+          continue;
+        }
+        final String[] nameValuePair = pair.split("=", 2);
+        final List<String> next = new ArrayList<String>();
+        for (String prefix : partial) {
+          for (String value : (nameValuePair.length == 2) ? nameValuePair[1].split("\\|") : new String[]{null}) {
+            final String entry = (value == null) ? nameValuePair[0] : nameValuePair[0] + "=" + value;
+            next.add(prefix.isEmpty() ? entry : prefix + "," + entry);
+          }
+        }
+        partial = next;
+      }
+      ret.addAll(partial);
+    }
+    return ret;
+  }
+  
+  /**
+   * It updates every candidate by the same samples in parallel.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation which is used
+   * @param length number of observations which are used
+   */
+  public void update(final double[] xs, final int offset, final int length) {
+    final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(models.size());
+    for (int c = 0; c < models.size(); c ++) {
+      final int candidate = c;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final long t = System.nanoTime();
+          models.get(candidate).update(xs, offset, length);
+          updateNanos[candidate] += System.nanoTime() - t;
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> f : pool.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the candidates!", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("A candidate of the sweep failed!", e.getCause());
+    }
+  }
+  
+  /**
+   * It returns the number of candidates.
+   * 
+   * @return number of candidates
+   */
+  public int getNumberOfCandidates() {
+    return models.size();
+  }
+  
+  /**
+   * It returns the model of the given candidate.
+   * 
+   * @param c index of the candidate
+   * @return model
+   */
+  public MixtureModel getModel(int c) {
+    return models.get(c);
+  }
+  
+  /**
+   * It returns the class name of the estimator of the given candidate.
+   * 
+   * @param c index of the candidate
+   * @return class name
+   */
+  public String getName(int c) {
+    return names.get(c);
+  }
+  
+  /**
+   * It returns the initial number of components of the given candidate.
+   * 
+   * @param c index of the candidate
+   * @return number of components
+   */
+  public int getInitialNumberOfComponents(int c) {
+    return components.get(c);
+  }
+  
+  /**
+   * It returns the parameter setting of the given candidate.
+   * 
+   * @param c index of the candidate
+   * @return parameter setting
+   */
+  public String getSetting(int c) {
+    return settings.get(c);
+  }
+  
+  /**
+   * It returns the total update time of the given candidate.
+   * 
+   * @param c index of the candidate
+   * @return update time in nanoseconds
+   */
+  public long getUpdateNanos(int c) {
+    return updateNanos[c];
+  }
+  
+  /**
+   * It returns the descriptions of the combinations which were rejected by their estimators.
+   * 
+   * @return rejected combinations with the reasons
+   */
+  public List<String> getFailures() {
+    return failures;
+  }
+  
+  /**
+   * It shuts down the threads of the sweep.
+   */
+  public void close() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,135 @@
+package densityEstimator;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * This source reads another source on a dedicated thread, so the parsing and the I/O overlap
+ * with the processing of the samples. The samples are passed through a bounded ring of 
+ * preallocated blocks, so the memory usage is constant regardless of the length of the stream.
+ * 
+ * @author Róbert Ormándi
+ */
+public class PipelinedSampleSource implements SampleSource {
+  private final SampleSource source;
+  private final ArrayBlockingQueue<Block> free;   // empty blocks waiting for the reader
+  private final ArrayBlockingQueue<Block> filled; // filled blocks waiting for the consumer
+  private final Thread reader;
+  private volatile IOException error = null;
+  private Block current = null;                   // block which is being consumed
+  private int pos = 0;                            // position in the current block
+  
+  /**
+   * A block of samples. A block with size -1 marks the end of the stream.
+   */
+  private static class Block {
+    private final double[] data;
+    private int size = 0;
+    
+    private Block(int capacity) {
+      data = new double[capacity];
+    }
+  }
+  
+  /**
+   * It starts reading the source on a new daemon thread.
+   * 
+   * @param source source which is read on the reader thread
+   * @param blockSize number of samples in a block
+   * @param numberOfBlocks number of blocks in the ring
+   */
+  public PipelinedSampleSource(SampleSource source, int blockSize, int numberOfBlocks) {
+    this.source = source;
+    free = new ArrayBlockingQueue<Block>(numberOfBlocks);
+    filled = new ArrayBlockingQueue<Block>(numberOfBlocks);
+    for (int b = 0; b < numberOfBlocks; b ++) {
+      free.add(new Block(blockSize));
+    }
+    reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readSource();
+      }
+    }, "sample-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+  
+  /**
+   * The loop of the reader thread. If the source fails, the samples which were read before the error
+   * are passed to the consumer before the error.
+   */
+  private void readSource() {
+    Block block = null;
+    int n = 0;
+    try {
+      while (true) {
+        block = free.take();
+        // fill the whole block unless the stream ends
+        n = 0;
+        while (n < block.data.length) {
+          final int r = source.read(block.data, n, block.data.length - n);
+          if (r < 0) {
+            break;
+          }
+          n += r;
+        }
+        if (n < block.data.length) {
+          break;
+        }
+        block.size = n;
+        filled.put(block);
+        block = null;
+      }
+    } catch (IOException e) {
+      error = e;
+    } catch (InterruptedException e) {
+      return;
+    }
+    try {
+      // the last (partial) block and the end of the stream
+      if (block != null && n > 0) {
+        block.size = n;
+        filled.put(block);
+      }
+      final Block end = new Block(0);
+      end.size = -1;
+      filled.put(end);
+    } catch (InterruptedException e) {
+      return;
+    }
+  }
+  
+  @Override
+  public int read(double[] buffer, int offset, int length) throws IOException {
+    try {
+      if (current == null || (current.size >= 0 && pos == current.size)) {
+        if (current != null) {
+          free.put(current);
+        }
+        current = filled.take();
+        pos = 0;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for samples!", e);
+    }
+    if (current.size < 0) {
+      // the end marker stays the current block
+      if (error != null) {
+        throw error;
+      }
+      return -1;
+    }
+    final int n = Math.min(length, current.size - pos);
+    System.arraycopy(current.data, pos, buffer, offset, n);
+    pos += n;
+    return n;
+  }
+  
+  @Override
+  public void close() throws IOException {
+    reader.interrupt();
+    source.close();
+  }
+}
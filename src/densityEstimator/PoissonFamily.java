@@ -0,0 +1,163 @@
+package densityEstimator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Poisson components for count data (the samples are non-negative integers given as doubles). 
+ * Parameter: rate. Coefficients: log rate and rate. Statistics: sums of 1 and x. The term 
+ * logGamma(x + 1) of the log pmf does not depend on the component, so it is computed once per sample.
+ * 
+ * @author Róbert Ormándi
+ */
+public final class PoissonFamily extends ComponentFamily {
+  private static final long serialVersionUID = -6623109472851064012L;
+  
+  private static final double INVERSION_LIMIT = 10.0;
+  
+  @Override
+  public String getName() {
+    return "poisson";
+  }
+  
+  @Override
+  public int getNumberOfParameters() {
+    return 1;
+  }
+  
+  @Override
+  public int getNumberOfCoefficients() {
+    return 2;
+  }
+  
+  @Override
+  public int getNumberOfStatistics() {
+    return 2;
+  }
+  
+  @Override
+  public boolean isInSupport(double x) {
+    return x >= 0.0 && x < Double.POSITIVE_INFINITY;
+  }
+  
+  @Override
+  public void computeCoefficients(double[] params, int p, double[] coefs, int c) {
+    coefs[c] = Math.log(params[p]);
+    coefs[c + 1] = params[p];
+  }
+  
+  @Override
+  public double computeLogDensity(double[] coefs, int c, double x) {
+    return (x >= 0.0) ? x * coefs[c] - coefs[c + 1] - ComponentFamily.logGamma(x + 1.0) : Double.NEGATIVE_INFINITY;
+  }
+  
+  @Override
+  public void accumulate(double[] stats, int s, double g, double x) {
+    stats[s] += g;
+    stats[s + 1] += g * x;
+  }
+  
+  @Override
+  public void maximize(double[] stats, int s, double[] params, int p) {
+    params[p] = Math.max(stats[s + 1] / stats[s], SufficientStatistics.EPS); // numeric issue
+  }
+  
+  @Override
+  public int addBlock(double[] xs, int offset, int n, int k, double[] lw, double[] coefs, double[] p, double[] stats) {
+    int zeros = 0;
+    for (int j = offset; j < offset + n; j ++) {
+      final double x = xs[j];
+      if (!(x >= 0.0)) {
+        zeros ++;
+        continue;
+      }
+      final double lf = ComponentFamily.logGamma(x + 1.0);
+      for (int i = 0; i < k; i ++) {
+        p[i] = lw[i] + x * coefs[2 * i] - coefs[2 * i + 1] - lf;
+      }
+      if (!ComponentFamily.normalize(p, k)) {
+        zeros ++;
+        continue;
+      }
+      for (int i = 0; i < k; i ++) {
+        final double g = p[i];
+        stats[2 * i] += g;
+        stats[2 * i + 1] += g * x;
+      }
+    }
+    return zeros;
+  }
+  
+  @Override
+  public double getMean(double[] params, int p) {
+    return params[p];
+  }
+  
+  @Override
+  public double getStandardDeviation(double[] params, int p) {
+    return Math.sqrt(params[p]);
+  }
+  
+  /**
+   * P(X &lt;= x) = P(X &lt; floor(x) + 1) = Q(floor(x) + 1, rate).
+   */
+  @Override
+  public double computeCdf(double[] params, int p, double x) {
+    if (x == Double.POSITIVE_INFINITY) {
+      return 1.0;
+    }
+    return (x >= 0.0) ? ComponentFamily.regularizedGammaQ(Math.floor(x) + 1.0, params[p]) : ((x == x) ? 0.0 : x);
+  }
+  
+  @Override
+  public double computeTailProbability(double[] params, int p, double x) {
+    if (x == Double.POSITIVE_INFINITY) {
+      return 0.0;
+    }
+    return (x >= 0.0) ? ComponentFamily.regularizedGammaP(Math.floor(x) + 1.0, params[p]) : ((x == x) ? 1.0 : x);
+  }
+  
+  @Override
+  public boolean isDiscrete() {
+    return true;
+  }
+  
+  /**
+   * It draws a sample by inversion for small rates and by the transformed rejection method of 
+   * Hörmann (PTRS) for large ones.
+   */
+  @Override
+  public double sample(double[] params, int p, RandomGenerator rng) {
+    final double rate = params[p];
+    if (rate < PoissonFamily.INVERSION_LIMIT) {
+      final double u = rng.nextDouble();
+      double prob = Math.exp(-rate), cdf = prob;
+      int x = 0;
+      while (u > cdf && prob > 0.0) {
+        x ++;
+        prob *= rate / x;
+        cdf += prob;
+      }
+      return x;
+    }
+    final double logRate = Math.log(rate);
+    final double b = 0.931 + 2.53 * Math.sqrt(rate);
+    final double a = -0.059 + 0.02483 * b;
+    final double invAlpha = 1.1239 + 1.1328 / (b - 3.4);
+    final double vr = 0.9277 - 3.6224 / (b - 2.0);
+    while (true) {
+      final double u = rng.nextDouble() - 0.5;
+      final double v = rng.nextDouble();
+      final double us = 0.5 - Math.abs(u);
+      final double x = Math.floor((2.0 * a / us + b) * u + rate + 0.43);
+      if (us >= 0.07 && v <= vr) {
+        return x;
+      }
+      if (x < 0.0 || (us < 0.013 && v > us)) {
+        continue;
+      }
+      if (Math.log(v) + Math.log(invAlpha) - Math.log(a / (us * us) + b) <= -rate + x * logRate - ComponentFamily.logGamma(x + 1.0)) {
+        return x;
+      }
+    }
+  }
+}
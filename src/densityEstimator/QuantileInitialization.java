@@ -0,0 +1,33 @@
+package densityEstimator;
+
+import java.util.Arrays;
+
+/**
+ * This strategy sorts the samples and cuts them into k slices of equal size. Each component is
+ * estimated from the samples of its slice, so the means are spread along the quantiles of the data
+ * and the variances follow the local spread. It is deterministic and takes O(n log n) time.
+ * 
+ * @author Róbert Ormándi
+ */
+public class QuantileInitialization extends InitializationStrategy {
+  private static final long serialVersionUID = 6186027937519450357L;
+  
+  @Override
+  public String getName() {
+    return "quantile";
+  }
+  
+  @Override
+  public void initialize(double[] xs, int n, int k, double[] w, double[] m, double[] v) {
+    final double[] sorted = Arrays.copyOf(xs, n);
+    Arrays.sort(sorted);
+    final int[] assignment = new int[n];
+    for (int i = 0; i < k; i ++) {
+      // the mean of an empty slice (less samples than components) is its quantile
+      m[i] = sorted[(int) Math.min(n - 1, ((2L * i + 1) * n) / (2L * k))];
+      final int from = (int) (((long) i * n) / k), to = (int) (((long) (i + 1) * n) / k);
+      Arrays.fill(assignment, from, to, i);
+    }
+    InitializationStrategy.estimate(sorted, n, assignment, k, w, m, v);
+  }
+}
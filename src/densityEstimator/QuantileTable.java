@@ -0,0 +1,209 @@
+package densityEstimator;
+
+/**
+ * This is a monotone table of the inverse cumulative distribution function of a distribution, which
+ * answers the quantile queries of a model. The table contains the quantiles of SIZE probabilities which 
+ * are spaced uniformly in logit(p) = log(p/(1-p)) between -LOGIT_RANGE and LOGIT_RANGE, so the tails
+ * (e.g. p99.9 or p1e-9) are covered as densely as the center. A query interpolates linearly in logit(p)
+ * between the two neighbouring entries and refines the result by safeguarded Newton steps in the
+ * bracket of the entries (bisection if a Newton step leaves it), so the answer has the precision of the
+ * cdf and usually needs one or two evaluations of the cdf and the pdf. Probabilities above 1/2 are
+ * solved on the tail probability, so the upper quantiles do not lose precision to the rounding of 1 - p.<br/>
+ * The table is immutable; the models build it at the first query after a change of their parameters.
+ * This class also provides the distribution functions of the standard normal distribution.
+ * 
+ * @author Róbert Ormándi
+ */
+public class QuantileTable {
+  private static final int SIZE = 512;
+  private static final double LOGIT_RANGE = 37.0;
+  private static final double STEP = 2.0 * QuantileTable.LOGIT_RANGE / (QuantileTable.SIZE - 1);
+  private static final double TOLERANCE = 1.0E-13;
+  private static final int MAX_ITERATIONS = 200;
+  private static final double NORMAL_SWITCH = 2.5;
+  
+  protected final DistributionFunction distribution; // the distribution of the table
+  protected final double scale;   // scale of the distribution (e.g. its standard deviation) which sets the search steps
+  protected final double[] table; // quantiles of the grid of probabilities
+  
+  /**
+   * It builds the table of the given distribution.
+   * 
+   * @param distribution distribution whose quantiles are tabulated
+   * @param center a point around the center of the distribution (e.g. its mean) where the search starts
+   * @param scale a positive scale of the distribution (e.g. its standard deviation)
+   */
+  public QuantileTable(DistributionFunction distribution, double center, double scale) {
+    if (!(scale > 0.0 && scale < Double.POSITIVE_INFINITY) || !Double.isFinite(center)) {
+      throw new RuntimeException("The center (" + center + ") has to be finite and the scale (" + scale + ") positive!");
+    }
+    this.distribution = distribution;
+    this.scale = scale;
+    table = new double[QuantileTable.SIZE];
+    double x = center, step = scale;
+    for (int j = 0; j < QuantileTable.SIZE; j ++) {
+      final double t = j * QuantileTable.STEP - QuantileTable.LOGIT_RANGE;
+      table[j] = search(QuantileTable.probability(t), QuantileTable.tailProbability(t), x, step);
+      if (j > 0 && table[j] > table[j - 1]) {
+        step = table[j] - table[j - 1];
+      }
+      // the next quantile is extrapolated from the last two
+      x = (j > 0) ? table[j] + step : table[j];
+    }
+  }
+  
+  /**
+   * It returns the quantile of the probability p i.e. the smallest x for which cdf(x) &gt;= p 
+   * (up to the tolerance of the search).
+   * 
+   * @param p probability in [0, 1]
+   * @return quantile (negative infinity for 0 and positive infinity for 1)
+   */
+  public double quantile(double p) {
+    if (!(p >= 0.0 && p <= 1.0)) {
+      throw new RuntimeException("The probability has to be in [0, 1] instead of " + p + "!");
+    }
+    if (p == 0.0) {
+      return Double.NEGATIVE_INFINITY;
+    } else if (p == 1.0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    final double q = 1.0 - p;
+    final double t = (p <= 0.5) ? Math.log(p) - Math.log1p(-p) : Math.log1p(-q) - Math.log(q);
+    final double u = (t + QuantileTable.LOGIT_RANGE) / QuantileTable.STEP;
+    if (!(u >= 0.0 && u < QuantileTable.SIZE - 1)) {
+      // beyond the table
+      final int j = (u < 0.0) ? 0 : QuantileTable.SIZE - 1;
+      return search(p, q, table[j], Math.max(table[QuantileTable.SIZE / 2 + 1] - table[QuantileTable.SIZE / 2], scale));
+    }
+    final int j = (int) u;
+    final double lo = table[j], hi = table[j + 1];
+    return solve(p, q, lo, hi, lo + (u - j) * (hi - lo));
+  }
+  
+  /**
+   * It brackets the quantile of p by expanding steps from the guess and solves it starting from the guess.
+   */
+  private double search(double p, double q, double guess, double step) {
+    double lo = guess, hi = guess;
+    if (isBelow(guess, p, q)) {
+      hi = guess + step;
+      while (isBelow(hi, p, q)) {
+        lo = hi;
+        step *= 2.0;
+        hi = lo + step;
+      }
+    } else {
+      lo = guess - step;
+      while (!isBelow(lo, p, q)) {
+        hi = lo;
+        step *= 2.0;
+        lo = hi - step;
+      }
+    }
+    return solve(p, q, lo, hi, guess);
+  }
+  
+  /**
+   * It tells whether cdf(x) &lt; p (using the tail probability in the upper half).
+   */
+  private boolean isBelow(double x, double p, double q) {
+    return (p <= 0.5) ? distribution.cdf(x) < p : distribution.tail(x) > q;
+  }
+  
+  /**
+   * It finds the quantile of p = 1 - q in the bracket [lo, hi] by Newton steps starting from x, which 
+   * are replaced by bisection steps whenever they leave the bracket.
+   */
+  private double solve(double p, double q, double lo, double hi, double x) {
+    for (int iteration = 0; iteration < QuantileTable.MAX_ITERATIONS; iteration ++) {
+      final double f = (p <= 0.5) ? distribution.cdf(x) - p : q - distribution.tail(x);
+      if (f == 0.0) {
+        return x;
+      }
+      if (f < 0.0) {
+        lo = x;
+      } else {
+        hi = x;
+      }
+      // relative tolerance, so the small quantiles of the distributions on [0, inf) keep their precision
+      final double tolerance = QuantileTable.TOLERANCE * Math.abs(x) + Double.MIN_NORMAL;
+      if (hi - lo <= tolerance) {
+        return hi;
+      }
+      double next = x - f / distribution.density(x);
+      if (Math.abs(next - x) <= tolerance) {
+        // converged (the step can be below the resolution of x)
+        return Math.max(lo, Math.min(hi, next));
+      } else if (!(next > lo && next < hi)) {
+        next = 0.5 * (lo + hi);
+      }
+      x = next;
+    }
+    return hi;
+  }
+  
+  /**
+   * It returns the probability of the logit t.
+   */
+  private static double probability(double t) {
+    return (t <= 0.0) ? Math.exp(t) / (1.0 + Math.exp(t)) : 1.0 / (1.0 + Math.exp(-t));
+  }
+  
+  /**
+   * It returns one minus the probability of the logit t without rounding.
+   */
+  private static double tailProbability(double t) {
+    return QuantileTable.probability(-t);
+  }
+  
+  /**
+   * It computes the cumulative distribution function of the standard normal distribution with double
+   * precision in both tails.
+   * 
+   * @param z point
+   * @return P(Z &lt;= z)
+   */
+  public static double normalCdf(double z) {
+    return (z > 0.0) ? 1.0 - QuantileTable.upperTail(z) : QuantileTable.upperTail(-z);
+  }
+  
+  /**
+   * It computes the tail probability of the standard normal distribution, which keeps its relative
+   * precision for large z.
+   * 
+   * @param z point
+   * @return P(Z &gt; z)
+   */
+  public static double normalTail(double z) {
+    return (z > 0.0) ? QuantileTable.upperTail(z) : 1.0 - QuantileTable.upperTail(-z);
+  }
+  
+  /**
+   * It computes P(Z &gt; a) for a &gt;= 0 (or NaN). The rational approximation of Hart (algorithm 5666 as 
+   * given by West, Better approximations to cumulative normal functions, 2005) is used in the center, 
+   * where its relative error is below 1e-14, and the continued fraction of the incomplete gamma function 
+   * (P(Z &gt; a) = Q(1/2, a^2/2) / 2) in the tail, where the rational approximation loses digits.
+   */
+  private static double upperTail(double a) {
+    if (a > 38.5) {
+      return 0.0;
+    } else if (a >= QuantileTable.NORMAL_SWITCH) {
+      return 0.5 * ComponentFamily.regularizedGammaQ(0.5, 0.5 * a * a);
+    }
+    double num = 3.52624965998911E-02 * a + 0.700383064443688;
+    num = num * a + 6.37396220353165;
+    num = num * a + 33.912866078383;
+    num = num * a + 112.079291497871;
+    num = num * a + 221.213596169931;
+    num = num * a + 220.206867912376;
+    double den = 8.83883476483184E-02 * a + 1.75566716318264;
+    den = den * a + 16.064177579207;
+    den = den * a + 86.7807322029461;
+    den = den * a + 296.564248779674;
+    den = den * a + 637.333633378831;
+    den = den * a + 793.826512519948;
+    den = den * a + 440.413735824752;
+    return Math.exp(-0.5 * a * a) * num / den;
+  }
+}
@@ -0,0 +1,24 @@
+package densityEstimator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This is a general representation of a stream of samples which can be fed into a mixture model
+ * e.g. samples generated from a known mixture or samples replayed from a file.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface SampleSource extends Closeable {
+  /**
+   * It reads at most <i>length</i> samples into the buffer starting at index <i>offset</i>.
+   * The method blocks until at least one sample is available or the end of the stream is reached.
+   * 
+   * @param buffer output array
+   * @param offset index of the first sample in the buffer
+   * @param length maximal number of samples to read
+   * @return number of samples read or -1 if the end of the stream is reached
+   * @throws IOException if the samples cannot be read
+   */
+  public int read(double[] buffer, int offset, int length) throws IOException;
+}
@@ -1,5 +1,6 @@
 package densityEstimator;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -44,21 +45,81 @@ public class SmoothGMM extends BatchBasedOnlineGMM {
   }
   
   @Override
-  public void update(double x) {
-    super.update(x);
+  protected void performMStep() {
+    super.performMStep();
     
-    // M-step updte occured
-    if (c == 0) {
-      for (int i = 0; i < k; i ++) {
-        // weights
-        w[i] = (1.0 - alpha) * prev_w[i] + alpha * w[i];
-        prev_w[i] = w[i];
-        m[i] = (1.0 - alpha) * prev_m[i] + alpha * m[i];
-        prev_m[i] = m[i];
-        v[i] = (1.0 - alpha) * prev_v[i] + alpha * v[i];
-        prev_v[i] = v[i];
-      }
+    // smooth the parameters produced by the M-step
+    for (int i = 0; i < k; i ++) {
+      // weights
+      w[i] = (1.0 - alpha) * prev_w[i] + alpha * w[i];
+      prev_w[i] = w[i];
+      m[i] = (1.0 - alpha) * prev_m[i] + alpha * m[i];
+      prev_m[i] = m[i];
+      v[i] = (1.0 - alpha) * prev_v[i] + alpha * v[i];
+      prev_v[i] = v[i];
     }
   }
-
+  
+  /**
+   * The previous parameters of the new components are their current parameters, which holds after
+   * each M-step anyway.
+   */
+  @Override
+  protected void componentsChanged() {
+    super.componentsChanged();
+    prev_w = w.clone();
+    prev_m = m.clone();
+    prev_v = v.clone();
+  }
+  
+  /**
+   * It checks whether the previous parameters are equal to the current ones, which holds after each M-step.
+   */
+  private boolean isPreviousEqualToCurrent() {
+    return Arrays.equals(prev_w, w) && Arrays.equals(prev_m, m) && Arrays.equals(prev_v, v);
+  }
+  
+  /**
+   * The previous parameters are written only if they differ from the current ones.
+   */
+  @Override
+  protected int getCheckpointSize() {
+    return super.getCheckpointSize() + ModelCheckpoint.SECTION_HEADER_SIZE + 8 + 1 + (isPreviousEqualToCurrent() ? 0 : 3 * 8 * k);
+  }
+  
+  @Override
+  protected void writeCheckpoint(ByteBuffer out) {
+    super.writeCheckpoint(out);
+    final int section = ModelCheckpoint.beginSection(out);
+    out.putDouble(alpha);
+    if (isPreviousEqualToCurrent()) {
+      out.put((byte) 0);
+    } else {
+      out.put((byte) 1);
+      ModelCheckpoint.putDoubles(out, prev_w);
+      ModelCheckpoint.putDoubles(out, prev_m);
+      ModelCheckpoint.putDoubles(out, prev_v);
+    }
+    ModelCheckpoint.endSection(out, section);
+  }
+  
+  @Override
+  protected void readCheckpoint(ByteBuffer in) {
+    super.readCheckpoint(in);
+    final int end = ModelCheckpoint.readSection(in);
+    alpha = in.getDouble();
+    prev_w = new double[k];
+    prev_m = new double[k];
+    prev_v = new double[k];
+    if (in.get() == 0) {
+      System.arraycopy(w, 0, prev_w, 0, k);
+      System.arraycopy(m, 0, prev_m, 0, k);
+      System.arraycopy(v, 0, prev_v, 0, k);
+    } else {
+      ModelCheckpoint.getDoubles(in, prev_w);
+      ModelCheckpoint.getDoubles(in, prev_m);
+      ModelCheckpoint.getDoubles(in, prev_v);
+    }
+    ModelCheckpoint.skipSection(in, end);
+  }
 }
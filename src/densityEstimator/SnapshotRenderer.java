@@ -0,0 +1,32 @@
+package densityEstimator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This is a general representation of the renderers of the simulator. A renderer receives the
+ * state of the simulation at every snapshot and produces an animation from them when it is closed.
+ * 
+ * @author Róbert Ormándi
+ */
+public interface SnapshotRenderer extends Closeable {
+  /**
+   * It renders a frame of the animation. The arguments are not modified by the renderer, but the
+   * histogram is modified by the simulation after the call, so an asynchronous renderer has to copy
+   * its content before returning.
+   * 
+   * @param iteration number of the processed samples
+   * @param current immutable snapshot of the current parameters of the estimator
+   * @param histogram histogram of the processed samples
+   * @throws IOException if the frame cannot be written
+   */
+  public void render(int iteration, GMMSnapshot current, Histogram histogram) throws IOException;
+  
+  /**
+   * It waits for the pending frames and writes the final animation.
+   * 
+   * @throws IOException if the animation cannot be written
+   */
+  @Override
+  public void close() throws IOException;
+}
@@ -0,0 +1,198 @@
+package densityEstimator;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * This class implements the stepwise online EM algorithm of Cappé and Moulines. Instead of
+ * collecting the statistics of a batch, the model keeps a running (stochastic approximation)
+ * average of the sufficient statistics and performs an M-step after every sample:
+ * <ul>
+ *   <li>E-step: the responsibilities P(C_i|x_n) are computed using the current parameters.</li>
+ *   <li>The average statistics are moved towards the statistics of the sample:
+ *   s = (1 - gamma_n) * s + gamma_n * (P(C_i|x_n), P(C_i|x_n) * x_n, P(C_i|x_n) * x_n^2).</li>
+ *   <li>M-step: the parameters are computed from the average statistics.</li>
+ * </ul>
+ * Each update takes O(K) time and needs no batch buffer, so the parameters always reflect the
+ * last sample. The step size follows the schedule gamma_n = max(minStepSize, (n + stepOffset)^(-stepExponent)),
+ * where the exponent has to be in (0.5, 1] for the convergence on a stationary stream. The offset
+ * makes the initial parameters act like a prior of about stepOffset samples, while a positive
+ * minimal step size keeps the model adapting to a drifting stream (its memory is about
+ * 1/minStepSize samples). The first M-step is performed only after burnIn samples, which
+ * corresponds to the first batch of the batch based estimator: the early, large steps would
+ * otherwise starve the components which are far from the first few samples.<br/>
+ * Parameters (all of them are optional): stepExponent (default 0.6), stepOffset (default 10),
+ * minStepSize (default 0) and burnIn (default 1000). The model order management (see 
+ * AbstractGMM.parseOrderParameters) is applied after every ORDER_INTERVAL samples. With a data driven
+ * initialization (see AbstractGMM.parseInitParameters) the first burnIn samples are buffered by default.
+ * 
+ * @author Róbert Ormándi
+ */
+public class StepwiseOnlineGMM extends AbstractGMM {
+  private static final long serialVersionUID = -4470930585262174613L;
+  private static final int ORDER_INTERVAL = 1024;
+  
+  protected double stepExponent = 0.6;  // exponent of the step size schedule
+  protected double stepOffset = 10.0;   // offset of the step size schedule
+  protected double minStepSize = 0.0;   // lower bound of the step size
+  protected long burnIn = 1000;         // number of samples before the first M-step
+  protected long n = 0;                 // number of processed samples
+  protected double[] pcx;               // numOfComps array in which the probabilities of a sample are computed
+  protected SufficientStatistics stats; // running averages of the statistics
+  
+  /**
+   * This is a mandatory constructor which is used through the reflection based initalization in the simulator.
+   */
+  public StepwiseOnlineGMM(int numberOfComponents) {
+    setNumberOfComponents(numberOfComponents);
+  }
+  
+  /**
+   * The average statistics are initialized to the statistics of the initial parameters.
+   */
+  @Override
+  public void setNumberOfComponents(int num) {
+    super.setNumberOfComponents(num);
+    pcx = new double[num];
+    stats = new SufficientStatistics(num);
+    stats.set(w, m, v);
+    n = 0;
+  }
+  
+  @Override
+  public Map<String,String> parseParameters(String params) {
+    Map<String,String> p = BatchBasedOnlineGMM.parseParamsToMap(params);
+    if (p.containsKey("stepExponent")) {
+      stepExponent = Double.parseDouble(p.get("stepExponent"));
+      if (!(stepExponent > 0.5 && stepExponent <= 1.0)) {
+        throw new RuntimeException("Parameter stepExponent has to be in (0.5, 1] for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("stepOffset")) {
+      stepOffset = Double.parseDouble(p.get("stepOffset"));
+      if (!(stepOffset >= 0.0)) {
+        throw new RuntimeException("Parameter stepOffset has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("minStepSize")) {
+      minStepSize = Double.parseDouble(p.get("minStepSize"));
+      if (!(minStepSize >= 0.0 && minStepSize < 1.0)) {
+        throw new RuntimeException("Parameter minStepSize has to be in [0, 1) for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    if (p.containsKey("burnIn")) {
+      burnIn = Long.parseLong(p.get("burnIn"));
+      if (burnIn < 0) {
+        throw new RuntimeException("Parameter burnIn has to be non-negative for mixture model " + getClass().getCanonicalName() + "!");
+      }
+    }
+    parseOrderParameters(p);
+    parseInitParameters(p, (int) Math.min(Math.max(burnIn, 1), Integer.MAX_VALUE));
+    return p;
+  }
+  
+  /**
+   * It returns the step size of the <i>n</i>th sample.
+   * 
+   * @param n index of the sample (starting from 1)
+   * @return step size
+   */
+  protected double getStepSize(long n) {
+    return Math.max(minStepSize, Math.pow(n + stepOffset, -stepExponent));
+  }
+  
+  @Override
+  public void update(double x) {
+    if (reservoir != null) {
+      // the sample is buffered for the initialization and processed after it
+      reserve(x);
+      return;
+    }
+    final long start = (metrics == null) ? 0L : System.nanoTime();
+    // compute the P(C_i|x) values for each component in log-space
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = computeComponentLogDensity(i, x);
+      max = Math.max(max, pcx[i]);
+    }
+    max = (max == Double.NEGATIVE_INFINITY) ? 0.0 : max; // every component is dead or x is not finite
+    double sumProbs = 0.0;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] = Math.exp(pcx[i] - max);
+      sumProbs += pcx[i];
+    }
+    if (metrics != null) {
+      metrics.recordLogDensity((sumProbs == 0.0) ? Double.NEGATIVE_INFINITY : max + Math.log(sumProbs));
+    }
+    if (sumProbs == 0.0 || sumProbs != sumProbs) {
+      // the sample cannot be assigned to any component, so it is skipped
+      if (metrics != null) {
+        metrics.recordUpdate(1, System.nanoTime() - start);
+      }
+      return;
+    }
+    
+    // move the average statistics towards the statistics of the sample
+    n ++;
+    final double gamma = getStepSize(n);
+    final double norm = gamma / sumProbs;
+    for (int i = 0; i < k; i ++) {
+      pcx[i] *= norm;
+    }
+    stats.scale(1.0 - gamma);
+    stats.add(x, pcx);
+    
+    // M-step (the statistics are averages, so they belong to one sample)
+    if (n >= burnIn) {
+      stats.maximize(w, m, v, 1.0, metrics);
+      if (n % StepwiseOnlineGMM.ORDER_INTERVAL == 0) {
+        manageComponents();
+      }
+      refreshCoefficients();
+    }
+    if (metrics != null) {
+      metrics.recordUpdate(1, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * The average statistics of the new components are initialized from their parameters.
+   */
+  @Override
+  protected void componentsChanged() {
+    pcx = new double[k];
+    stats = new SufficientStatistics(k);
+    stats.set(w, m, v);
+  }
+  
+  @Override
+  protected int getCheckpointSize() {
+    return super.getCheckpointSize() + ModelCheckpoint.SECTION_HEADER_SIZE + 3 * 8 + 2 * 8 + 3 * 8 * k;
+  }
+  
+  @Override
+  protected void writeCheckpoint(ByteBuffer out) {
+    super.writeCheckpoint(out);
+    final int section = ModelCheckpoint.beginSection(out);
+    out.putDouble(stepExponent);
+    out.putDouble(stepOffset);
+    out.putDouble(minStepSize);
+    out.putLong(burnIn);
+    out.putLong(n);
+    stats.writeCheckpoint(out);
+    ModelCheckpoint.endSection(out, section);
+  }
+  
+  @Override
+  protected void readCheckpoint(ByteBuffer in) {
+    super.readCheckpoint(in);
+    final int end = ModelCheckpoint.readSection(in);
+    stepExponent = in.getDouble();
+    stepOffset = in.getDouble();
+    minStepSize = in.getDouble();
+    burnIn = in.getLong();
+    n = in.getLong();
+    stats.readCheckpoint(in);
+    ModelCheckpoint.skipSection(in, end);
+  }
+}
@@ -0,0 +1,273 @@
+package densityEstimator;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class collects the sufficient statistics of the E-step of a Gaussian mixture model
+ * i.e. for each component <i>i</i> the sums of P(C_i|x), P(C_i|x)*x and P(C_i|x)*x^2 over the
+ * observed samples.<br/>
+ * The statistics are mergeable, so the E-step of a batch can be split into parts which are
+ * computed independently (e.g. on different threads) and merged before the M-step. The result
+ * is the same as the sequential one up to the order of the floating-point summation.
+ * 
+ * @author Róbert Ormándi
+ */
+public class SufficientStatistics implements Serializable {
+  private static final long serialVersionUID = -2398511273906455163L;
+  
+  static final double EPS = 1.0E-12;
+  
+  /**
+   * Maximal number of samples which are processed by one addBlock call.
+   */
+  public static final int BLOCK_SIZE = 256;
+  
+  protected final int k;
+  protected final double[] s0; // sums of P(C_i|x)
+  protected final double[] s1; // sums of P(C_i|x) * x
+  protected final double[] s2; // sums of P(C_i|x) * x^2
+  
+  /**
+   * It creates empty statistics for the given number of components.
+   * 
+   * @param numberOfComponents number of components
+   */
+  public SufficientStatistics(int numberOfComponents) {
+    k = numberOfComponents;
+    s0 = new double[k];
+    s1 = new double[k];
+    s2 = new double[k];
+  }
+  
+  /**
+   * It adds the sample x with the given responsibilities to the statistics.
+   * 
+   * @param x observation
+   * @param pcx P(C_i|x) values of the components
+   */
+  public void add(double x, double[] pcx) {
+    for (int i = 0; i < k; i ++) {
+      s0[i] += pcx[i];
+      s1[i] += pcx[i] * x;
+      s2[i] += pcx[i] * x * x;
+    }
+  }
+  
+  /**
+   * It adds partial sums which were collected on some samples to the statistics of the <i>i</i>th component.
+   * 
+   * @param i index of the component
+   * @param sum0 sum of P(C_i|x)
+   * @param sum1 sum of P(C_i|x) * x
+   * @param sum2 sum of P(C_i|x) * x^2
+   */
+  public void add(int i, double sum0, double sum1, double sum2) {
+    s0[i] += sum0;
+    s1[i] += sum1;
+    s2[i] += sum2;
+  }
+  
+  /**
+   * It performs the E-step of a Gaussian mixture on the samples xs[offset..offset+n) and adds the
+   * results to the statistics. The components are given by their means and cached coefficients 
+   * (see AbstractGMM). The loops are component-major and contain no data dependent branches, so 
+   * that the JIT can unroll and vectorize them.
+   * 
+   * @param xs array of observations
+   * @param offset index of the first observation of the block
+   * @param n number of observations in the block (at most BLOCK_SIZE)
+   * @param m component means
+   * @param lw log weights of the components
+   * @param ln log normalisers of the components
+   * @param iv inverse variances of the components
+   * @param p numOfComps x BLOCK_SIZE scratch array
+   * @param sums BLOCK_SIZE scratch array
+   * @param maxs BLOCK_SIZE scratch array
+   */
+  public void addBlock(double[] xs, int offset, int n, double[] m, double[] lw, double[] ln, double[] iv, double[] p, double[] sums, double[] maxs) {
+    // weighted log densities of the components (component-major) using the cached coefficients
+    for (int i = 0; i < k; i ++) {
+      final double coef = lw[i] + ln[i]; // it is negative infinity for dead components
+      final double a = -0.5 * iv[i];
+      final double mi = m[i];
+      final int base = i * SufficientStatistics.BLOCK_SIZE;
+      for (int j = 0; j < n; j ++) {
+        final double d = xs[offset + j] - mi;
+        p[base + j] = coef + a * d * d;
+      }
+    }
+    
+    // maximal log densities of the samples
+    Arrays.fill(sums, 0, n, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < k; i ++) {
+      final int base = i * SufficientStatistics.BLOCK_SIZE;
+      for (int j = 0; j < n; j ++) {
+        sums[j] = Math.max(sums[j], p[base + j]);
+      }
+    }
+    for (int j = 0; j < n; j ++) {
+      maxs[j] = (sums[j] == Double.NEGATIVE_INFINITY) ? 0.0 : sums[j]; // every component is dead or x is not finite
+    }
+    
+    // scaled densities and normalization factors (log-sum-exp)
+    Arrays.fill(sums, 0, n, 0.0);
+    for (int i = 0; i < k; i ++) {
+      final int base = i * SufficientStatistics.BLOCK_SIZE;
+      for (int j = 0; j < n; j ++) {
+        p[base + j] = Math.exp(p[base + j] - maxs[j]);
+        sums[j] += p[base + j];
+      }
+    }
+    for (int j = 0; j < n; j ++) {
+      // the largest term is exp(0.0) = 1.0, so the sum does not underflow
+      sums[j] = (sums[j] == 0.0) ? 0.0 : 1.0 / sums[j];
+    }
+    
+    // accumulate moments
+    for (int i = 0; i < k; i ++) {
+      final int base = i * SufficientStatistics.BLOCK_SIZE;
+      double s0 = 0.0, s1 = 0.0, s2 = 0.0;
+      for (int j = 0; j < n; j ++) {
+        final double x = xs[offset + j];
+        final double g = p[base + j] * sums[j];
+        s0 += g;
+        s1 += g * x;
+        s2 += g * x * x;
+      }
+      add(i, s0, s1, s2);
+    }
+  }
+  
+  /**
+   * It adds the statistics of another set of samples to the current one.
+   * 
+   * @param other statistics with the same number of components
+   */
+  public void merge(SufficientStatistics other) {
+    if (other.k != k) {
+      throw new RuntimeException("Statistics with different number of components (" + k + " and " + other.k + ") cannot be merged!");
+    }
+    for (int i = 0; i < k; i ++) {
+      s0[i] += other.s0[i];
+      s1[i] += other.s1[i];
+      s2[i] += other.s2[i];
+    }
+  }
+  
+  /**
+   * It multiplies each statistic by the given factor. It is used by the estimators which keep
+   * exponentially weighted averages instead of sums.
+   * 
+   * @param factor multiplier of the statistics
+   */
+  public void scale(double factor) {
+    for (int i = 0; i < k; i ++) {
+      s0[i] *= factor;
+      s1[i] *= factor;
+      s2[i] *= factor;
+    }
+  }
+  
+  /**
+   * It sets the statistics to the expected statistics of one sample of the given mixture i.e.
+   * w_i, w_i * m_i and w_i * (v_i^2 + m_i^2) for each component <i>i</i>.
+   * 
+   * @param w component weights
+   * @param m component means
+   * @param v component variances (sigma values)
+   */
+  public void set(double[] w, double[] m, double[] v) {
+    for (int i = 0; i < k; i ++) {
+      s0[i] = w[i];
+      s1[i] = w[i] * m[i];
+      s2[i] = w[i] * (v[i] * v[i] + m[i] * m[i]);
+    }
+  }
+  
+  /**
+   * It clears the statistics.
+   */
+  public void reset() {
+    Arrays.fill(s0, 0.0);
+    Arrays.fill(s1, 0.0);
+    Arrays.fill(s2, 0.0);
+  }
+  
+  /**
+   * This method performs the M-step i.e. computes the maximum likelihood parameters from
+   * the statistics which were collected on <i>n</i> samples. The statistics are not cleared.
+   * 
+   * @param w output array of component weights
+   * @param m output array of component means
+   * @param v output array of component variances (sigma values)
+   * @param n number of samples the statistics were collected on
+   */
+  public void maximize(double[] w, double[] m, double[] v, double n) {
+    maximize(w, m, v, n, null);
+  }
+  
+  /**
+   * This method performs the M-step like maximize(w, m, v, n) and reports the numeric guards which 
+   * fired to the metrics: the statistics and variances clamped to EPS, and the components which died 
+   * (their weight was clamped to zero) or collapsed (their variance was clamped to EPS) in this step.
+   * 
+   * @param w input array of the previous and output array of the new component weights
+   * @param m output array of component means
+   * @param v input array of the previous and output array of the new component variances (sigma values)
+   * @param n number of samples the statistics were collected on
+   * @param metrics metrics to which the guards are reported (it can be null)
+   */
+  public void maximize(double[] w, double[] m, double[] v, double n, EstimatorMetrics metrics) {
+    int epsClamps = 0, collapses = 0;
+    for (int i = 0; i < k; i ++) {
+      final boolean wasAlive = w[i] > 0.0 && v[i] > SufficientStatistics.EPS;
+      final double sum0 = (s0[i] < SufficientStatistics.EPS) ? SufficientStatistics.EPS : s0[i]; // numeric issues
+      final double sum2 = (s2[i] < SufficientStatistics.EPS) ? SufficientStatistics.EPS : s2[i]; // numeric issues
+      m[i] = s1[i] / sum0;
+      v[i] = Math.sqrt(sum2 / sum0 - m[i] * m[i]);
+      v[i] = (v[i] < SufficientStatistics.EPS || Double.isNaN(v[i])) ? SufficientStatistics.EPS : v[i]; // numeric issue
+      w[i] = s0[i] / n;
+      w[i] = (w[i] < SufficientStatistics.EPS) ? 0.0 : w[i]; // numeric issue
+      if (metrics != null) {
+        epsClamps += ((s0[i] < SufficientStatistics.EPS) ? 1 : 0) + ((s2[i] < SufficientStatistics.EPS) ? 1 : 0) + ((v[i] == SufficientStatistics.EPS) ? 1 : 0);
+        collapses += (wasAlive && (w[i] == 0.0 || v[i] == SufficientStatistics.EPS)) ? 1 : 0;
+      }
+    }
+    if (metrics != null) {
+      metrics.recordClamps(epsClamps, collapses);
+    }
+  }
+  
+  /**
+   * It writes the statistics into the buffer (see ModelCheckpoint).
+   * 
+   * @param out buffer in which the statistics are written
+   */
+  void writeCheckpoint(ByteBuffer out) {
+    ModelCheckpoint.putDoubles(out, s0);
+    ModelCheckpoint.putDoubles(out, s1);
+    ModelCheckpoint.putDoubles(out, s2);
+  }
+  
+  /**
+   * It reads the statistics which were written by writeCheckpoint.
+   * 
+   * @param in buffer from which the statistics are read
+   */
+  void readCheckpoint(ByteBuffer in) {
+    ModelCheckpoint.getDoubles(in, s0);
+    ModelCheckpoint.getDoubles(in, s1);
+    ModelCheckpoint.getDoubles(in, s2);
+  }
+  
+  /**
+   * It returns the number of components.
+   * 
+   * @return number of components
+   */
+  public int getNumberOfComponents() {
+    return k;
+  }
+}
@@ -0,0 +1,104 @@
+package densityEstimator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This source reads samples from a column of a text stream (e.g. a CSV file or the standard input).
+ * The columns are separated by commas, semicolons or whitespace. Blank lines and lines starting
+ * with # are skipped, and the first other line is skipped as a header if its column is not a number
+ * (so a header can follow leading comment lines).
+ * 
+ * @author Róbert Ormándi
+ */
+public class TextSampleSource implements SampleSource {
+  private final BufferedReader reader;
+  private final int column;
+  private long lineNumber = 0;
+  private boolean isFirstLine = true; // whether the next line which is not skipped can be a header
+  
+  /**
+   * It creates a source which reads the given column of the stream.
+   * 
+   * @param in input stream
+   * @param column index of the column (starting from 0)
+   */
+  public TextSampleSource(InputStream in, int column) {
+    reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    this.column = column;
+  }
+  
+  @Override
+  public int read(double[] buffer, int offset, int length) throws IOException {
+    int n = 0;
+    while (n < length) {
+      final String line = reader.readLine();
+      if (line == null) {
+        break;
+      }
+      lineNumber ++;
+      if (line.isBlank() || line.charAt(0) == '#') {
+        continue;
+      }
+      final boolean isHeaderCandidate = isFirstLine;
+      isFirstLine = false;
+      try {
+        buffer[offset + n] = TextSampleSource.parseColumn(line, column);
+        n ++;
+      } catch (NumberFormatException e) {
+        if (!isHeaderCandidate) {
+          throw new IOException("Bad number in column " + column + " at line " + lineNumber + ": " + line, e);
+        }
+        // header line
+      }
+    }
+    return (n == 0 && length > 0) ? -1 : n;
+  }
+  
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t';
+  }
+  
+  private static boolean isSeparator(char c) {
+    return c == ',' || c == ';' || c == ' ' || c == '\t';
+  }
+  
+  /**
+   * It parses the given column of the line without splitting the whole line.
+   */
+  private static double parseColumn(String line, int column) {
+    final int len = line.length();
+    int start = 0;
+    for (int col = 0; ; col ++) {
+      while (start < len && TextSampleSource.isSpace(line.charAt(start))) {
+        start ++;
+      }
+      int end = start;
+      while (end < len && !TextSampleSource.isSeparator(line.charAt(end))) {
+        end ++;
+      }
+      if (col == column) {
+        return Double.parseDouble(line.substring(start, end));
+      }
+      // skip the separator: a run of whitespace and at most one comma or semicolon
+      start = end;
+      while (start < len && TextSampleSource.isSpace(line.charAt(start))) {
+        start ++;
+      }
+      if (start < len && (line.charAt(start) == ',' || line.charAt(start) == ';')) {
+        start ++;
+      }
+      if (start >= len) {
+        throw new NumberFormatException("There is no column " + column);
+      }
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}